@@ -1,55 +1,77 @@
 package com.leskor.palermopg;
 
 import com.leskor.palermopg.dao.AlbumDao;
+import com.leskor.palermopg.dao.JobDao;
 import com.leskor.palermopg.dao.LimitsDao;
 import com.leskor.palermopg.dao.PictureDataDao;
 import com.leskor.palermopg.dao.PictureMetaDao;
 import com.leskor.palermopg.dao.impl.FilePictureDataDao;
+import com.leskor.palermopg.dao.impl.InMemoryAlbumDao;
+import com.leskor.palermopg.dao.impl.InMemoryJobDao;
+import com.leskor.palermopg.dao.impl.InMemoryLimitsDao;
+import com.leskor.palermopg.dao.impl.InMemoryPictureMetaDao;
 import com.leskor.palermopg.dao.impl.MongoAlbumDao;
+import com.leskor.palermopg.dao.impl.MongoIndexManager;
+import com.leskor.palermopg.dao.impl.MongoJobDao;
 import com.leskor.palermopg.dao.impl.MongoLimitsDao;
+import com.leskor.palermopg.dao.impl.MongoMetrics;
 import com.leskor.palermopg.dao.impl.MongoPictureMetaDao;
 import com.leskor.palermopg.handlers.AlbumHandler;
+import com.leskor.palermopg.handlers.JobHandler;
 import com.leskor.palermopg.handlers.PictureHandler;
 import com.leskor.palermopg.handlers.StorageHandler;
+import com.leskor.palermopg.security.AlbumAccessIndex;
 import com.leskor.palermopg.security.JWTParser;
+import com.leskor.palermopg.security.PictureUrlSigner;
+import com.leskor.palermopg.security.RequestLimiter;
+import com.leskor.palermopg.services.ChecksumBackfiller;
+import com.leskor.palermopg.services.LibrarySeeder;
 import com.leskor.palermopg.services.PictureManipulationService;
 import com.leskor.palermopg.services.PictureService;
 import com.leskor.palermopg.services.StorageService;
+import com.leskor.palermopg.services.TombstoneCollector;
 import com.leskor.palermopg.services.album.*;
+import com.leskor.palermopg.services.job.JobRunner;
+import com.leskor.palermopg.services.job.JobService;
+import com.leskor.palermopg.util.ResponseCache;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
 import com.mongodb.reactivestreams.client.MongoClient;
 import com.mongodb.reactivestreams.client.MongoClients;
-import io.vertx.core.Handler;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
-import io.vertx.ext.web.Router;
-import io.vertx.ext.web.RoutingContext;
-import io.vertx.ext.web.handler.BodyHandler;
-import io.vertx.ext.web.handler.LoggerFormat;
-import io.vertx.ext.web.handler.LoggerHandler;
 import io.vertx.micrometer.MicrometerMetricsOptions;
-import io.vertx.micrometer.PrometheusScrapingHandler;
 import io.vertx.micrometer.VertxPrometheusOptions;
+import io.vertx.micrometer.backends.BackendRegistries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Base64;
-
-import static com.leskor.palermopg.util.ApiUtils.cors;
+import java.util.function.Supplier;
 
 public class Application {
     private static final Logger logger = LoggerFactory.getLogger("Application");
 
-    private static final String JSON_FORMAT = "application/json";
-    private static final String JPEG_FORMAT = "image/jpeg";
+    private static final String IN_MEMORY_MODE = "memory";
+    private static final long LIMITER_SWEEP_INTERVAL_MS = 60_000;
 
     private final Vertx vertx;
     private final JWTParser jwtParser;
     private final PictureHandler pictureHandler;
     private final AlbumHandler albumHandler;
     private final StorageHandler storageHandler;
-    private final Handler<RoutingContext> metricsHandler = PrometheusScrapingHandler.create();
+    private final JobHandler jobHandler;
+    private final Supplier<Future<Void>> storageReady;
+    private final AlbumAccessIndex albumAccessIndex;
 
     private final String metricsCredentialsEncoded;
+    private final RequestLimiter requestLimiter;
+    private final PictureUrlSigner pictureUrlSigner;
 
     private Application() {
         VertxOptions options = new VertxOptions().setMetricsOptions(
@@ -69,110 +91,129 @@ public class Application {
             metricsCredentialsEncoded = null;
         }
 
-        final String dbUrl = System.getenv("PIC_DB");
-        final MongoClient asyncMongoClient = MongoClients.create(dbUrl);
-
         jwtParser = new JWTParser();
+        requestLimiter = new RequestLimiter();
 
         PictureDataDao pictureDataDao = new FilePictureDataDao(vertx.getOrCreateContext());
-        PictureMetaDao pictureMetaDao = new MongoPictureMetaDao(asyncMongoClient);
-        AlbumDao albumDao = new MongoAlbumDao(asyncMongoClient);
-        LimitsDao limitsDao = new MongoLimitsDao(asyncMongoClient);
+        PictureMetaDao pictureMetaDao;
+        AlbumDao albumDao;
+        LimitsDao limitsDao;
+        JobDao jobDao;
+        MongoIndexManager indexManager = null;
+        if (IN_MEMORY_MODE.equals(System.getenv("PIC_DB_MODE"))) {
+            logger.warn("Running with in-memory storage, metadata will be lost on shutdown");
+            pictureMetaDao = new InMemoryPictureMetaDao();
+            albumDao = new InMemoryAlbumDao();
+            limitsDao = new InMemoryLimitsDao();
+            jobDao = new InMemoryJobDao();
+        } else {
+            final String dbUrl = System.getenv("PIC_DB");
+            final MongoMetrics mongoMetrics = new MongoMetrics(BackendRegistries.getDefaultNow());
+            final MongoClient asyncMongoClient = MongoClients.create(mongoMetrics
+                    .instrument(MongoClientSettings.builder().applyConnectionString(new ConnectionString(dbUrl)))
+                    .build());
+
+            indexManager = new MongoIndexManager(asyncMongoClient);
+            pictureMetaDao = new MongoPictureMetaDao(asyncMongoClient, vertx);
+            albumDao = new MongoAlbumDao(asyncMongoClient, vertx);
+            limitsDao = new MongoLimitsDao(asyncMongoClient);
+            jobDao = new MongoJobDao(asyncMongoClient);
+        }
+
         PictureManipulationService pmService = new PictureManipulationService(vertx.getOrCreateContext());
+        albumAccessIndex = new AlbumAccessIndex(albumDao);
 
-        StorageService storageService = new StorageService(pictureMetaDao, pictureDataDao, limitsDao, jwtParser);
-        PictureService pictureService = new PictureService(pictureMetaDao, pictureDataDao, albumDao, jwtParser, storageService, pmService);
-        AlbumCreationService albumCreationService = new AlbumCreationService(albumDao);
-        AlbumFetchingService albumFetchingService = new AlbumFetchingService(albumDao, pictureMetaDao, pictureDataDao, jwtParser);
-        AlbumSharingService albumSharingService = new AlbumSharingService(albumDao);
-        AlbumUpdatingService albumUpdatingService = new AlbumUpdatingService(albumDao);
-        AlbumDeletingService albumDeletingService
-                = new AlbumDeletingService(jwtParser, pictureService, albumDao, pictureMetaDao, albumFetchingService);
+        if (indexManager != null) {
+            storageReady = indexManager::ensureIndexes;
+        } else {
+            LibrarySeeder seeder = new LibrarySeeder(pictureMetaDao, pictureDataDao, albumDao, pmService);
+            storageReady = () -> seedLibrary(seeder);
+        }
+
+        pictureMetaDao.backfillSortKeys()
+                .onSuccess(count -> logger.info("Backfilled sort keys for {} pictures", count))
+                .onFailure(cause -> logger.error("Failed to backfill picture sort keys", cause));
+        new TombstoneCollector(vertx, pictureMetaDao, pictureDataDao, albumDao).start();
+        new ChecksumBackfiller(vertx, pictureMetaDao, pictureDataDao).start();
+
+        StorageService storageService = new StorageService(pictureMetaDao, pictureDataDao, limitsDao);
+        pictureUrlSigner = new PictureUrlSigner();
+        PictureService pictureService = new PictureService(pictureMetaDao, pictureDataDao, albumAccessIndex, storageService, pmService, pictureUrlSigner);
+        AlbumCreationService albumCreationService = new AlbumCreationService(albumDao, albumAccessIndex);
+        AlbumFetchingService albumFetchingService
+                = new AlbumFetchingService(albumDao, pictureMetaDao, pictureDataDao, albumAccessIndex, pictureUrlSigner);
+        AlbumSharingService albumSharingService = new AlbumSharingService(albumDao, albumAccessIndex);
+        AlbumUpdatingService albumUpdatingService = new AlbumUpdatingService(albumDao, albumAccessIndex);
+        JobService jobService = new JobService(jobDao);
+        AlbumDeletingService albumDeletingService = new AlbumDeletingService(
+                albumDao, pictureMetaDao, albumAccessIndex, jobService);
+        new JobRunner(vertx, jobDao).register(albumDeletingService).start();
 
         pictureHandler = new PictureHandler(pictureService);
-        albumHandler = new AlbumHandler(albumCreationService, albumFetchingService, albumSharingService, albumUpdatingService, albumDeletingService);
+        albumHandler = new AlbumHandler(albumCreationService, albumFetchingService, albumSharingService, albumUpdatingService, albumDeletingService,
+                new ResponseCache());
         storageHandler = new StorageHandler(storageService);
+        jobHandler = new JobHandler(jobService);
     }
 
     public static void main(String[] args) {
         logger.info("Starting PalermoPG 1.23.0");
         Application palermoPG = new Application();
-        palermoPG.startHttpServer();
-    }
-
-    private void startHttpServer() {
-        Router router = createRouter();
-
-        logger.debug("Creating HTTP server on 8081 port");
-        vertx.createHttpServer().requestHandler(router)
-                .listen(8081, result -> {
-                    if (result.succeeded()) logger.debug("HTTP server was created");
-                    else logger.error("Failed to deploy HTTP server on port 8081: {}", result.cause().getMessage());
+        palermoPG.storageReady.get()
+                .compose(ready -> palermoPG.albumAccessIndex.load()
+                        .recover(cause -> {
+                            logger.warn("Album access index will be filled on demand: {}", cause.getMessage());
+                            return Future.succeededFuture();
+                        }))
+                .onSuccess(ready -> palermoPG.deployHttpVerticles())
+                .onFailure(cause -> {
+                    logger.error("Storage is not ready, stopping: {}", cause.getMessage());
+                    System.exit(1);
                 });
     }
 
-    private Router createRouter() {
-        Router router = Router.router(vertx);
-
-        router.options().handler(r -> r.response()
-                .putHeader("Access-Control-Allow-Headers", "content-type, authorization")
-                .putHeader("Access-Control-Allow-Origin", "*")
-                .putHeader("Access-Control-Allow-Methods", "GET, DELETE, PATCH, POST, OPTIONS")
-                .putHeader("Access-Control-Max-Age", "-1")
-                .end()
-        );
-
-        router.route("/metrics").handler(this::metrics);
-
-        router.route().handler(LoggerHandler.create(LoggerFormat.TINY));
-
-        router.get("/pic/:userId/:pictureId").produces(JPEG_FORMAT).handler(pictureHandler::getById);
-        router.route("/pic/:userId*").handler(this::authorize);
-        router.route("/pic/:userId*").handler(BodyHandler.create());
-        router.post("/pic/:userId").consumes(JPEG_FORMAT).handler(pictureHandler::add);
-        router.post("/pic/:userId/:pictureId/rotate").handler(pictureHandler::rotate);
-        router.delete("/pic/:userId/:pictureId").produces(JSON_FORMAT).handler(pictureHandler::deleteById);
-
-        router.get("/album/:userId/:albumId/download").handler(albumHandler::downloadAlbum);
-        router.delete("/album/:userId").produces(JSON_FORMAT).handler(albumHandler::deleteAllAlbumsForUser);
-        router.route("/album/:userId*").handler(this::authorize);
-        router.route("/album/:userId*").handler(BodyHandler.create());
-        router.get("/album/:userId").produces(JSON_FORMAT).handler(albumHandler::getAlbumsForUser);
-        router.get("/album/:userId/:albumId").produces(JSON_FORMAT).handler(albumHandler::getAlbumContents);
-        router.route("/v2/album/:userId*").handler(this::authorize);
-        router.get("/v2/album/:userId/:albumId").produces(JSON_FORMAT).handler(albumHandler::getAlbumDetails);
-        router.post("/album/:userId").consumes(JSON_FORMAT).handler(albumHandler::add);
-        router.patch("/album/:userId/:albumId").consumes(JSON_FORMAT).handler(albumHandler::updateAlbum);
-        router.post("/album/:userId/:albumId/share").consumes(JSON_FORMAT).handler(albumHandler::shareAlbum);
-        router.delete("/album/:userId/:albumId").produces(JSON_FORMAT).handler(albumHandler::deleteAlbum);
-
-        router.route("/storage/:userId*").handler(BodyHandler.create());
-        router.get("/storage").produces(JSON_FORMAT).handler(storageHandler::storageByUsers);
-        router.get("/storage/:userId").produces(JSON_FORMAT).handler(storageHandler::storageByUser);
-        router.post("/storage/:userId").consumes(JSON_FORMAT).handler(storageHandler::setUserLimit);
-
-        return router;
-    }
+    // PIC_SEED is "<users>x<albums per user>x<pictures per album>", every picture is a copy of PIC_SEED_PICTURE
+    private static Future<Void> seedLibrary(LibrarySeeder seeder) {
+        final String seed = System.getenv("PIC_SEED");
+        if (seed == null || seed.isBlank()) {
+            return Future.succeededFuture();
+        }
 
-    private void authorize(RoutingContext ctx) {
+        final String[] counts = seed.split("x");
+        final int users;
+        final int albumsPerUser;
+        final int picturesPerAlbum;
+        final byte[] picture;
         try {
-            String token = ctx.request().getHeader("Authorization");
-            long userId = Long.parseLong(ctx.request().getParam("userId"));
-            if (jwtParser.validateTokenForUserId(token, userId)) ctx.next();
-            else cors(ctx.response().setStatusCode(401)).end();
-        } catch (NumberFormatException e) {
-            cors(ctx.response().setStatusCode(400)).end();
+            if (counts.length != 3) {
+                throw new IllegalArgumentException("PIC_SEED should look like 10x20x100, got " + seed);
+            }
+            users = Integer.parseInt(counts[0]);
+            albumsPerUser = Integer.parseInt(counts[1]);
+            picturesPerAlbum = Integer.parseInt(counts[2]);
+            picture = Files.readAllBytes(Path.of(System.getenv("PIC_SEED_PICTURE")));
+        } catch (IOException | RuntimeException e) {
+            return Future.failedFuture(e);
         }
+
+        return seeder.seed(picture, users, albumsPerUser, picturesPerAlbum)
+                .onSuccess(count -> logger.info("Seeded {} pictures", count))
+                .mapEmpty();
     }
 
-    private void metrics(RoutingContext ctx) {
-        String authHeader = ctx.request().getHeader("Authorization");
-        String[] tokens = authHeader == null ? new String[]{} : authHeader.split(" ");
-        if (metricsCredentialsEncoded != null
-                && (tokens.length != 2 || !tokens[0].equals("Basic") || !tokens[1].equals(metricsCredentialsEncoded))) {
-            cors(ctx.response().setStatusCode(401)).end();
-            return;
-        }
-        metricsHandler.handle(ctx);
+    private void deployHttpVerticles() {
+        int instances = httpInstancesFromEnv();
+        logger.info("Deploying {} HTTP verticle instances", instances);
+        vertx.setPeriodic(LIMITER_SWEEP_INTERVAL_MS, id -> requestLimiter.sweep());
+        vertx.deployVerticle(() -> new HttpVerticle(jwtParser, pictureUrlSigner, pictureHandler, albumHandler,
+                        storageHandler, jobHandler, metricsCredentialsEncoded, requestLimiter),
+                        new DeploymentOptions().setInstances(instances))
+                .onFailure(cause -> logger.error("Failed to deploy HTTP verticles: {}", cause.getMessage()));
+    }
+
+    private static int httpInstancesFromEnv() {
+        String instances = System.getenv("PIC_HTTP_INSTANCES");
+        return instances == null || instances.isBlank()
+                ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(instances);
     }
 }
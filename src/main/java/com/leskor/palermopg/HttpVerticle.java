@@ -0,0 +1,228 @@
+package com.leskor.palermopg;
+
+import com.leskor.palermopg.handlers.AlbumHandler;
+import com.leskor.palermopg.handlers.JobHandler;
+import com.leskor.palermopg.handlers.PictureHandler;
+import com.leskor.palermopg.handlers.StorageHandler;
+import com.leskor.palermopg.security.Caller;
+import com.leskor.palermopg.security.JWTParser;
+import com.leskor.palermopg.security.PictureUrlSigner;
+import com.leskor.palermopg.security.RequestLimiter;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.http.Cookie;
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.net.PemKeyCertOptions;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.BodyHandler;
+import io.vertx.ext.web.handler.LoggerFormat;
+import io.vertx.ext.web.handler.LoggerHandler;
+import io.vertx.micrometer.PrometheusScrapingHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.leskor.palermopg.security.RequestLimiter.RouteClass.ADMIN;
+import static com.leskor.palermopg.security.RequestLimiter.RouteClass.API;
+import static com.leskor.palermopg.security.RequestLimiter.RouteClass.DOWNLOAD;
+import static com.leskor.palermopg.security.RequestLimiter.RouteClass.PICTURE_READ;
+import static com.leskor.palermopg.security.RequestLimiter.RouteClass.UPLOAD;
+import static com.leskor.palermopg.util.ApiUtils.cors;
+
+/**
+ * Serves the HTTP API on one event loop. Several instances are deployed and listen on the same port, Vert.x spreads
+ * incoming connections between them. Handlers and everything behind them are shared by all instances.
+ */
+public class HttpVerticle extends AbstractVerticle {
+    private static final Logger logger = LoggerFactory.getLogger("Application");
+
+    private static final int PORT = 8081;
+    private static final int DEFAULT_HTTP2_MAX_STREAMS = 256;
+    private static final int DEFAULT_HTTP2_STREAM_WINDOW = 1024 * 1024;
+    private static final int DEFAULT_HTTP2_CONNECTION_WINDOW = 16 * 1024 * 1024;
+    private static final String JSON_FORMAT = "application/json";
+    private static final String JPEG_FORMAT = "image/jpeg";
+
+    private final JWTParser jwtParser;
+    private final PictureUrlSigner pictureUrlSigner;
+    private final PictureHandler pictureHandler;
+    private final AlbumHandler albumHandler;
+    private final StorageHandler storageHandler;
+    private final JobHandler jobHandler;
+    private final String metricsCredentialsEncoded;
+    private final RequestLimiter requestLimiter;
+    private final Handler<RoutingContext> metricsHandler = PrometheusScrapingHandler.create();
+
+    public HttpVerticle(JWTParser jwtParser, PictureUrlSigner pictureUrlSigner, PictureHandler pictureHandler,
+                        AlbumHandler albumHandler, StorageHandler storageHandler, JobHandler jobHandler,
+                        String metricsCredentialsEncoded, RequestLimiter requestLimiter) {
+        this.jwtParser = jwtParser;
+        this.pictureUrlSigner = pictureUrlSigner;
+        this.pictureHandler = pictureHandler;
+        this.albumHandler = albumHandler;
+        this.storageHandler = storageHandler;
+        this.jobHandler = jobHandler;
+        this.metricsCredentialsEncoded = metricsCredentialsEncoded;
+        this.requestLimiter = requestLimiter;
+    }
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        logger.debug("Creating HTTP server on {} port", PORT);
+        vertx.createHttpServer(serverOptions()).requestHandler(createRouter())
+                .listen(PORT, result -> {
+                    if (result.succeeded()) {
+                        logger.debug("HTTP server was created");
+                        startPromise.complete();
+                    } else {
+                        logger.error("Failed to deploy HTTP server on port {}: {}", PORT, result.cause().getMessage());
+                        startPromise.fail(result.cause());
+                    }
+                });
+    }
+
+    // With PIC_TLS_CERT and PIC_TLS_KEY browsers negotiate HTTP/2 over ALPN. Without them the server speaks plain
+    // HTTP/1.1 and cleartext HTTP/2 (h2c, by upgrade or prior knowledge) for a proxy terminating TLS in front of it
+    private static HttpServerOptions serverOptions() {
+        HttpServerOptions options = new HttpServerOptions()
+                .setInitialSettings(new Http2Settings()
+                        .setMaxConcurrentStreams(intFromEnv("PIC_HTTP2_MAX_STREAMS", DEFAULT_HTTP2_MAX_STREAMS))
+                        .setInitialWindowSize(intFromEnv("PIC_HTTP2_STREAM_WINDOW", DEFAULT_HTTP2_STREAM_WINDOW)))
+                .setHttp2ConnectionWindowSize(
+                        intFromEnv("PIC_HTTP2_CONNECTION_WINDOW", DEFAULT_HTTP2_CONNECTION_WINDOW));
+
+        final String certPath = System.getenv("PIC_TLS_CERT");
+        final String keyPath = System.getenv("PIC_TLS_KEY");
+        if (certPath != null && !certPath.isBlank() && keyPath != null && !keyPath.isBlank()) {
+            options.setSsl(true)
+                    .setUseAlpn(true)
+                    .setPemKeyCertOptions(new PemKeyCertOptions().setCertPath(certPath).setKeyPath(keyPath));
+        }
+        return options;
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value);
+    }
+
+    Router createRouter() {
+        Router router = Router.router(vertx);
+
+        router.options().handler(r -> r.response()
+                .putHeader("Access-Control-Allow-Headers", "content-type, authorization")
+                .putHeader("Access-Control-Allow-Origin", "*")
+                .putHeader("Access-Control-Allow-Methods", "GET, DELETE, PATCH, POST, OPTIONS")
+                .putHeader("Access-Control-Max-Age", "-1")
+                .end()
+        );
+
+        router.route("/metrics").handler(this::metrics);
+
+        router.route().handler(LoggerHandler.create(LoggerFormat.TINY));
+        router.route().handler(this::identify);
+
+        // Limits are charged to the caller proven by a token or signature, never to the user id in the path, so strangers
+        // cannot use up a user's quota. They apply before bodies are read, so rejected uploads are not buffered
+        router.get("/pic/:userId/:pictureId").handler(this::identifyByCookie);
+        router.get("/pic/:userId/:pictureId").handler(this::identifySigner);
+        router.get("/pic/:userId/:pictureId").handler(requestLimiter.handler(PICTURE_READ));
+        router.get("/pic/:userId/:pictureId").produces(JPEG_FORMAT).handler(pictureHandler::getById);
+        router.route("/pic/:userId*").handler(this::authorize);
+        router.post("/pic/:userId").handler(requestLimiter.handler(UPLOAD));
+        router.route("/pic/:userId/:pictureId*").handler(requestLimiter.handler(API));
+        router.route("/pic/:userId*").handler(BodyHandler.create());
+        router.post("/pic/:userId").consumes(JPEG_FORMAT).handler(pictureHandler::add);
+        router.post("/pic/:userId/:pictureId/rotate").handler(pictureHandler::rotate);
+        router.delete("/pic/:userId/:pictureId").produces(JSON_FORMAT).handler(pictureHandler::deleteById);
+
+        router.get("/album/:userId/:albumId/download").handler(this::identifyByCookie);
+        router.get("/album/:userId/:albumId/download").handler(requestLimiter.handler(DOWNLOAD));
+        router.get("/album/:userId/:albumId/download").handler(albumHandler::downloadAlbum);
+        router.delete("/album/:userId").handler(requestLimiter.handler(API));
+        router.delete("/album/:userId").produces(JSON_FORMAT).handler(albumHandler::deleteAllAlbumsForUser);
+        router.route("/album/:userId*").handler(this::authorize);
+        router.route("/album/:userId*").handler(requestLimiter.handler(API));
+        router.route("/album/:userId*").handler(BodyHandler.create());
+        router.get("/album/:userId").produces(JSON_FORMAT).handler(albumHandler::getAlbumsForUser);
+        router.get("/album/:userId/:albumId").produces(JSON_FORMAT).handler(albumHandler::getAlbumContents);
+        router.get("/album/:userId/:albumId/urls").produces(JSON_FORMAT).handler(albumHandler::getSignedPictureUrls);
+        router.route("/v2/album/:userId*").handler(this::authorize);
+        router.route("/v2/album/:userId*").handler(requestLimiter.handler(API));
+        router.get("/v2/album/:userId/:albumId").produces(JSON_FORMAT).handler(albumHandler::getAlbumDetails);
+        router.post("/album/:userId").consumes(JSON_FORMAT).handler(albumHandler::add);
+        router.patch("/album/:userId/:albumId").consumes(JSON_FORMAT).handler(albumHandler::updateAlbum);
+        router.post("/album/:userId/:albumId/share").consumes(JSON_FORMAT).handler(albumHandler::shareAlbum);
+        router.delete("/album/:userId/:albumId").produces(JSON_FORMAT).handler(albumHandler::deleteAlbum);
+
+        router.route("/storage*").handler(requestLimiter.handler(ADMIN));
+        router.route("/storage/:userId*").handler(BodyHandler.create());
+        router.get("/storage").produces(JSON_FORMAT).handler(storageHandler::storageByUsers);
+        router.get("/storage/:userId").produces(JSON_FORMAT).handler(storageHandler::storageByUser);
+        router.post("/storage/:userId").consumes(JSON_FORMAT).handler(storageHandler::setUserLimit);
+
+        router.get("/jobs/:jobId").handler(requestLimiter.handler(API));
+        router.get("/jobs/:jobId").produces(JSON_FORMAT).handler(jobHandler::getById);
+
+        return router;
+    }
+
+    // The token is verified once per request, from the Authorization header only
+    private void identify(RoutingContext ctx) {
+        jwtParser.parse(ctx.request().getHeader("Authorization")).putInto(ctx);
+        ctx.next();
+    }
+
+    // Browsers cannot set a header on a download link, so the two download GETs also accept the token cookie. Other
+    // routes never read it, a cross-site request carrying the cookie must not pass as the user
+    private void identifyByCookie(RoutingContext ctx) {
+        Cookie tokenCookie = ctx.request().getCookie("token");
+        if (!Caller.of(ctx).isAuthenticated() && tokenCookie != null && !tokenCookie.getValue().isEmpty()) {
+            jwtParser.parse(tokenCookie.getValue()).putInto(ctx);
+        }
+        ctx.next();
+    }
+
+    // A signed URL is charged to the user it was minted for, PictureService still rejects an invalid signature
+    private void identifySigner(RoutingContext ctx) {
+        HttpServerRequest request = ctx.request();
+        String signature = request.getParam("signature");
+        if (signature != null && !Caller.of(ctx).isAuthenticated()) {
+            try {
+                long userId = Long.parseLong(request.getParam("userId"));
+                if (pictureUrlSigner.verify(userId, Long.parseLong(request.getParam("pictureId")),
+                        Boolean.parseBoolean(request.getParam("fullSize")), Long.parseLong(request.getParam("expires")),
+                        signature)) {
+                    RequestLimiter.chargeToSigner(ctx, userId);
+                }
+            } catch (NumberFormatException e) {
+                // Charged to the client address, the handler answers with 400
+            }
+        }
+        ctx.next();
+    }
+
+    private void authorize(RoutingContext ctx) {
+        try {
+            long userId = Long.parseLong(ctx.request().getParam("userId"));
+            if (Caller.of(ctx).canActAs(userId)) ctx.next();
+            else cors(ctx.response().setStatusCode(401)).end();
+        } catch (NumberFormatException e) {
+            cors(ctx.response().setStatusCode(400)).end();
+        }
+    }
+
+    private void metrics(RoutingContext ctx) {
+        String authHeader = ctx.request().getHeader("Authorization");
+        String[] tokens = authHeader == null ? new String[]{} : authHeader.split(" ");
+        if (metricsCredentialsEncoded != null
+                && (tokens.length != 2 || !tokens[0].equals("Basic") || !tokens[1].equals(metricsCredentialsEncoded))) {
+            cors(ctx.response().setStatusCode(401)).end();
+            return;
+        }
+        metricsHandler.handle(ctx);
+    }
+}
@@ -10,8 +10,10 @@ public interface AlbumDao {
     Future<Long> save(Album album);
     Future<Optional<Album>> findById(long id);
     Future<List<Album>> findAlbumsForUserId(long userId);
+    Future<List<Album>> findAll();
     Future<Void> renameAlbum(long id, String name);
-    Future<Void> delete(long id);
+    Future<Void> markDeleted(long id);
+    Future<Long> purgeDeleted();
     Future<Void> updateSharedUsers(long id, List<Long> sharedIds);
     Future<Void> setChronologicalOrder(long id, boolean isChronologicalOrder);
     Future<Void> updateAlbum(Album album);
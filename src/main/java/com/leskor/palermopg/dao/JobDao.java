@@ -0,0 +1,17 @@
+package com.leskor.palermopg.dao;
+
+import com.leskor.palermopg.entity.Job;
+import io.vertx.core.Future;
+
+import java.time.Duration;
+import java.util.Optional;
+
+public interface JobDao {
+    Future<Long> save(Job job);
+    Future<Optional<Job>> findById(long id);
+    // Takes the oldest pending job, or a running one whose lease has expired, and leases it to the owner
+    Future<Optional<Job>> acquire(String owner, Duration lease);
+    // Fail when the owner no longer holds the lease
+    Future<Void> checkpoint(long id, String owner, Duration lease, long progress, long total, long checkpoint);
+    Future<Void> finish(long id, String owner, Job.Status status, String error);
+}
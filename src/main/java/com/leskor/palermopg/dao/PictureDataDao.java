@@ -2,9 +2,14 @@ package com.leskor.palermopg.dao;
 
 import io.vertx.core.Future;
 
+import java.util.List;
+
 public interface PictureDataDao {
     Future<String> save(byte[] data, long albumId);
     Future<byte[]> find(String path);
+    Future<byte[]> findRange(String path, long offset, int length);
     Future<Void> replace(String path, byte[] data);
     Future<Void> delete(String path);
+    // Missing files are skipped, completes with the paths that could not be deleted once every path has been tried
+    Future<List<String>> deleteAll(List<String> paths);
 }
@@ -1,7 +1,10 @@
 package com.leskor.palermopg.dao;
 
+import com.leskor.palermopg.entity.ArchiveEntry;
 import com.leskor.palermopg.entity.PictureMeta;
+import com.leskor.palermopg.entity.PicturePage;
 import io.vertx.core.Future;
+import org.reactivestreams.Publisher;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -11,7 +14,25 @@ public interface PictureMetaDao {
     Future<Long> save(PictureMeta pictureMeta);
     Future<Optional<PictureMeta>> find(long id);
     Future<List<PictureMeta>> findForAlbumId(long albumId);
+    // Projected lookups populate only ids plus the fields named in the method, the rest stay null or -1
+    Future<List<PictureMeta>> findSortedForAlbumId(long albumId, boolean isChronologicalOrder);
+    Publisher<PictureMeta> streamSortedIdsForAlbumId(long albumId, boolean isChronologicalOrder);
+    Future<Optional<PictureMeta>> findOldestForAlbumId(long albumId);
+    Future<PicturePage> findPageForAlbumId(long albumId, boolean isChronologicalOrder, String afterSortKey, int limit);
+    Future<List<ArchiveEntry>> findArchiveEntriesForAlbumId(long albumId);
+    Future<List<ArchiveEntry>> findMissingChecksums(long afterId, int limit);
+    Future<Void> setOriginalChecksum(long id, long size, long crc);
+    // Leaves a checksum stored in the meantime untouched, for values computed from a file that may have been replaced
+    Future<Void> setMissingOriginalChecksum(long id, long size, long crc);
+    Future<Void> clearOriginalChecksum(long id);
     Future<Void> setLastModified(long id, LocalDateTime lastModified);
-    Future<Void> deleteById(long id);
+    // Deletes only tombstone pictures, files and documents are removed later by the TombstoneCollector
+    Future<Void> markDeletedById(long id);
+    Future<Long> markDeletedForAlbumId(long albumId);
+    Future<List<PictureMeta>> findDeleted(int limit);
+    Future<Long> purgeDeleted(List<Long> ids);
+    Future<Void> requeueDeleted(List<Long> ids);
     Future<List<PictureMeta>> findPictureMetasForUserId(long userId);
+    Future<List<PictureMeta>> findSizesForUserId(long userId);
+    Future<Long> backfillSortKeys();
 }
@@ -0,0 +1,93 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.entity.Album;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.leskor.palermopg.dao.impl.BsonFields.readLong;
+import static com.leskor.palermopg.dao.impl.BsonFields.readString;
+import static com.leskor.palermopg.dao.impl.BsonFields.writeString;
+
+/**
+ * Reads album documents straight into {@link Album}. Cover picture and creation date are derived from pictures,
+ * so they are neither stored nor read here.
+ */
+class AlbumCodec implements Codec<Album> {
+    @Override
+    public Album decode(BsonReader reader, DecoderContext decoderContext) {
+        long id = -1, userId = -1;
+        String name = null;
+        List<Long> sharedUsers = null;
+        boolean isChronologicalOrder = false;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "id" -> id = readLong(reader, -1);
+                case "userId" -> userId = readLong(reader, -1);
+                case "name" -> name = readString(reader);
+                case "sharedUsers" -> sharedUsers = readLongs(reader);
+                case "isChronologicalOrder" -> isChronologicalOrder = readBoolean(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return Album.create(id, userId, name, sharedUsers, isChronologicalOrder);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Album album, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writer.writeInt64("id", album.id());
+        writer.writeInt64("userId", album.userId());
+        writeString(writer, "name", album.name());
+        if (album.isChronologicalOrder() == null) {
+            writer.writeNull("isChronologicalOrder");
+        } else {
+            writer.writeBoolean("isChronologicalOrder", album.isChronologicalOrder());
+        }
+        if (album.sharedUsers() == null) {
+            writer.writeNull("sharedUsers");
+        } else {
+            writer.writeStartArray("sharedUsers");
+            album.sharedUsers().forEach(writer::writeInt64);
+            writer.writeEndArray();
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Album> getEncoderClass() {
+        return Album.class;
+    }
+
+    private static List<Long> readLongs(BsonReader reader) {
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        List<Long> values = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            values.add(readLong(reader, -1));
+        }
+        reader.readEndArray();
+        return values;
+    }
+
+    private static boolean readBoolean(BsonReader reader) {
+        if (reader.getCurrentBsonType() != BsonType.BOOLEAN) {
+            reader.skipValue();
+            return false;
+        }
+        return reader.readBoolean();
+    }
+}
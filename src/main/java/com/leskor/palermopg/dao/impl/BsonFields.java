@@ -0,0 +1,74 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static java.time.ZoneOffset.UTC;
+
+/**
+ * Field helpers shared by the entity codecs. Dates are written the way the driver writes {@link LocalDateTime}
+ * (as UTC) and read in the system zone, matching the values the DAOs read from documents.
+ */
+final class BsonFields {
+    static final CodecRegistry CODECS = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new PictureMetaCodec(), new AlbumCodec()),
+            MongoClientSettings.getDefaultCodecRegistry());
+
+    private BsonFields() {
+    }
+
+    static long readLong(BsonReader reader, long defaultValue) {
+        return switch (reader.getCurrentBsonType()) {
+            case INT64 -> reader.readInt64();
+            case INT32 -> reader.readInt32();
+            case DOUBLE -> (long) reader.readDouble();
+            default -> {
+                reader.skipValue();
+                yield defaultValue;
+            }
+        };
+    }
+
+    static String readString(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case STRING -> reader.readString();
+            default -> {
+                reader.skipValue();
+                yield null;
+            }
+        };
+    }
+
+    static LocalDateTime readDate(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case DATE_TIME -> LocalDateTime.ofInstant(Instant.ofEpochMilli(reader.readDateTime()), ZoneId.systemDefault());
+            default -> {
+                reader.skipValue();
+                yield null;
+            }
+        };
+    }
+
+    static void writeString(BsonWriter writer, String name, String value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeString(name, value);
+        }
+    }
+
+    static void writeDate(BsonWriter writer, String name, LocalDateTime value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeDateTime(name, value.toInstant(UTC).toEpochMilli());
+        }
+    }
+}
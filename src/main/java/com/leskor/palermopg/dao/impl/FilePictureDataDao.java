@@ -2,6 +2,7 @@ package com.leskor.palermopg.dao.impl;
 
 import com.leskor.palermopg.dao.PictureDataDao;
 import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.util.SingleFlight;
 import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
@@ -9,16 +10,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 public class FilePictureDataDao implements PictureDataDao {
     private static final Logger logger = LoggerFactory.getLogger("Application");
 
     private static final String folderPath = System.getenv("PIC_DATA");
+    private static final int MAX_PARALLEL_DELETES = 8;
 
     private final Context context;
+    private final SingleFlight<String, byte[]> reads = new SingleFlight<>("read");
+    private final SingleFlight<String, byte[]> rangeReads = new SingleFlight<>("rangeRead");
 
     public FilePictureDataDao(Context context) {
         this.context = context;
@@ -28,6 +38,7 @@ public class FilePictureDataDao implements PictureDataDao {
     public Future<String> save(byte[] data, long albumId) {
         Promise<String> resultPromise = Promise.promise();
 
+        // Saves stay ordered, the id of a new file is picked from the files already in the folder
         context.executeBlocking(call -> {
             try {
                 Path path = folderPathForAlbum(albumId);
@@ -52,7 +63,7 @@ public class FilePictureDataDao implements PictureDataDao {
             } finally {
                 call.complete();
             }
-        });
+        }, true);
 
         return resultPromise.future();
     }
@@ -64,6 +75,10 @@ public class FilePictureDataDao implements PictureDataDao {
 
     @Override
     public Future<byte[]> find(String path) {
+        return reads.execute(path, () -> read(path));
+    }
+
+    private Future<byte[]> read(String path) {
         Promise<byte[]> resultPromise = Promise.promise();
 
         context.executeBlocking(call -> {
@@ -84,7 +99,41 @@ public class FilePictureDataDao implements PictureDataDao {
            } finally {
                call.complete();
            }
-        });
+        }, false);
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<byte[]> findRange(String path, long offset, int length) {
+        return rangeReads.execute(path + ":" + offset + ":" + length, () -> readRange(path, offset, length));
+    }
+
+    private Future<byte[]> readRange(String path, long offset, int length) {
+        Promise<byte[]> resultPromise = Promise.promise();
+
+        context.executeBlocking(call -> {
+            try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                if (buffer.hasRemaining()) {
+                    resultPromise.fail(new IOException("File " + path + " is shorter than the requested range"));
+                    return;
+                }
+                resultPromise.complete(buffer.array());
+            } catch (NoSuchFileException e) {
+                resultPromise.fail(new MissingItemException());
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+                resultPromise.fail(e);
+            } finally {
+                call.complete();
+            }
+        }, false);
 
         return resultPromise.future();
     }
@@ -109,7 +158,7 @@ public class FilePictureDataDao implements PictureDataDao {
             } finally {
                 call.complete();
             }
-        });
+        }, false);
 
         return resultPromise.future();
     }
@@ -133,11 +182,50 @@ public class FilePictureDataDao implements PictureDataDao {
             } finally {
                 call.complete();
             }
-        });
+        }, false);
 
         return resultPromise.future();
     }
 
+    @Override
+    public Future<List<String>> deleteAll(List<String> paths) {
+        if (paths.isEmpty()) {
+            return Future.succeededFuture(List.of());
+        }
+        BatchDelete batch = new BatchDelete(paths);
+        // Batch state is only touched on the context thread, callers may be on a driver thread
+        context.runOnContext(v -> {
+            for (int i = 0; i < Math.min(MAX_PARALLEL_DELETES, paths.size()); i++) {
+                deleteNext(batch);
+            }
+        });
+        return batch.resultPromise.future();
+    }
+
+    // Each completed delete starts the next one, so at most MAX_PARALLEL_DELETES worker threads are busy with a batch
+    private void deleteNext(BatchDelete batch) {
+        String path = batch.paths.get(batch.next++);
+
+        context.<Void>executeBlocking(call -> {
+            try {
+                Files.deleteIfExists(Path.of(path));
+                call.complete();
+            } catch (IOException e) {
+                call.fail(e);
+            }
+        }, false, res -> {
+            if (res.failed()) {
+                logger.error("Cannot delete {}: {}", path, res.cause().getMessage());
+                batch.failed.add(path);
+            }
+            if (++batch.completed == batch.paths.size()) {
+                batch.resultPromise.complete(batch.failed);
+            } else if (batch.next < batch.paths.size()) {
+                deleteNext(batch);
+            }
+        });
+    }
+
     private long extractId(Path p) {
         String path = p.getFileName().toString();
         int idx = path.indexOf('.');
@@ -151,4 +239,16 @@ public class FilePictureDataDao implements PictureDataDao {
             return -1;
         }
     }
+
+    private static class BatchDelete {
+        private final List<String> paths;
+        private final Promise<List<String>> resultPromise = Promise.promise();
+        private final List<String> failed = new ArrayList<>();
+        private int next = 0;
+        private int completed = 0;
+
+        private BatchDelete(List<String> paths) {
+            this.paths = paths;
+        }
+    }
 }
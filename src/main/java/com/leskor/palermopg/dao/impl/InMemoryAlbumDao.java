@@ -0,0 +1,126 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.dao.AlbumDao;
+import com.leskor.palermopg.entity.Album;
+import com.leskor.palermopg.exception.MissingItemException;
+import io.vertx.core.Future;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import static io.vertx.core.Future.failedFuture;
+import static io.vertx.core.Future.succeededFuture;
+
+/**
+ * Keeps albums in memory with the semantics of {@link MongoAlbumDao}, for running without a database.
+ */
+public class InMemoryAlbumDao implements AlbumDao {
+    private final Map<Long, StoredAlbum> albums = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+
+    @Override
+    public Future<Long> save(Album album) {
+        long id = lastId.incrementAndGet();
+        albums.put(id, new StoredAlbum(Album.create(id, album.userId(), album.name(), copy(album.sharedUsers()),
+                Boolean.TRUE.equals(album.isChronologicalOrder())), false));
+        return succeededFuture(id);
+    }
+
+    @Override
+    public Future<Optional<Album>> findById(long id) {
+        return succeededFuture(Optional.ofNullable(albums.get(id)).filter(StoredAlbum::live).map(StoredAlbum::album));
+    }
+
+    @Override
+    public Future<List<Album>> findAlbumsForUserId(long userId) {
+        return succeededFuture(liveAlbums()
+                .filter(album -> album.userId() == userId
+                        || (album.sharedUsers() != null && album.sharedUsers().contains(userId)))
+                .toList());
+    }
+
+    @Override
+    public Future<List<Album>> findAll() {
+        return succeededFuture(liveAlbums().toList());
+    }
+
+    @Override
+    public Future<Void> renameAlbum(long id, String name) {
+        return update(id, album -> withFields(album, name, album.sharedUsers(), album.isChronologicalOrder()));
+    }
+
+    @Override
+    public Future<Void> markDeleted(long id) {
+        AtomicBoolean deleted = new AtomicBoolean();
+        albums.computeIfPresent(id, (key, stored) -> {
+            if (!stored.live()) return stored;
+            deleted.set(true);
+            return new StoredAlbum(stored.album(), true);
+        });
+        return deleted.get() ? succeededFuture() : failedFuture(new MissingItemException());
+    }
+
+    @Override
+    public Future<Long> purgeDeleted() {
+        long purged = albums.entrySet().stream()
+                .filter(entry -> !entry.getValue().live())
+                .filter(entry -> albums.remove(entry.getKey(), entry.getValue()))
+                .count();
+        return succeededFuture(purged);
+    }
+
+    @Override
+    public Future<Void> updateSharedUsers(long id, List<Long> sharedIds) {
+        return update(id, album -> withFields(album, album.name(), copy(sharedIds), album.isChronologicalOrder()));
+    }
+
+    @Override
+    public Future<Void> setChronologicalOrder(long id, boolean isChronologicalOrder) {
+        return update(id, album -> withFields(album, album.name(), album.sharedUsers(), isChronologicalOrder));
+    }
+
+    @Override
+    public Future<Void> updateAlbum(Album album) {
+        return update(album.id(), stored -> withFields(stored,
+                album.name() != null ? album.name() : stored.name(),
+                album.sharedUsers() != null ? copy(album.sharedUsers()) : stored.sharedUsers(),
+                album.isChronologicalOrder() != null ? album.isChronologicalOrder() : stored.isChronologicalOrder()));
+    }
+
+    // Like the Mongo update, fails with MissingItemException unless the album exists and something changed
+    private Future<Void> update(long id, UnaryOperator<Album> change) {
+        AtomicBoolean updated = new AtomicBoolean();
+        albums.computeIfPresent(id, (key, stored) -> {
+            Album changed = change.apply(stored.album());
+            if (changed.equals(stored.album())) return stored;
+            updated.set(true);
+            return new StoredAlbum(changed, stored.deleted());
+        });
+        return updated.get() ? succeededFuture() : failedFuture(new MissingItemException());
+    }
+
+    private Stream<Album> liveAlbums() {
+        return albums.values().stream().filter(StoredAlbum::live).map(StoredAlbum::album);
+    }
+
+    private static Album withFields(Album album, String name, List<Long> sharedUsers, Boolean isChronologicalOrder) {
+        return Album.create(album.id(), album.userId(), name, sharedUsers, isChronologicalOrder);
+    }
+
+    private static List<Long> copy(List<Long> values) {
+        return values == null ? null : new ArrayList<>(values);
+    }
+
+    private record StoredAlbum(Album album, boolean deleted) {
+        boolean live() {
+            return !deleted;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.dao.JobDao;
+import com.leskor.palermopg.entity.Job;
+import io.vertx.core.Future;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.vertx.core.Future.failedFuture;
+import static io.vertx.core.Future.succeededFuture;
+
+/**
+ * Keeps jobs in memory with the lease semantics of {@link MongoJobDao}, for running without a database.
+ */
+public class InMemoryJobDao implements JobDao {
+    private final Map<Long, StoredJob> jobs = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+
+    @Override
+    public Future<Long> save(Job job) {
+        long id = lastId.incrementAndGet();
+        jobs.put(id, new StoredJob(new Job(id, job.type(), job.userId(), job.status(), job.progress(), job.total(),
+                job.checkpoint(), job.error(), job.dateCreated(), job.dateModified()), null, null));
+        return succeededFuture(id);
+    }
+
+    @Override
+    public Future<Optional<Job>> findById(long id) {
+        return succeededFuture(Optional.ofNullable(jobs.get(id)).map(StoredJob::job));
+    }
+
+    @Override
+    public synchronized Future<Optional<Job>> acquire(String owner, Duration lease) {
+        Instant now = Instant.now();
+        Optional<StoredJob> available = jobs.values().stream()
+                .filter(stored -> stored.job().status() == Job.Status.PENDING
+                        || (stored.job().status() == Job.Status.RUNNING && stored.leaseUntil().isBefore(now)))
+                .findFirst();
+
+        return succeededFuture(available.map(stored -> {
+            Job job = stored.job();
+            Job running = new Job(job.id(), job.type(), job.userId(), Job.Status.RUNNING, job.progress(), job.total(),
+                    job.checkpoint(), job.error(), job.dateCreated(), LocalDateTime.now());
+            jobs.put(job.id(), new StoredJob(running, owner, now.plus(lease)));
+            return running;
+        }));
+    }
+
+    @Override
+    public synchronized Future<Void> checkpoint(long id, String owner, Duration lease, long progress, long total,
+                                                long checkpoint) {
+        StoredJob stored = jobs.get(id);
+        if (stored == null || !owner.equals(stored.leaseOwner()) || stored.job().status() != Job.Status.RUNNING) {
+            return failedFuture(new IllegalStateException("Lease on job " + id + " was lost"));
+        }
+        Job job = stored.job();
+        jobs.put(id, new StoredJob(new Job(id, job.type(), job.userId(), job.status(), progress, total, checkpoint,
+                job.error(), job.dateCreated(), LocalDateTime.now()), owner, Instant.now().plus(lease)));
+        return succeededFuture();
+    }
+
+    @Override
+    public synchronized Future<Void> finish(long id, String owner, Job.Status status, String error) {
+        StoredJob stored = jobs.get(id);
+        if (stored == null || !owner.equals(stored.leaseOwner())) {
+            return failedFuture(new IllegalStateException("Lease on job " + id + " was lost"));
+        }
+        Job job = stored.job();
+        jobs.put(id, new StoredJob(new Job(id, job.type(), job.userId(), status, job.progress(), job.total(),
+                job.checkpoint(), error, job.dateCreated(), LocalDateTime.now()), null, null));
+        return succeededFuture();
+    }
+
+    private record StoredJob(Job job, String leaseOwner, Instant leaseUntil) {
+    }
+}
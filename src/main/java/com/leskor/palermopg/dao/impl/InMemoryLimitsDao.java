@@ -0,0 +1,30 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.dao.LimitsDao;
+import com.leskor.palermopg.exception.MissingItemException;
+import io.vertx.core.Future;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.vertx.core.Future.failedFuture;
+import static io.vertx.core.Future.succeededFuture;
+
+/**
+ * Keeps storage limits in memory with the semantics of {@link MongoLimitsDao}, for running without a database.
+ */
+public class InMemoryLimitsDao implements LimitsDao {
+    private final Map<Long, Long> limits = new ConcurrentHashMap<>();
+
+    @Override
+    public Future<Void> setLimitForUser(long userId, long limit) {
+        Long previous = limits.put(userId, limit);
+        return previous != null && previous == limit ? failedFuture(new MissingItemException()) : succeededFuture();
+    }
+
+    @Override
+    public Future<Optional<Long>> getLimitForUser(long userId) {
+        return succeededFuture(Optional.ofNullable(limits.get(userId)));
+    }
+}
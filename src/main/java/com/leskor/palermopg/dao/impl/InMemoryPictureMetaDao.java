@@ -0,0 +1,237 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.dao.PictureMetaDao;
+import com.leskor.palermopg.entity.ArchiveEntry;
+import com.leskor.palermopg.entity.PictureMeta;
+import com.leskor.palermopg.entity.PicturePage;
+import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.util.ListPublisher;
+import io.vertx.core.Future;
+import org.reactivestreams.Publisher;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import static io.vertx.core.Future.failedFuture;
+import static io.vertx.core.Future.succeededFuture;
+
+/**
+ * Keeps pictures in memory with the semantics of {@link MongoPictureMetaDao}, for running without a database.
+ * Projected lookups return complete pictures.
+ */
+public class InMemoryPictureMetaDao implements PictureMetaDao {
+    private static final Comparator<PictureMeta> BY_SORT_KEY = Comparator.comparing(PictureMeta::sortKey);
+
+    private final Map<Long, StoredPicture> pictures = new ConcurrentSkipListMap<>();
+    private final Map<Long, Set<Long>> albumIndex = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    private final AtomicLong deletions = new AtomicLong();
+
+    @Override
+    public Future<Long> save(PictureMeta pictureMeta) {
+        long id = lastId.incrementAndGet();
+        pictures.put(id, new StoredPicture(pictureMeta.withId(id), null, null, 0));
+        if (pictureMeta.albumId() > 0) {
+            albumIndex.computeIfAbsent(pictureMeta.albumId(), albumId -> new ConcurrentSkipListSet<>()).add(id);
+        }
+        return succeededFuture(id);
+    }
+
+    @Override
+    public Future<Optional<PictureMeta>> find(long id) {
+        return succeededFuture(Optional.ofNullable(pictures.get(id)).filter(StoredPicture::live).map(StoredPicture::meta));
+    }
+
+    @Override
+    public Future<List<PictureMeta>> findForAlbumId(long albumId) {
+        return succeededFuture(liveInAlbum(albumId).sorted(BY_SORT_KEY.reversed()).toList());
+    }
+
+    @Override
+    public Future<List<PictureMeta>> findSortedForAlbumId(long albumId, boolean isChronologicalOrder) {
+        return succeededFuture(sortedInAlbum(albumId, isChronologicalOrder).toList());
+    }
+
+    @Override
+    public Publisher<PictureMeta> streamSortedIdsForAlbumId(long albumId, boolean isChronologicalOrder) {
+        return new ListPublisher<>(sortedInAlbum(albumId, isChronologicalOrder).toList());
+    }
+
+    @Override
+    public Future<Optional<PictureMeta>> findOldestForAlbumId(long albumId) {
+        return succeededFuture(liveInAlbum(albumId).min(BY_SORT_KEY));
+    }
+
+    @Override
+    public Future<PicturePage> findPageForAlbumId(long albumId, boolean isChronologicalOrder, String afterSortKey, int limit) {
+        List<PictureMeta> found = sortedInAlbum(albumId, isChronologicalOrder)
+                .filter(meta -> afterSortKey == null || (isChronologicalOrder
+                        ? meta.sortKey().compareTo(afterSortKey) > 0
+                        : meta.sortKey().compareTo(afterSortKey) < 0))
+                .limit(limit + 1L)
+                .toList();
+
+        boolean hasMore = found.size() > limit;
+        List<PictureMeta> page = hasMore ? found.subList(0, limit) : found;
+        return succeededFuture(new PicturePage(page, hasMore ? page.get(page.size() - 1).sortKey() : null));
+    }
+
+    @Override
+    public Future<List<ArchiveEntry>> findArchiveEntriesForAlbumId(long albumId) {
+        return succeededFuture(inAlbum(albumId)
+                .filter(StoredPicture::live)
+                .sorted(Comparator.comparing(stored -> stored.meta().sortKey()))
+                .map(StoredPicture::archiveEntry)
+                .toList());
+    }
+
+    @Override
+    public Future<List<ArchiveEntry>> findMissingChecksums(long afterId, int limit) {
+        return succeededFuture(pictures.values().stream()
+                .filter(stored -> stored.live() && stored.originalCrc() == null && stored.meta().id() > afterId)
+                .limit(limit)
+                .map(StoredPicture::archiveEntry)
+                .toList());
+    }
+
+    @Override
+    public Future<Void> setOriginalChecksum(long id, long size, long crc) {
+        return update(id, stored -> true, stored -> new StoredPicture(stored.meta(), size, crc, stored.deletedAt()));
+    }
+
+    @Override
+    public Future<Void> setMissingOriginalChecksum(long id, long size, long crc) {
+        update(id, stored -> stored.originalCrc() == null,
+                stored -> new StoredPicture(stored.meta(), size, crc, stored.deletedAt()));
+        return succeededFuture();
+    }
+
+    @Override
+    public Future<Void> clearOriginalChecksum(long id) {
+        return update(id, stored -> true, stored -> new StoredPicture(stored.meta(), null, null, stored.deletedAt()));
+    }
+
+    @Override
+    public Future<Void> setLastModified(long id, LocalDateTime lastModified) {
+        return update(id, stored -> !lastModified.equals(stored.meta().dateModified()), stored -> {
+            PictureMeta meta = stored.meta();
+            return new StoredPicture(new PictureMeta(meta.id(), meta.userId(), meta.albumId(), meta.size(), meta.path(),
+                    meta.pathOptimized(), meta.dateUploaded(), meta.dateCaptured(), lastModified),
+                    stored.originalSize(), stored.originalCrc(), stored.deletedAt());
+        });
+    }
+
+    @Override
+    public Future<Void> markDeletedById(long id) {
+        return update(id, StoredPicture::live, this::tombstone);
+    }
+
+    @Override
+    public Future<Long> markDeletedForAlbumId(long albumId) {
+        return succeededFuture(albumIndex.getOrDefault(albumId, Set.of()).stream()
+                .filter(id -> update(id, StoredPicture::live, this::tombstone).succeeded())
+                .count());
+    }
+
+    @Override
+    public Future<List<PictureMeta>> findDeleted(int limit) {
+        return succeededFuture(pictures.values().stream()
+                .filter(stored -> !stored.live())
+                .sorted(Comparator.comparingLong(StoredPicture::deletedAt))
+                .limit(limit)
+                .map(StoredPicture::meta)
+                .toList());
+    }
+
+    @Override
+    public Future<Long> purgeDeleted(List<Long> ids) {
+        long purged = 0;
+        for (long id : Set.copyOf(ids)) {
+            StoredPicture stored = pictures.get(id);
+            if (stored != null && !stored.live() && pictures.remove(id, stored)) {
+                Set<Long> album = albumIndex.get(stored.meta().albumId());
+                if (album != null) album.remove(id);
+                purged++;
+            }
+        }
+        return succeededFuture(purged);
+    }
+
+    @Override
+    public Future<Void> requeueDeleted(List<Long> ids) {
+        ids.forEach(id -> update(id, stored -> !stored.live(), this::tombstone));
+        return succeededFuture();
+    }
+
+    @Override
+    public Future<List<PictureMeta>> findPictureMetasForUserId(long userId) {
+        return succeededFuture(live(meta -> meta.userId() == userId).toList());
+    }
+
+    @Override
+    public Future<List<PictureMeta>> findSizesForUserId(long userId) {
+        return findPictureMetasForUserId(userId);
+    }
+
+    // Sort keys are derived from the picture itself, so there is nothing to backfill
+    @Override
+    public Future<Long> backfillSortKeys() {
+        return succeededFuture(0L);
+    }
+
+    private StoredPicture tombstone(StoredPicture stored) {
+        return new StoredPicture(stored.meta(), stored.originalSize(), stored.originalCrc(), deletions.incrementAndGet());
+    }
+
+    // Fails with MissingItemException when the picture is absent or the condition does not hold, like an update
+    // that modified nothing
+    private Future<Void> update(long id, Predicate<StoredPicture> condition, UnaryOperator<StoredPicture> change) {
+        AtomicBoolean updated = new AtomicBoolean();
+        pictures.computeIfPresent(id, (key, stored) -> {
+            if (!condition.test(stored)) return stored;
+            updated.set(true);
+            return change.apply(stored);
+        });
+        return updated.get() ? succeededFuture() : failedFuture(new MissingItemException());
+    }
+
+    private Stream<PictureMeta> live(Predicate<PictureMeta> filter) {
+        return pictures.values().stream().filter(StoredPicture::live).map(StoredPicture::meta).filter(filter);
+    }
+
+    private Stream<StoredPicture> inAlbum(long albumId) {
+        return albumIndex.getOrDefault(albumId, Set.of()).stream().map(pictures::get).filter(stored -> stored != null);
+    }
+
+    private Stream<PictureMeta> liveInAlbum(long albumId) {
+        return inAlbum(albumId).filter(StoredPicture::live).map(StoredPicture::meta);
+    }
+
+    private Stream<PictureMeta> sortedInAlbum(long albumId, boolean isChronologicalOrder) {
+        return liveInAlbum(albumId).sorted(isChronologicalOrder ? BY_SORT_KEY : BY_SORT_KEY.reversed());
+    }
+
+    private record StoredPicture(PictureMeta meta, Long originalSize, Long originalCrc, long deletedAt) {
+        boolean live() {
+            return deletedAt == 0;
+        }
+
+        ArchiveEntry archiveEntry() {
+            return new ArchiveEntry(meta.id(), meta.path(),
+                    originalSize == null || originalCrc == null ? -1L : originalSize,
+                    originalCrc == null ? 0L : originalCrc,
+                    meta.dateModified() == null ? meta.dateUploaded() : meta.dateModified());
+        }
+    }
+}
@@ -3,35 +3,51 @@ package com.leskor.palermopg.dao.impl;
 import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.entity.Album;
 import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.util.BatchLoader;
 import com.leskor.palermopg.util.ReactiveSubscriber;
 import com.mongodb.BasicDBObject;
-import com.mongodb.client.model.Accumulators;
-import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.result.DeleteResult;
 import com.mongodb.reactivestreams.client.MongoClient;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
 import static com.leskor.palermopg.util.MongoUtils.setField;
 import static com.leskor.palermopg.util.ReactiveListSubscriber.forPromise;
 import static com.leskor.palermopg.util.ReactiveSubscriber.forSinglePromise;
 import static com.leskor.palermopg.util.ReactiveSubscriber.forVoidPromise;
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.descending;
+import static com.mongodb.client.model.Updates.set;
 
 public class MongoAlbumDao implements AlbumDao {
     private final static String DB = System.getenv("PIC_DB_NAME");
     private final static String COLLECTION = "albums";
 
+    private final static Bson NOT_DELETED = exists("deletedAt", false);
+
     private final MongoClient mongoClient;
+    private final BatchLoader<Long, Album> findLoader;
 
-    public MongoAlbumDao(MongoClient mongoClient) {
+    public MongoAlbumDao(MongoClient mongoClient, Vertx vertx) {
         this.mongoClient = mongoClient;
+        this.findLoader = new BatchLoader<>(vertx, this::findByIds, Album::id);
     }
 
     @Override
@@ -39,35 +55,26 @@ public class MongoAlbumDao implements AlbumDao {
         Promise<Long> resultPromise = Promise.promise();
 
         getNextId()
-                .onSuccess(nextId -> {
-                    Document document = new Document()
-                            .append("id", nextId)
-                            .append("userId", album.userId())
-                            .append("name", album.name())
-                            .append("isChronologicalOrder", album.isChronologicalOrder())
-                            .append("sharedUsers", album.sharedUsers());
-
-                    getCollection().insertOne(document)
-                            .subscribe(forSinglePromise(resultPromise, success -> nextId));
-                }).onFailure(resultPromise::fail);
+                .onSuccess(nextId -> getAlbums()
+                        .insertOne(Album.create(nextId, album.userId(), album.name(), album.sharedUsers(),
+                                album.isChronologicalOrder()))
+                        .subscribe(forSinglePromise(resultPromise, success -> nextId)))
+                .onFailure(resultPromise::fail);
 
         return resultPromise.future();
     }
 
     @Override
     public Future<Optional<Album>> findById(long id) {
-        Promise<Optional<Album>> resultPromise = Promise.promise();
+        return findLoader.load(id);
+    }
 
-        getCollection()
-                .find(eq("id", id))
-                .first()
-                .subscribe(forSinglePromise(resultPromise, doc -> Optional.of(Album.create(
-                        id,
-                        doc.getLong("userId"),
-                        doc.getString("name"),
-                        doc.getList("sharedUsers", Long.class),
-                        doc.get("isChronologicalOrder") != null &&
-                                doc.getBoolean("isChronologicalOrder"))), Optional.empty()));
+    private Future<List<Album>> findByIds(Set<Long> ids) {
+        Promise<List<Album>> resultPromise = Promise.promise();
+
+        getAlbums()
+                .find(and(in("id", ids), NOT_DELETED))
+                .subscribe(forPromise(resultPromise, Function.identity()));
 
         return resultPromise.future();
     }
@@ -76,67 +83,79 @@ public class MongoAlbumDao implements AlbumDao {
     public Future<List<Album>> findAlbumsForUserId(long userId) {
         Promise<List<Album>> resultPromise = Promise.promise();
 
-        getCollection().find(or(eq("userId", userId), eq("sharedUsers", userId)))
-                .subscribe(forPromise(resultPromise, document -> Album.create(
-                        document.getLong("id"),
-                        document.getLong("userId"),
-                        document.getString("name"),
-                        document.getList("sharedUsers", Long.class),
-                        document.get("isChronologicalOrder") != null &&
-                                document.getBoolean("isChronologicalOrder"))));
+        getAlbums().find(and(or(eq("userId", userId), eq("sharedUsers", userId)), NOT_DELETED))
+                .subscribe(forPromise(resultPromise, Function.identity()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<List<Album>> findAll() {
+        Promise<List<Album>> resultPromise = Promise.promise();
+
+        getAlbums().find(NOT_DELETED)
+                .projection(fields(include("id", "userId", "sharedUsers", "isChronologicalOrder"), excludeId()))
+                .subscribe(forPromise(resultPromise, Function.identity()));
 
         return resultPromise.future();
     }
 
     @Override
     public Future<Void> renameAlbum(long id, String name) {
-        return setField(getCollection(), id, "name", name);
+        return setField(getCollection(), live(id), "name", name);
     }
 
     @Override
-    public Future<Void> delete(long id) {
+    public Future<Void> markDeleted(long id) {
         Promise<Void> resultPromise = Promise.promise();
 
-        getCollection().deleteOne(eq("id", id))
+        getCollection().updateOne(live(id), set("deletedAt", new Date()))
                 .subscribe(forVoidPromise(
                         resultPromise,
-                        deleteResult -> deleteResult.getDeletedCount() == 1 &&
-                                deleteResult.wasAcknowledged(),
+                        updateResult -> updateResult.getModifiedCount() == 1 &&
+                                updateResult.wasAcknowledged(),
                         new MissingItemException()));
 
         return resultPromise.future();
     }
 
+    @Override
+    public Future<Long> purgeDeleted() {
+        Promise<Long> resultPromise = Promise.promise();
+
+        getCollection().deleteMany(exists("deletedAt", true))
+                .subscribe(forSinglePromise(resultPromise, DeleteResult::getDeletedCount));
+
+        return resultPromise.future();
+    }
+
     @Override
     public Future<Void> updateSharedUsers(long id, List<Long> sharedIds) {
-        return setField(getCollection(), id, "sharedUsers", sharedIds);
+        return setField(getCollection(), live(id), "sharedUsers", sharedIds);
     }
 
     private Future<Long> getNextId() {
         Promise<Long> resultPromise = Promise.promise();
 
-        List<Bson> aggregation = List.of(Aggregates.group(null, Accumulators.max("maxId", "$id")));
-
         getCollection()
-                .aggregate(aggregation)
+                .find()
+                .projection(fields(include("id"), excludeId()))
+                .sort(descending("id"))
                 .first()
-                .subscribe(forSinglePromise(resultPromise, doc -> doc.getLong("maxId") + 1, 1L));
+                .subscribe(forSinglePromise(resultPromise, doc -> doc.getLong("id") + 1, 1L));
 
         return resultPromise.future();
     }
 
     @Override
     public Future<Void> setChronologicalOrder(long id, boolean isChronologicalOrder) {
-        return setField(getCollection(), id, "isChronologicalOrder", isChronologicalOrder);
+        return setField(getCollection(), live(id), "isChronologicalOrder", isChronologicalOrder);
     }
 
     @Override
     public Future<Void> updateAlbum(Album album) {
         Promise<Void> resultPromise = Promise.promise();
 
-        BasicDBObject query = new BasicDBObject();
-        query.put("id", album.id());
-
         BasicDBObject newDoc = new BasicDBObject();
 
         if (album.name() != null) {
@@ -153,7 +172,7 @@ public class MongoAlbumDao implements AlbumDao {
         updateDoc.put("$set", newDoc);
 
         getCollection()
-                .updateOne(query, updateDoc)
+                .updateOne(live(album.id()), updateDoc)
                 .subscribe(
                         ReactiveSubscriber.forVoidPromise(
                                 resultPromise,
@@ -165,6 +184,15 @@ public class MongoAlbumDao implements AlbumDao {
         return resultPromise.future();
     }
 
+    // Deleted albums wait for purging and must not be changed meanwhile, so updates to them modify nothing
+    private static Bson live(long id) {
+        return and(eq("id", id), NOT_DELETED);
+    }
+
+    private MongoCollection<Album> getAlbums() {
+        return mongoClient.getDatabase(DB).withCodecRegistry(BsonFields.CODECS).getCollection(COLLECTION, Album.class);
+    }
+
     private MongoCollection<Document> getCollection() {
         return mongoClient.getDatabase(DB).getCollection(COLLECTION);
     }
@@ -0,0 +1,179 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.util.ReactiveListSubscriber;
+import com.leskor.palermopg.util.ReactiveSubscriber;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Indexes.ascending;
+import static com.mongodb.client.model.Sorts.descending;
+
+/**
+ * Creates the indexes used by the Mongo DAOs if they are missing and checks that hot queries do not collection-scan.
+ * When PIC_DB_INDEX_CHECK is set to "fail", a missing index or a collection scan fails the startup.
+ */
+public class MongoIndexManager {
+    private static final Logger logger = LoggerFactory.getLogger("Application");
+
+    private static final String DB = System.getenv("PIC_DB_NAME");
+    private static final boolean FAIL_ON_CHECK = "fail".equals(System.getenv("PIC_DB_INDEX_CHECK"));
+
+    private static final List<IndexSpec> INDEXES = List.of(
+            new IndexSpec("albums", ascending("id"), true),
+            new IndexSpec("albums", ascending("userId"), false),
+            new IndexSpec("albums", ascending("sharedUsers"), false),
+            new IndexSpec("pictures", ascending("id"), true),
+            new IndexSpec("pictures", ascending("albumId", "sortKey"), false),
+            new IndexSpec("pictures", ascending("userId"), false),
+            new IndexSpec("pictures", ascending("deletedAt"), false),
+            new IndexSpec("limits", ascending("userId"), true),
+            new IndexSpec("jobs", ascending("id"), true),
+            new IndexSpec("jobs", ascending("status", "leaseUntil"), false)
+    );
+
+    private static final List<QuerySpec> QUERIES = List.of(
+            new QuerySpec("albums", eq("id", 1L), null),
+            new QuerySpec("albums", or(eq("userId", 1L), eq("sharedUsers", 1L)), null),
+            new QuerySpec("albums", new Document(), descending("id")),
+            new QuerySpec("pictures", eq("id", 1L), null),
+            new QuerySpec("pictures", eq("albumId", 1L), descending("sortKey")),
+            new QuerySpec("pictures", eq("userId", 1L), null),
+            new QuerySpec("pictures", new Document(), descending("id")),
+            new QuerySpec("pictures", exists("deletedAt", true), Sorts.ascending("deletedAt")),
+            new QuerySpec("limits", eq("userId", 1L), null),
+            new QuerySpec("jobs", eq("id", 1L), null)
+    );
+
+    private final MongoClient mongoClient;
+
+    public MongoIndexManager(MongoClient mongoClient) {
+        this.mongoClient = mongoClient;
+    }
+
+    public Future<Void> ensureIndexes() {
+        List<Future<Void>> indexFutures = INDEXES.stream()
+                .map(this::ensureIndex)
+                .toList();
+
+        return CompositeFuture.join(new ArrayList<>(indexFutures))
+                .compose(created -> verifyQueryPlans(),
+                        cause -> this.<Void>onCheckFailed(cause).compose(ignored -> verifyQueryPlans()));
+    }
+
+    private Future<Void> ensureIndex(IndexSpec spec) {
+        Promise<List<BsonDocument>> existingPromise = Promise.promise();
+
+        getDatabase().getCollection(spec.collection())
+                .listIndexes()
+                .subscribe(ReactiveListSubscriber.forPromise(existingPromise, doc -> toBson(doc.get("key", Document.class))));
+
+        return existingPromise.future().compose(existing -> {
+            BsonDocument keys = toBson(spec.keys());
+            if (existing.contains(keys)) {
+                logger.info("Index {} on {} is present", keys.toJson(), spec.collection());
+                return Future.succeededFuture();
+            }
+
+            Promise<String> createPromise = Promise.promise();
+            getDatabase().getCollection(spec.collection())
+                    .createIndex(spec.keys(), new IndexOptions().unique(spec.unique()))
+                    .subscribe(ReactiveSubscriber.forSinglePromise(createPromise, Function.identity()));
+
+            return createPromise.future()
+                    .onSuccess(name -> logger.info("Created index {} {} on {}{}",
+                            name, keys.toJson(), spec.collection(), spec.unique() ? " (unique)" : ""))
+                    .onFailure(cause -> logger.error("Cannot create index {} on {}: {}",
+                            keys.toJson(), spec.collection(), cause.getMessage()))
+                    .mapEmpty();
+        });
+    }
+
+    private Future<Void> verifyQueryPlans() {
+        List<Future<Boolean>> planFutures = QUERIES.stream()
+                .map(this::explain)
+                .toList();
+
+        return CompositeFuture.all(new ArrayList<>(planFutures)).compose(results -> {
+            List<String> scans = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                if (results.<Boolean>resultAt(i)) {
+                    QuerySpec query = QUERIES.get(i);
+                    scans.add(query.collection() + " " + toBson(query.filter()).toJson());
+                }
+            }
+            if (scans.isEmpty()) {
+                logger.info("Verified query plans for {} queries", QUERIES.size());
+                return Future.succeededFuture();
+            }
+            scans.forEach(scan -> logger.warn("Query would scan the whole collection: {}", scan));
+            return onCheckFailed(new IllegalStateException(scans.size() + " queries would scan whole collections"));
+        }, this::onCheckFailed);
+    }
+
+    private Future<Boolean> explain(QuerySpec query) {
+        Promise<Boolean> resultPromise = Promise.promise();
+
+        Document find = new Document("find", query.collection()).append("filter", toBson(query.filter()));
+        if (query.sort() != null) {
+            find.append("sort", toBson(query.sort()));
+        }
+        Document command = new Document("explain", find).append("verbosity", "queryPlanner");
+
+        getDatabase().runCommand(command)
+                .subscribe(ReactiveSubscriber.forSinglePromise(resultPromise,
+                        doc -> hasCollectionScan(doc.get("queryPlanner", Document.class).get("winningPlan"))));
+
+        return resultPromise.future();
+    }
+
+    private boolean hasCollectionScan(Object plan) {
+        if (plan instanceof Document stage) {
+            return "COLLSCAN".equals(stage.getString("stage"))
+                    || stage.values().stream().anyMatch(this::hasCollectionScan);
+        }
+        if (plan instanceof List<?> stages) {
+            return stages.stream().anyMatch(this::hasCollectionScan);
+        }
+        return false;
+    }
+
+    private <T> Future<T> onCheckFailed(Throwable cause) {
+        if (FAIL_ON_CHECK) {
+            return Future.failedFuture(cause);
+        }
+        logger.warn("Index check failed, continuing: {}", cause.getMessage());
+        return Future.succeededFuture();
+    }
+
+    private BsonDocument toBson(Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    private MongoDatabase getDatabase() {
+        return mongoClient.getDatabase(DB);
+    }
+
+    private record IndexSpec(String collection, Bson keys, boolean unique) {
+    }
+
+    private record QuerySpec(String collection, Bson filter, Bson sort) {
+    }
+}
@@ -0,0 +1,175 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.dao.JobDao;
+import com.leskor.palermopg.entity.Job;
+import com.leskor.palermopg.util.ReactiveSubscriber;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.bson.Document;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Optional;
+
+import static com.leskor.palermopg.util.ReactiveSubscriber.forSinglePromise;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Sorts.descending;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
+
+public class MongoJobDao implements JobDao {
+    private final static String DB = System.getenv("PIC_DB_NAME");
+    private final static String COLLECTION = "jobs";
+
+    private final MongoClient mongoClient;
+
+    public MongoJobDao(MongoClient mongoClient) {
+        this.mongoClient = mongoClient;
+    }
+
+    @Override
+    public Future<Long> save(Job job) {
+        Promise<Long> resultPromise = Promise.promise();
+
+        getNextId()
+                .onSuccess(id -> {
+                    Document document = new Document()
+                            .append("id", id)
+                            .append("type", job.type())
+                            .append("userId", job.userId())
+                            .append("status", job.status().name())
+                            .append("progress", job.progress())
+                            .append("total", job.total())
+                            .append("checkpoint", job.checkpoint())
+                            .append("dateCreated", job.dateCreated())
+                            .append("dateModified", job.dateModified());
+
+                    getCollection().insertOne(document).subscribe(forSinglePromise(resultPromise, success -> id));
+                }).onFailure(resultPromise::fail);
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Optional<Job>> findById(long id) {
+        Promise<Optional<Job>> resultPromise = Promise.promise();
+
+        getCollection()
+                .find(eq("id", id))
+                .first()
+                .subscribe(forSinglePromise(resultPromise, doc -> Optional.of(mapToJob(doc)), Optional.empty()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Optional<Job>> acquire(String owner, Duration lease) {
+        Promise<Optional<Job>> resultPromise = Promise.promise();
+        Date now = new Date();
+
+        getCollection()
+                .findOneAndUpdate(
+                        or(eq("status", Job.Status.PENDING.name()),
+                                and(eq("status", Job.Status.RUNNING.name()), lt("leaseUntil", now))),
+                        combine(
+                                set("status", Job.Status.RUNNING.name()),
+                                set("leaseOwner", owner),
+                                set("leaseUntil", Date.from(now.toInstant().plus(lease))),
+                                set("dateModified", now)),
+                        new FindOneAndUpdateOptions().sort(ascending("id")).returnDocument(ReturnDocument.AFTER))
+                .subscribe(forSinglePromise(resultPromise, doc -> Optional.of(mapToJob(doc)), Optional.empty()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Void> checkpoint(long id, String owner, Duration lease, long progress, long total, long checkpoint) {
+        Promise<Void> resultPromise = Promise.promise();
+
+        getCollection()
+                .updateOne(
+                        and(eq("id", id), eq("leaseOwner", owner), eq("status", Job.Status.RUNNING.name())),
+                        combine(
+                                set("progress", progress),
+                                set("total", total),
+                                set("checkpoint", checkpoint),
+                                set("leaseUntil", Date.from(Instant.now().plus(lease))),
+                                set("dateModified", new Date())))
+                .subscribe(ReactiveSubscriber.forVoidPromise(resultPromise,
+                        (UpdateResult res) -> res.wasAcknowledged() && res.getMatchedCount() == 1,
+                        new IllegalStateException("Lease on job " + id + " was lost")));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Void> finish(long id, String owner, Job.Status status, String error) {
+        Promise<Void> resultPromise = Promise.promise();
+
+        getCollection()
+                .updateOne(
+                        and(eq("id", id), eq("leaseOwner", owner)),
+                        combine(
+                                set("status", status.name()),
+                                set("error", error),
+                                set("dateModified", new Date()),
+                                unset("leaseOwner"),
+                                unset("leaseUntil")))
+                .subscribe(ReactiveSubscriber.forVoidPromise(resultPromise,
+                        (UpdateResult res) -> res.wasAcknowledged() && res.getMatchedCount() == 1,
+                        new IllegalStateException("Lease on job " + id + " was lost")));
+
+        return resultPromise.future();
+    }
+
+    private Job mapToJob(Document document) {
+        return new Job(
+                document.getLong("id"),
+                document.getString("type"),
+                document.getLong("userId"),
+                Job.Status.valueOf(document.getString("status")),
+                document.getLong("progress"),
+                document.getLong("total"),
+                document.getLong("checkpoint"),
+                document.getString("error"),
+                toLocalDateTime(document.getDate("dateCreated")),
+                toLocalDateTime(document.getDate("dateModified")));
+    }
+
+    private LocalDateTime toLocalDateTime(Date date) {
+        return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+    }
+
+    private Future<Long> getNextId() {
+        Promise<Long> resultPromise = Promise.promise();
+
+        getCollection()
+                .find()
+                .projection(fields(include("id"), excludeId()))
+                .sort(descending("id"))
+                .first()
+                .subscribe(forSinglePromise(resultPromise, doc -> doc.getLong("id") + 1, 1L));
+
+        return resultPromise.future();
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoClient.getDatabase(DB).getCollection(COLLECTION);
+    }
+}
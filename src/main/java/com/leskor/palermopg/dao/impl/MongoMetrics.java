@@ -0,0 +1,251 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandEvent;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionAddedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListenerAdapter;
+import com.mongodb.event.ConnectionPoolWaitQueueEnteredEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueExitedEvent;
+import com.mongodb.event.ConnectionRemovedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Feeds Mongo command latencies and connection pool usage into the metrics registry and logs commands slower than
+ * the configured threshold together with the shape of their filter, values replaced by "?". Time spent waiting for a
+ * pooled connection is recorded per server.
+ */
+public class MongoMetrics implements CommandListener {
+    private static final Logger logger = LoggerFactory.getLogger("Application");
+
+    private static final long DEFAULT_SLOW_QUERY_MILLIS = 100;
+
+    private static final BsonString PLACEHOLDER = new BsonString("?");
+    private static final Set<String> WRITE_COMMANDS = Set.of("update", "delete");
+
+    private final MeterRegistry registry;
+    private final Duration slowQueryThreshold;
+    private final Map<Integer, StartedCommand> running = new ConcurrentHashMap<>();
+
+    private final Counter checkouts;
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Map<ServerAddress, PoolWaits> poolWaits = new ConcurrentHashMap<>();
+
+    public MongoMetrics(MeterRegistry registry) {
+        this(registry, slowQueryThresholdFromEnv());
+    }
+
+    /**
+     * @param slowQueryThreshold commands running at least this long are logged, zero disables the log
+     */
+    MongoMetrics(MeterRegistry registry, Duration slowQueryThreshold) {
+        this.registry = registry;
+        this.slowQueryThreshold = slowQueryThreshold;
+        this.checkouts = Counter.builder("pic.mongo.pool.checkouts")
+                .description("Connections checked out of the Mongo pool")
+                .register(registry);
+        Gauge.builder("pic.mongo.pool.checkedout", checkedOut, AtomicInteger::get)
+                .description("Connections currently checked out of the Mongo pool")
+                .register(registry);
+        Gauge.builder("pic.mongo.pool.size", connections, AtomicInteger::get)
+                .description("Connections currently open in the Mongo pool")
+                .register(registry);
+    }
+
+    public MongoClientSettings.Builder instrument(MongoClientSettings.Builder settings) {
+        return settings
+                .addCommandListener(this)
+                .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(new PoolListener()));
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        BsonDocument command = event.getCommand();
+        String filter = slowQueryThreshold.isZero() ? null : filterShape(event.getCommandName(), command);
+        running.put(event.getRequestId(), new StartedCommand(collectionOf(event.getCommandName(), command), filter));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        finished(event, event.getElapsedTime(TimeUnit.NANOSECONDS), "success");
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        finished(event, event.getElapsedTime(TimeUnit.NANOSECONDS), "failure");
+    }
+
+    private void finished(CommandEvent event, long elapsedNanos, String outcome) {
+        StartedCommand started = running.remove(event.getRequestId());
+        String collection = started == null ? "unknown" : started.collection();
+
+        Timer.builder("pic.mongo.commands")
+                .description("Latency of Mongo commands")
+                .tag("command", event.getCommandName())
+                .tag("collection", collection)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+
+        if (started != null && started.filter() != null && elapsedNanos >= slowQueryThreshold.toNanos()) {
+            logger.warn("Slow Mongo {} on {} took {} ms ({}), filter: {}", event.getCommandName(), collection,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), outcome, started.filter());
+        }
+    }
+
+    static String collectionOf(String commandName, BsonDocument command) {
+        if (commandName.equals("getMore")) {
+            BsonValue collection = command.get("collection");
+            return collection != null && collection.isString() ? collection.asString().getValue() : "unknown";
+        }
+        BsonValue first = command.isEmpty() ? null : command.get(command.getFirstKey());
+        return first != null && first.isString() ? first.asString().getValue() : "none";
+    }
+
+    static String filterShape(String commandName, BsonDocument command) {
+        BsonValue filter;
+        if (WRITE_COMMANDS.contains(commandName)) {
+            BsonValue statements = command.get(commandName.equals("update") ? "updates" : "deletes");
+            filter = statements != null && statements.isArray() && !statements.asArray().isEmpty()
+                    && statements.asArray().get(0).isDocument()
+                    ? statements.asArray().get(0).asDocument().get("q")
+                    : null;
+        } else if (command.containsKey("filter")) {
+            filter = command.get("filter");
+        } else if (command.containsKey("query")) {
+            filter = command.get("query");
+        } else {
+            filter = command.get("pipeline");
+        }
+        return filter == null ? "{}" : json(shape(filter));
+    }
+
+    private static String json(BsonValue value) {
+        if (value.isDocument()) return value.asDocument().toJson();
+        if (value.isArray()) return value.asArray().stream().map(MongoMetrics::json).collect(joining(", ", "[", "]"));
+        return "\"?\"";
+    }
+
+    private static BsonValue shape(BsonValue value) {
+        if (value.isDocument()) {
+            BsonDocument shaped = new BsonDocument();
+            value.asDocument().forEach((key, field) -> shaped.append(key, shape(field)));
+            return shaped;
+        }
+        if (value.isArray() && value.asArray().stream().anyMatch(BsonValue::isDocument)) {
+            BsonArray shaped = new BsonArray();
+            value.asArray().forEach(element -> shaped.add(shape(element)));
+            return shaped;
+        }
+        return PLACEHOLDER;
+    }
+
+    private static Duration slowQueryThresholdFromEnv() {
+        String millis = System.getenv("PIC_DB_SLOW_QUERY_MS");
+        return Duration.ofMillis(millis == null || millis.isBlank() ? DEFAULT_SLOW_QUERY_MILLIS : Long.parseLong(millis));
+    }
+
+    // Wait queue events are deprecated in favour of check out events the 3.12 driver does not publish yet
+    @SuppressWarnings("deprecation")
+    private class PoolListener extends ConnectionPoolListenerAdapter {
+        @Override
+        public void waitQueueEntered(ConnectionPoolWaitQueueEnteredEvent event) {
+            poolWaitsFor(event.getServerId()).entered();
+        }
+
+        @Override
+        public void waitQueueExited(ConnectionPoolWaitQueueExitedEvent event) {
+            poolWaitsFor(event.getServerId()).exited();
+        }
+
+        @Override
+        public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+            checkouts.increment();
+            checkedOut.incrementAndGet();
+        }
+
+        @Override
+        public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+            checkedOut.decrementAndGet();
+        }
+
+        @Override
+        public void connectionAdded(ConnectionAddedEvent event) {
+            connections.incrementAndGet();
+        }
+
+        @Override
+        public void connectionRemoved(ConnectionRemovedEvent event) {
+            connections.decrementAndGet();
+        }
+    }
+
+    private PoolWaits poolWaitsFor(ServerId serverId) {
+        return poolWaits.computeIfAbsent(serverId.getAddress(), address -> new PoolWaits(registry, address.toString()));
+    }
+
+    // The reactive driver hands out waiting connections one at a time on a single thread in the order they were
+    // requested, so each exit is paired with the oldest wait still queued for that server
+    private static class PoolWaits {
+        private final Queue<Long> enteredAt = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final Timer waitTime;
+
+        PoolWaits(MeterRegistry registry, String server) {
+            Gauge.builder("pic.mongo.pool.waiting", waiting, AtomicInteger::get)
+                    .description("Operations currently waiting for a connection from the Mongo pool")
+                    .tag("server", server)
+                    .register(registry);
+            waitTime = Timer.builder("pic.mongo.pool.wait")
+                    .description("Time spent waiting for a connection from the Mongo pool")
+                    .tag("server", server)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        void entered() {
+            waiting.incrementAndGet();
+            enteredAt.add(System.nanoTime());
+        }
+
+        void exited() {
+            Long entered = enteredAt.poll();
+            if (entered != null) {
+                waiting.decrementAndGet();
+                waitTime.record(System.nanoTime() - entered, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private record StartedCommand(String collection, String filter) {
+    }
+}
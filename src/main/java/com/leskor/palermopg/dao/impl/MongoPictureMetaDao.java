@@ -1,35 +1,78 @@
 package com.leskor.palermopg.dao.impl;
 
 import com.leskor.palermopg.dao.PictureMetaDao;
+import com.leskor.palermopg.entity.ArchiveEntry;
 import com.leskor.palermopg.entity.PictureMeta;
+import com.leskor.palermopg.entity.PicturePage;
 import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.util.BatchLoader;
 import com.leskor.palermopg.util.ReactiveListSubscriber;
+import com.leskor.palermopg.util.ReactiveResponseSubscriber;
 import com.leskor.palermopg.util.ReactiveSubscriber;
-import com.mongodb.client.model.Accumulators;
-import com.mongodb.client.model.Aggregates;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
 import com.mongodb.reactivestreams.client.MongoClient;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reactivestreams.Publisher;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
 import static com.leskor.palermopg.util.MongoUtils.setField;
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Sorts.descending;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
 
 public class MongoPictureMetaDao implements PictureMetaDao {
     private final static String DB = System.getenv("PIC_DB_NAME");
     private final static String COLLECTION = "pictures";
 
+    private final static int BACKFILL_BATCH_SIZE = 1000;
+
+    private final static Bson NOT_DELETED = exists("deletedAt", false);
+    private final static Bson MISSING_SORT_KEY = exists("sortKey", false);
+    private final static Bson MISSING_CHECKSUM = exists("originalCrc", false);
+
+    private final static Bson IDS_PROJECTION = fields(include("id", "userId", "albumId"), excludeId());
+    private final static Bson BACKFILL_PROJECTION = include("_id", "id", "dateUploaded", "dateCaptured");
+    private final static Bson SORT_KEYS_PROJECTION =
+            fields(include("id", "userId", "albumId", "dateUploaded", "dateCaptured"), excludeId());
+    private final static Bson PAGE_PROJECTION = fields(include("id", "userId", "albumId", "sortKey"), excludeId());
+    private final static Bson ARCHIVE_PROJECTION = fields(
+            include("id", "path", "originalSize", "originalCrc", "dateUploaded", "dateModified"), excludeId());
+    private final static Bson SIZES_PROJECTION =
+            fields(include("id", "userId", "albumId", "size", "path", "pathOptimized"), excludeId());
+
     private final MongoClient mongoClient;
+    private final BatchLoader<Long, PictureMeta> findLoader;
 
-    public MongoPictureMetaDao(MongoClient mongoClient) {
+    public MongoPictureMetaDao(MongoClient mongoClient, Vertx vertx) {
         this.mongoClient = mongoClient;
+        this.findLoader = new BatchLoader<>(vertx, this::findByIds, PictureMeta::id);
     }
 
     @Override
@@ -37,46 +80,162 @@ public class MongoPictureMetaDao implements PictureMetaDao {
         Promise<Long> resultPromise = Promise.promise();
 
         getNextIdAsync()
-                .onSuccess(id -> {
-                    Document document = new Document()
-                            .append("id", id)
-                            .append("size", pictureMeta.size())
-                            .append("path", pictureMeta.path())
-                            .append("pathOptimized", pictureMeta.pathOptimized())
-                            .append("userId", pictureMeta.userId())
-                            .append("dateUploaded", pictureMeta.dateUploaded())
-                            .append("dateCaptured", pictureMeta.dateCaptured())
-                            .append("dateModified", pictureMeta.dateModified());
+                .onSuccess(id -> getPictures().insertOne(pictureMeta.withId(id))
+                        .subscribe(ReactiveSubscriber.forSinglePromise(resultPromise, success -> id)))
+                .onFailure(resultPromise::fail);
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Optional<PictureMeta>> find(long id) {
+        return findLoader.load(id);
+    }
 
-                    if (pictureMeta.albumId() > 0) {
-                        document.append("albumId", pictureMeta.albumId());
-                    }
+    private Future<List<PictureMeta>> findByIds(Set<Long> ids) {
+        Promise<List<PictureMeta>> resultPromise = Promise.promise();
 
-                    getCollection().insertOne(document).subscribe(ReactiveSubscriber.forSinglePromise(resultPromise, success -> id));
-                }).onFailure(resultPromise::fail);
+        getPictures()
+                .find(live(in("id", ids)))
+                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, Function.identity()));
 
         return resultPromise.future();
     }
 
     @Override
-    public Future<Optional<PictureMeta>> find(long id) {
+    public Future<List<PictureMeta>> findForAlbumId(long albumId) {
+        Promise<List<PictureMeta>> resultPromise = Promise.promise();
+
+        getPictures()
+                .find(live(eq("albumId", albumId)))
+                .sort(descending("sortKey"))
+                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, Function.identity()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<List<PictureMeta>> findSortedForAlbumId(long albumId, boolean isChronologicalOrder) {
+        Promise<List<PictureMeta>> resultPromise = Promise.promise();
+
+        getPictures()
+                .find(live(eq("albumId", albumId)))
+                .projection(SORT_KEYS_PROJECTION)
+                .sort(isChronologicalOrder ? ascending("sortKey") : descending("sortKey"))
+                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, Function.identity()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Publisher<PictureMeta> streamSortedIdsForAlbumId(long albumId, boolean isChronologicalOrder) {
+        return getPictures()
+                .find(live(eq("albumId", albumId)))
+                .projection(IDS_PROJECTION)
+                .sort(isChronologicalOrder ? ascending("sortKey") : descending("sortKey"))
+                .batchSize(ReactiveResponseSubscriber.BATCH_SIZE);
+    }
+
+    @Override
+    public Future<Optional<PictureMeta>> findOldestForAlbumId(long albumId) {
         Promise<Optional<PictureMeta>> resultPromise = Promise.promise();
 
-        getCollection()
-                .find(eq("id", id))
+        getPictures()
+                .find(live(eq("albumId", albumId)))
+                .projection(SORT_KEYS_PROJECTION)
+                .sort(ascending("sortKey"))
                 .first()
-                .subscribe(ReactiveSubscriber.forSinglePromise(resultPromise, doc -> Optional.of(mapToPicture(doc)), Optional.empty()));
+                .subscribe(ReactiveSubscriber.forSinglePromise(
+                        resultPromise, Optional::of, Optional.empty()));
 
         return resultPromise.future();
     }
 
     @Override
-    public Future<List<PictureMeta>> findForAlbumId(long albumId) {
-        Promise<List<PictureMeta>> resultPromise = Promise.promise();
+    public Future<PicturePage> findPageForAlbumId(long albumId, boolean isChronologicalOrder, String afterSortKey, int limit) {
+        Promise<List<Document>> resultPromise = Promise.promise();
+
+        Bson filter = afterSortKey == null ? eq("albumId", albumId)
+                : and(eq("albumId", albumId),
+                    isChronologicalOrder ? gt("sortKey", afterSortKey) : lt("sortKey", afterSortKey));
+
+        getCollection()
+                .find(live(filter))
+                .projection(PAGE_PROJECTION)
+                .sort(isChronologicalOrder ? ascending("sortKey") : descending("sortKey"))
+                .limit(limit + 1)
+                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, Function.identity()));
+
+        return resultPromise.future().map(documents -> {
+            boolean hasMore = documents.size() > limit;
+            List<Document> page = hasMore ? documents.subList(0, limit) : documents;
+            return new PicturePage(
+                    page.stream().map(this::mapToPictureIds).toList(),
+                    hasMore ? page.get(page.size() - 1).getString("sortKey") : null);
+        });
+    }
+
+    @Override
+    public Future<List<ArchiveEntry>> findArchiveEntriesForAlbumId(long albumId) {
+        Promise<List<ArchiveEntry>> resultPromise = Promise.promise();
+
+        getCollection()
+                .find(live(eq("albumId", albumId)))
+                .projection(ARCHIVE_PROJECTION)
+                .sort(ascending("sortKey"))
+                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, this::mapToArchiveEntry));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<List<ArchiveEntry>> findMissingChecksums(long afterId, int limit) {
+        Promise<List<ArchiveEntry>> resultPromise = Promise.promise();
 
         getCollection()
-                .find(eq("albumId", albumId))
-                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, this::mapToPicture));
+                .find(live(and(MISSING_CHECKSUM, gt("id", afterId))))
+                .projection(ARCHIVE_PROJECTION)
+                .sort(ascending("id"))
+                .limit(limit)
+                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, this::mapToArchiveEntry));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Void> setOriginalChecksum(long id, long size, long crc) {
+        Promise<Void> resultPromise = Promise.promise();
+
+        getCollection()
+                .updateOne(eq("id", id), combine(set("originalSize", size), set("originalCrc", crc)))
+                .subscribe(ReactiveSubscriber.forVoidPromise(
+                        resultPromise, (UpdateResult res) -> res.wasAcknowledged() && res.getMatchedCount() == 1,
+                        new MissingItemException()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Void> setMissingOriginalChecksum(long id, long size, long crc) {
+        Promise<Void> resultPromise = Promise.promise();
+
+        getCollection()
+                .updateOne(and(eq("id", id), MISSING_CHECKSUM), combine(set("originalSize", size), set("originalCrc", crc)))
+                .subscribe(ReactiveSubscriber.forVoidPromise(resultPromise, UpdateResult::wasAcknowledged,
+                        new IllegalStateException("Checksum was not stored")));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Void> clearOriginalChecksum(long id) {
+        Promise<Void> resultPromise = Promise.promise();
+
+        getCollection()
+                .updateOne(eq("id", id), combine(unset("originalSize"), unset("originalCrc")))
+                .subscribe(ReactiveSubscriber.forVoidPromise(
+                        resultPromise, (UpdateResult res) -> res.wasAcknowledged() && res.getMatchedCount() == 1,
+                        new MissingItemException()));
 
         return resultPromise.future();
     }
@@ -87,12 +246,62 @@ public class MongoPictureMetaDao implements PictureMetaDao {
     }
 
     @Override
-    public Future<Void> deleteById(long id) {
+    public Future<Void> markDeletedById(long id) {
         Promise<Void> resultPromise = Promise.promise();
 
         getCollection()
-                .deleteOne(eq("id", id))
-                .subscribe(ReactiveSubscriber.forVoidPromise(resultPromise, DeleteResult::wasAcknowledged, new MissingItemException()));
+                .updateOne(live(eq("id", id)), set("deletedAt", new Date()))
+                .subscribe(ReactiveSubscriber.forVoidPromise(
+                        resultPromise, (UpdateResult res) -> res.wasAcknowledged() && res.getModifiedCount() == 1,
+                        new MissingItemException()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Long> markDeletedForAlbumId(long albumId) {
+        Promise<Long> resultPromise = Promise.promise();
+
+        getCollection()
+                .updateMany(live(eq("albumId", albumId)), set("deletedAt", new Date()))
+                .subscribe(ReactiveSubscriber.forSinglePromise(resultPromise, UpdateResult::getModifiedCount));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<List<PictureMeta>> findDeleted(int limit) {
+        Promise<List<PictureMeta>> resultPromise = Promise.promise();
+
+        getPictures()
+                .find(exists("deletedAt", true))
+                .projection(SIZES_PROJECTION)
+                .sort(ascending("deletedAt"))
+                .limit(limit)
+                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, Function.identity()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Long> purgeDeleted(List<Long> ids) {
+        Promise<Long> resultPromise = Promise.promise();
+
+        getCollection()
+                .deleteMany(and(in("id", ids), exists("deletedAt", true)))
+                .subscribe(ReactiveSubscriber.forSinglePromise(resultPromise, DeleteResult::getDeletedCount));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Void> requeueDeleted(List<Long> ids) {
+        Promise<Void> resultPromise = Promise.promise();
+
+        getCollection()
+                .updateMany(and(in("id", ids), exists("deletedAt", true)), set("deletedAt", new Date()))
+                .subscribe(ReactiveSubscriber.forVoidPromise(resultPromise, UpdateResult::wasAcknowledged,
+                        new IllegalStateException("Tombstones were not requeued")));
 
         return resultPromise.future();
     }
@@ -101,42 +310,124 @@ public class MongoPictureMetaDao implements PictureMetaDao {
     public Future<List<PictureMeta>> findPictureMetasForUserId(long userId) {
         Promise<List<PictureMeta>> resultPromise = Promise.promise();
 
+        getPictures()
+                .find(live(eq("userId", userId)))
+                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, Function.identity()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<List<PictureMeta>> findSizesForUserId(long userId) {
+        Promise<List<PictureMeta>> resultPromise = Promise.promise();
+
+        getPictures()
+                .find(live(eq("userId", userId)))
+                .projection(SIZES_PROJECTION)
+                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, Function.identity()));
+
+        return resultPromise.future();
+    }
+
+    @Override
+    public Future<Long> backfillSortKeys() {
+        return backfillSortKeys(null, 0L);
+    }
+
+    // Pages by _id so that only one batch of legacy pictures is held in memory at a time
+    private Future<Long> backfillSortKeys(Object afterId, long written) {
+        Promise<List<Document>> batchPromise = Promise.promise();
+
+        getCollection()
+                .find(afterId == null ? MISSING_SORT_KEY : and(MISSING_SORT_KEY, gt("_id", afterId)))
+                .projection(BACKFILL_PROJECTION)
+                .sort(ascending("_id"))
+                .limit(BACKFILL_BATCH_SIZE)
+                .subscribe(ReactiveListSubscriber.forPromise(batchPromise, Function.identity()));
+
+        return batchPromise.future().compose(batch -> {
+            if (batch.isEmpty()) {
+                return Future.succeededFuture(written);
+            }
+
+            Object lastId = batch.get(batch.size() - 1).get("_id");
+            return writeSortKeys(batch).compose(modified -> batch.size() < BACKFILL_BATCH_SIZE
+                    ? Future.succeededFuture(written + modified)
+                    : backfillSortKeys(lastId, written + modified));
+        });
+    }
+
+    private Future<Integer> writeSortKeys(List<Document> batch) {
+        Promise<Integer> resultPromise = Promise.promise();
+
+        List<UpdateOneModel<Document>> updates = batch.stream()
+                .map(document -> new UpdateOneModel<Document>(
+                        eq("_id", document.get("_id")), set("sortKey", sortKeyOf(document))))
+                .toList();
+
         getCollection()
-                .find(eq("userId", userId))
-                .subscribe(ReactiveListSubscriber.forPromise(resultPromise, this::mapToPicture));
+                .bulkWrite(updates, new BulkWriteOptions().ordered(false))
+                .subscribe(ReactiveSubscriber.forSinglePromise(resultPromise, BulkWriteResult::getModifiedCount));
 
         return resultPromise.future();
     }
 
-    private PictureMeta mapToPicture(Document document) {
-        Long albumId = document.getLong("albumId");
+    // Tombstoned pictures are only visible to the garbage collector
+    private static Bson live(Bson filter) {
+        return and(filter, NOT_DELETED);
+    }
+
+    private PictureMeta mapToPictureIds(Document document) {
+        return new PictureMeta(document.getLong("id"), document.getLong("userId"), albumIdOf(document),
+                -1L, null, null, null, null, null);
+    }
+
+    // Stored instants are used as they are, reading them into the system zone would shift the key off the inserted one
+    private String sortKeyOf(Document document) {
+        Date dateCaptured = document.getDate("dateCaptured");
+        return PictureMeta.sortKey(document.getLong("id"), document.getDate("dateUploaded").toInstant(),
+                dateCaptured == null ? null : dateCaptured.toInstant());
+    }
+
+    private ArchiveEntry mapToArchiveEntry(Document document) {
+        Long originalSize = document.getLong("originalSize");
+        Long originalCrc = document.getLong("originalCrc");
+        Date dateModified = document.getDate("dateModified");
 
-        return new PictureMeta(
+        return new ArchiveEntry(
                 document.getLong("id"),
-                document.getLong("userId"),
-                albumId == null ? -1 : albumId,
-                document.getLong("size") == null ? -1L : document.getLong("size"),
                 document.getString("path"),
-                document.getString("pathOptimized"),
-                document.getDate("dateUploaded").toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime(),
-                document.getDate("dateCaptured").toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime(),
-                document.get("dateModified") == null ? document.getDate("dateUploaded").toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime()
-                : document.getDate("dateModified").toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime());
+                originalSize == null || originalCrc == null ? -1L : originalSize,
+                originalCrc == null ? 0L : originalCrc,
+                toLocalDateTime(dateModified == null ? document.getDate("dateUploaded") : dateModified));
+    }
+
+    private long albumIdOf(Document document) {
+        Long albumId = document.getLong("albumId");
+        return albumId == null ? -1 : albumId;
+    }
+
+    private LocalDateTime toLocalDateTime(Date date) {
+        return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
     }
 
     private Future<Long> getNextIdAsync() {
         Promise<Long> resultPromise = Promise.promise();
 
-        var aggregation = List.of(Aggregates.group(null, Accumulators.max("maxId", "$id")));
-
         getCollection()
-                .aggregate(aggregation)
+                .find()
+                .projection(fields(include("id"), excludeId()))
+                .sort(descending("id"))
                 .first()
-                .subscribe(ReactiveSubscriber.forSinglePromise(resultPromise, doc -> doc.getLong("maxId") + 1, 1L));
+                .subscribe(ReactiveSubscriber.forSinglePromise(resultPromise, doc -> doc.getLong("id") + 1, 1L));
 
         return resultPromise.future();
     }
 
+    private MongoCollection<PictureMeta> getPictures() {
+        return mongoClient.getDatabase(DB).withCodecRegistry(BsonFields.CODECS).getCollection(COLLECTION, PictureMeta.class);
+    }
+
     private MongoCollection<Document> getCollection() {
         return mongoClient.getDatabase(DB).getCollection(COLLECTION);
     }
@@ -0,0 +1,73 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.entity.PictureMeta;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.time.LocalDateTime;
+
+import static com.leskor.palermopg.dao.impl.BsonFields.readDate;
+import static com.leskor.palermopg.dao.impl.BsonFields.readLong;
+import static com.leskor.palermopg.dao.impl.BsonFields.readString;
+import static com.leskor.palermopg.dao.impl.BsonFields.writeDate;
+import static com.leskor.palermopg.dao.impl.BsonFields.writeString;
+
+/**
+ * Reads picture documents straight into {@link PictureMeta}. Fields left out by a projection keep the same defaults
+ * the DAO used before: -1 for numbers and null for the rest, a missing modification date falls back to the upload date.
+ */
+class PictureMetaCodec implements Codec<PictureMeta> {
+    @Override
+    public PictureMeta decode(BsonReader reader, DecoderContext decoderContext) {
+        long id = -1, userId = -1, albumId = -1, size = -1;
+        String path = null, pathOptimized = null;
+        LocalDateTime dateUploaded = null, dateCaptured = null, dateModified = null;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "id" -> id = readLong(reader, -1);
+                case "userId" -> userId = readLong(reader, -1);
+                case "albumId" -> albumId = readLong(reader, -1);
+                case "size" -> size = readLong(reader, -1);
+                case "path" -> path = readString(reader);
+                case "pathOptimized" -> pathOptimized = readString(reader);
+                case "dateUploaded" -> dateUploaded = readDate(reader);
+                case "dateCaptured" -> dateCaptured = readDate(reader);
+                case "dateModified" -> dateModified = readDate(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return new PictureMeta(id, userId, albumId, size, path, pathOptimized, dateUploaded, dateCaptured,
+                dateModified == null ? dateUploaded : dateModified);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, PictureMeta meta, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writer.writeInt64("id", meta.id());
+        writer.writeInt64("size", meta.size());
+        writeString(writer, "path", meta.path());
+        writeString(writer, "pathOptimized", meta.pathOptimized());
+        writer.writeInt64("userId", meta.userId());
+        writeDate(writer, "dateUploaded", meta.dateUploaded());
+        writeDate(writer, "dateCaptured", meta.dateCaptured());
+        writeDate(writer, "dateModified", meta.dateModified());
+        writer.writeString("sortKey", meta.sortKey());
+        if (meta.albumId() > 0) {
+            writer.writeInt64("albumId", meta.albumId());
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<PictureMeta> getEncoderClass() {
+        return PictureMeta.class;
+    }
+}
@@ -0,0 +1,5 @@
+package com.leskor.palermopg.entity;
+
+import java.util.List;
+
+public record AlbumDetails(Album album, List<PictureMeta> pictures, String nextSortKey) { }
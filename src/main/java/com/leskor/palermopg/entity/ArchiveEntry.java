@@ -0,0 +1,17 @@
+package com.leskor.palermopg.entity;
+
+import java.time.LocalDateTime;
+
+/**
+ * Original picture file as it appears in an album archive. Size and CRC-32 are cached in metadata,
+ * {@code size} is -1 until they have been computed for the file.
+ */
+public record ArchiveEntry(long pictureId, String path, long size, long crc, LocalDateTime dateModified) {
+    public boolean hasChecksum() {
+        return size >= 0;
+    }
+
+    public String name() {
+        return pictureId + ".jpg";
+    }
+}
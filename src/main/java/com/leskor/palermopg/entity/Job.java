@@ -0,0 +1,29 @@
+package com.leskor.palermopg.entity;
+
+import java.time.LocalDateTime;
+
+/**
+ * Persisted background job. {@code checkpoint} is owned by the job type and lets a job resume where it stopped,
+ * {@code progress} and {@code total} are only reported to clients.
+ */
+public record Job(
+        long id,
+        String type,
+        long userId,
+        Status status,
+        long progress,
+        long total,
+        long checkpoint,
+        String error,
+        LocalDateTime dateCreated,
+        LocalDateTime dateModified
+) {
+    public static Job create(String type, long userId) {
+        LocalDateTime now = LocalDateTime.now();
+        return new Job(-1, type, userId, Status.PENDING, 0, -1, -1, null, now, now);
+    }
+
+    public enum Status {
+        PENDING, RUNNING, DONE, FAILED
+    }
+}
@@ -1,6 +1,10 @@
 package com.leskor.palermopg.entity;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static java.time.ZoneOffset.UTC;
 
 public record PictureMeta(
         long id,
@@ -12,4 +16,29 @@ public record PictureMeta(
         LocalDateTime dateUploaded,
         LocalDateTime dateCaptured,
         LocalDateTime dateModified
-) { }
+) {
+    public PictureMeta withId(long id) {
+        return new PictureMeta(id, userId, albumId, size, path, pathOptimized, dateUploaded, dateCaptured,
+                dateModified);
+    }
+
+    /**
+     * Lexicographically ordered key matching album ordering: upload day, then capture time, then id.
+     * Capture time is stored with a flipped sign bit so that hex ordering matches numeric ordering, pictures without
+     * one sort by their upload time.
+     */
+    public String sortKey() {
+        return sortKey(id, dateUploaded.toInstant(UTC), dateCaptured == null ? null : dateCaptured.toInstant(UTC));
+    }
+
+    /**
+     * Same key built from the instants the dates are stored as, so that keys written on insert and keys backfilled
+     * from stored documents agree whatever the system zone is.
+     */
+    public static String sortKey(long id, Instant uploaded, Instant captured) {
+        return String.format("%s%016x%016x",
+                DateTimeFormatter.BASIC_ISO_DATE.format(uploaded.atOffset(UTC)),
+                (captured == null ? uploaded : captured).toEpochMilli() ^ Long.MIN_VALUE,
+                id);
+    }
+}
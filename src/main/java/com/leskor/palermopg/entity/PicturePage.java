@@ -0,0 +1,5 @@
+package com.leskor.palermopg.entity;
+
+import java.util.List;
+
+public record PicturePage(List<PictureMeta> pictures, String nextSortKey) { }
@@ -0,0 +1,7 @@
+package com.leskor.palermopg.entity;
+
+import java.util.List;
+
+public record SignedPictureUrls(List<PictureUrl> pictures, long expires, String nextSortKey) {
+    public record PictureUrl(long id, String url) { }
+}
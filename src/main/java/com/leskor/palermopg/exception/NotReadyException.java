@@ -0,0 +1,14 @@
+package com.leskor.palermopg.exception;
+
+public class NotReadyException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public NotReadyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
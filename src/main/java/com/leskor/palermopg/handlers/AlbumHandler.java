@@ -2,38 +2,57 @@ package com.leskor.palermopg.handlers;
 
 import com.leskor.palermopg.entity.Album;
 import com.leskor.palermopg.entity.PictureMeta;
+import com.leskor.palermopg.security.Caller;
 import com.leskor.palermopg.services.album.*;
-import io.vertx.core.CompositeFuture;
+import com.leskor.palermopg.util.EncodedJson;
+import com.leskor.palermopg.util.PageCursor;
+import com.leskor.palermopg.util.ReactiveResponseSubscriber;
+import com.leskor.palermopg.util.ResponseCache;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
+import static com.leskor.palermopg.util.ApiUtils.acceptsGzip;
 import static com.leskor.palermopg.util.ApiUtils.cors;
+import static com.leskor.palermopg.util.ApiUtils.endJson;
 import static com.leskor.palermopg.util.ApiUtils.handleFailure;
-import static io.vertx.core.buffer.Buffer.buffer;
+import static io.vertx.core.http.HttpHeaders.ACCEPT_ENCODING;
+import static io.vertx.core.http.HttpHeaders.VARY;
 
 public class AlbumHandler {
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String ETAG_PREFIX = Long.toString(System.currentTimeMillis(), 36);
+
     private final AlbumCreationService albumCreationService;
     private final AlbumFetchingService albumFetchingService;
     private final AlbumSharingService albumSharingService;
     private final AlbumUpdatingService albumUpdatingService;
     private final AlbumDeletingService albumDeletingService;
+    private final ResponseCache responseCache;
 
     public AlbumHandler(
             AlbumCreationService albumCreationService,
             AlbumFetchingService albumFetchingService,
             AlbumSharingService albumSharingService,
-            AlbumUpdatingService albumUpdatingService, AlbumDeletingService albumDeletingService) {
+            AlbumUpdatingService albumUpdatingService, AlbumDeletingService albumDeletingService,
+            ResponseCache responseCache) {
         this.albumCreationService = albumCreationService;
         this.albumFetchingService = albumFetchingService;
         this.albumSharingService = albumSharingService;
         this.albumUpdatingService = albumUpdatingService;
         this.albumDeletingService = albumDeletingService;
+        this.responseCache = responseCache;
     }
 
     public void add(RoutingContext routingContext) {
@@ -57,11 +76,9 @@ public class AlbumHandler {
         HttpServerRequest request = routingContext.request();
         long userId = Long.parseLong(request.getParam("userId"));
 
-        albumFetchingService.getAlbumsForUserId(userId)
-                .onSuccess(albums -> {
-                    JsonArray result = new JsonArray(albums);
-                    cors(routingContext.response()).end(result.encode());
-                }).onFailure(cause -> handleFailure(cause, routingContext.response()));
+        respondCached(routingContext, "albums/" + userId, albumFetchingService.getAlbumsVersion(userId),
+                () -> albumFetchingService.getAlbumsForUserId(userId)
+                        .map(albums -> json(new JsonArray(albums), Map.of())));
     }
 
     public void getAlbumContents(RoutingContext routingContext) {
@@ -69,13 +86,48 @@ public class AlbumHandler {
         long albumId = Long.parseLong(request.getParam("albumId"));
         long userId = Long.parseLong(request.getParam("userId"));
 
-        albumFetchingService.getPictureMetaForAlbum(userId, albumId)
-                .onSuccess(result -> {
-                    List<JsonObject> data = result.stream()
-                            .map(this::pictureDataToJson)
-                            .toList();
-                    cors(routingContext.response()).end(new JsonArray(data).encode());
-                }).onFailure(cause -> handleFailure(cause, routingContext.response()));
+        if (request.getParam("limit") != null) {
+            getAlbumContentsPage(routingContext, userId, albumId);
+            return;
+        }
+
+        Context context = routingContext.vertx().getOrCreateContext();
+
+        // The whole album is streamed rather than cached, an unchanged album is still answered with a 304
+        albumFetchingService.getAlbumVersion(userId, albumId)
+                .onSuccess(version -> {
+                    String etag = etag(version);
+                    HttpServerResponse response = cors(routingContext.response())
+                            .putHeader(VARY, ACCEPT_ENCODING)
+                            .putHeader("ETag", etag)
+                            .putHeader("Cache-Control", "private, no-cache");
+                    if (matches(request.getHeader("If-None-Match"), etag)) {
+                        response.setStatusCode(304).end();
+                        return;
+                    }
+                    boolean gzip = acceptsGzip(request);
+                    albumFetchingService.streamPictureMetaForAlbum(userId, albumId)
+                            .onSuccess(publisher -> publisher.subscribe(gzip
+                                    ? ReactiveResponseSubscriber.forGzipJsonArray(context, response, this::pictureDataToJson)
+                                    : ReactiveResponseSubscriber.forJsonArray(context, response, this::pictureDataToJson)))
+                            .onFailure(cause -> handleFailure(cause, response));
+                })
+                .onFailure(cause -> handleFailure(cause, routingContext.response()));
+    }
+
+    private void getAlbumContentsPage(RoutingContext routingContext, long userId, long albumId) {
+        PageRequest pageRequest = parsePageRequest(routingContext.request());
+        if (pageRequest == null) {
+            cors(routingContext.response().setStatusCode(400)).end();
+            return;
+        }
+
+        respondCached(routingContext, "contents/" + albumId + "/" + pageRequest.limit() + "/" + pageRequest.afterSortKey(),
+                albumFetchingService.getAlbumVersion(userId, albumId),
+                () -> albumFetchingService.getPictureMetaPageForAlbum(
+                                userId, albumId, pageRequest.afterSortKey(), pageRequest.limit())
+                        .map(page -> json(picturesToJson(page.pictures()), page.nextSortKey() == null ? Map.of()
+                                : Map.of("X-Next-Cursor", PageCursor.encode(page.nextSortKey())))));
     }
 
     public void getAlbumDetails(RoutingContext routingContext) {
@@ -83,36 +135,180 @@ public class AlbumHandler {
         long albumId = Long.parseLong(request.getParam("albumId"));
         long userId = Long.parseLong(request.getParam("userId"));
 
-        CompositeFuture.join(
-                albumFetchingService.getPictureMetaForAlbum(userId, albumId),
-                albumFetchingService.getAlbumForUserId(userId, albumId)
-        ).onSuccess(result -> {
-                    List<PictureMeta> pictureMetas = result.resultAt(0);
-                    JsonArray pictures = new JsonArray(pictureMetas.stream()
-                            .map(this::pictureDataToJson)
-                            .toList());
-                    Album album = result.resultAt(1);
+        if (request.getParam("limit") != null) {
+            getAlbumDetailsPage(routingContext, userId, albumId);
+            return;
+        }
+
+        respondCached(routingContext, "details/" + albumId, albumFetchingService.getAlbumVersion(userId, albumId),
+                () -> albumFetchingService.getAlbumDetails(userId, albumId)
+                        .map(details -> json(new JsonObject()
+                                .put("albumDetails", details.album())
+                                .put("pictures", picturesToJson(details.pictures())), Map.of())));
+    }
+
+    private void getAlbumDetailsPage(RoutingContext routingContext, long userId, long albumId) {
+        PageRequest pageRequest = parsePageRequest(routingContext.request());
+        if (pageRequest == null) {
+            cors(routingContext.response().setStatusCode(400)).end();
+            return;
+        }
+
+        respondCached(routingContext, "details/" + albumId + "/" + pageRequest.limit() + "/" + pageRequest.afterSortKey(),
+                albumFetchingService.getAlbumVersion(userId, albumId),
+                () -> albumFetchingService.getAlbumDetailsPage(
+                                userId, albumId, pageRequest.afterSortKey(), pageRequest.limit())
+                        .map(details -> json(new JsonObject()
+                                .put("albumDetails", details.album())
+                                .put("pictures", picturesToJson(details.pictures()))
+                                .put("nextCursor", PageCursor.encode(details.nextSortKey())), Map.of())));
+    }
+
+    // Serves the body cached for the current version, or builds and caches it. A client already holding the current
+    // version gets a 304 without either
+    private void respondCached(RoutingContext routingContext, String key, Future<Long> version,
+                               Supplier<Future<EncodedJson>> build) {
+        version.onSuccess(current -> {
+            String etag = etag(current);
+            if (matches(routingContext.request().getHeader("If-None-Match"), etag)) {
+                cors(routingContext.response().setStatusCode(304))
+                        .putHeader(VARY, ACCEPT_ENCODING)
+                        .putHeader("ETag", etag)
+                        .putHeader("Cache-Control", "private, no-cache")
+                        .end();
+                return;
+            }
+
+            Future<EncodedJson> json = responseCache.get(key, current)
+                    .map(Future::succeededFuture)
+                    .orElseGet(() -> build.get().onSuccess(built -> responseCache.put(key, current, built)));
+            json.onSuccess(body -> {
+                routingContext.response()
+                        .putHeader("ETag", etag)
+                        .putHeader("Cache-Control", "private, no-cache");
+                endJson(routingContext, body);
+            }).onFailure(cause -> handleFailure(cause, routingContext.response()));
+        }).onFailure(cause -> handleFailure(cause, routingContext.response()));
+    }
+
+    // Versions restart with the process, the prefix keeps tags from before a restart from matching
+    private static String etag(long version) {
+        return "W/\"" + ETAG_PREFIX + "." + version + "\"";
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        return ifNoneMatch != null && Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .anyMatch(tag -> tag.equals(etag) || tag.equals("*"));
+    }
+
+    private static EncodedJson json(Object json, Map<String, String> headers) {
+        return new EncodedJson(Json.CODEC.toBuffer(json), headers);
+    }
+
+    public void getSignedPictureUrls(RoutingContext routingContext) {
+        HttpServerRequest request = routingContext.request();
+        long albumId = Long.parseLong(request.getParam("albumId"));
+        long userId = Long.parseLong(request.getParam("userId"));
+        boolean fullSize = Boolean.parseBoolean(request.getParam("fullSize"));
+
+        PageRequest pageRequest = request.getParam("limit") == null
+                ? new PageRequest(MAX_PAGE_SIZE, null) : parsePageRequest(request);
+        if (pageRequest == null) {
+            cors(routingContext.response().setStatusCode(400)).end();
+            return;
+        }
+
+        albumFetchingService.signPictureUrls(userId, albumId, pageRequest.afterSortKey(), pageRequest.limit(), fullSize)
+                .onSuccess(urls -> {
                     JsonObject response = new JsonObject()
-                            .put("albumDetails", album)
-                            .put("pictures", pictures);
-                    cors(routingContext.response()).end(response.encode());
+                            .put("pictures", new JsonArray(urls.pictures().stream()
+                                    .map(picture -> new JsonObject().put("id", picture.id()).put("url", picture.url()))
+                                    .toList()))
+                            .put("expires", urls.expires())
+                            .put("nextCursor", PageCursor.encode(urls.nextSortKey()));
+                    endJson(routingContext, response.encode());
                 })
                 .onFailure(cause -> handleFailure(cause, routingContext.response()));
     }
 
+    private PageRequest parsePageRequest(HttpServerRequest request) {
+        try {
+            int limit = Integer.parseInt(request.getParam("limit"));
+            String cursor = request.getParam("cursor");
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                return null;
+            }
+            return new PageRequest(limit, cursor == null ? null : PageCursor.decode(cursor));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     public void downloadAlbum(RoutingContext routingContext) {
         HttpServerRequest request = routingContext.request();
         long albumId = Long.parseLong(request.getParam("albumId"));
         long userId = Long.parseLong(request.getParam("userId"));
-        String tokenCookie = request.getCookie("token") == null ? null : request.getCookie("token").getValue();
 
-        albumFetchingService.download("Bearer " + tokenCookie, userId, albumId)
-                .onSuccess(data -> cors(routingContext.response())
-                        .putHeader("Content-Disposition", "attachment; filename=\"" + albumId + ".zip\"")
-                        .end(buffer(data)))
+        albumFetchingService.download(Caller.of(routingContext), userId, albumId)
+                .onSuccess(archive -> {
+                    HttpServerResponse response = cors(routingContext.response())
+                            .putHeader("Content-Type", "application/zip")
+                            .putHeader("Content-Disposition", "attachment; filename=\"" + albumId + ".zip\"")
+                            .putHeader("Accept-Ranges", "bytes")
+                            .putHeader("ETag", archive.etag());
+
+                    ByteRange range = new ByteRange(0, archive.length() - 1);
+                    String rangeHeader = request.getHeader("Range");
+                    String ifRange = request.getHeader("If-Range");
+                    if (rangeHeader != null && (ifRange == null || ifRange.equals(archive.etag()))) {
+                        range = parseRange(rangeHeader, archive.length());
+                        if (range == null) {
+                            response.setStatusCode(416)
+                                    .putHeader("Content-Range", "bytes */" + archive.length())
+                                    .end();
+                            return;
+                        }
+                        if (range.length() < archive.length()) {
+                            response.setStatusCode(206).putHeader("Content-Range",
+                                    "bytes " + range.first() + "-" + range.last() + "/" + archive.length());
+                        }
+                    }
+
+                    response.putHeader("Content-Length", String.valueOf(range.length()));
+                    archive.writeTo(response, range.first(), range.last())
+                            .onSuccess(written -> response.end())
+                            .onFailure(cause -> response.reset());
+                })
                 .onFailure(cause -> handleFailure(cause, routingContext.response()));
     }
 
+    // Single "bytes=first-last", "bytes=first-" or "bytes=-suffix" range clamped to the length, null if unsatisfiable.
+    // Multiple or malformed ranges are ignored and the whole archive is sent
+    private ByteRange parseRange(String header, long length) {
+        ByteRange whole = new ByteRange(0, length - 1);
+        int dash = header.indexOf('-');
+        if (!header.startsWith("bytes=") || header.contains(",") || dash < 0) {
+            return whole;
+        }
+        try {
+            String start = header.substring("bytes=".length(), dash).trim();
+            String end = header.substring(dash + 1).trim();
+            if (start.isEmpty()) {
+                long suffix = Long.parseLong(end);
+                return suffix <= 0 ? null : new ByteRange(Math.max(0, length - suffix), length - 1);
+            }
+            long first = Long.parseLong(start);
+            long last = end.isEmpty() ? length - 1 : Long.parseLong(end);
+            if (first < 0 || last < first) {
+                return whole;
+            }
+            return first >= length ? null : new ByteRange(first, Math.min(last, length - 1));
+        } catch (NumberFormatException e) {
+            return whole;
+        }
+    }
+
     public void updateAlbum(RoutingContext routingContext) {
         HttpServerRequest request = routingContext.request();
         long userId = Long.parseLong(request.getParam("userId"));
@@ -135,18 +331,10 @@ public class AlbumHandler {
         long userId = Long.parseLong(request.getParam("userId"));
         long albumId = Long.parseLong(request.getParam("albumId"));
 
-        albumFetchingService.getAlbumsForUserId(userId)
-                .onSuccess(result -> {
-                    boolean notExist = result.stream().map(Album::id).noneMatch(id -> id == albumId);
-                    if (notExist) {
-                        cors(routingContext.response().setStatusCode(404)).end();
-                        return;
-                    }
-                    albumDeletingService.delete(userId, albumId)
-                            .onSuccess(deleteResult -> {
-                                JsonObject response = new JsonObject().put("id", albumId);
-                                cors(routingContext.response()).end(response.encode());
-                            }).onFailure(cause -> handleFailure(cause, routingContext.response()));
+        albumDeletingService.delete(userId, albumId)
+                .onSuccess(deleteResult -> {
+                    JsonObject response = new JsonObject().put("id", albumId);
+                    cors(routingContext.response()).end(response.encode());
                 }).onFailure(cause -> handleFailure(cause, routingContext.response()));
     }
 
@@ -172,6 +360,12 @@ public class AlbumHandler {
         return result;
     }
 
+    private JsonArray picturesToJson(List<PictureMeta> pictures) {
+        return new JsonArray(pictures.stream()
+                .map(this::pictureDataToJson)
+                .toList());
+    }
+
     private JsonObject pictureDataToJson(PictureMeta p) {
         return new JsonObject()
                 .put("userId", p.userId())
@@ -194,12 +388,22 @@ public class AlbumHandler {
     public void deleteAllAlbumsForUser(RoutingContext routingContext) {
         HttpServerRequest request = routingContext.request();
         long userId = Long.parseLong(request.getParam("userId"));
-        String token = routingContext.request().getHeader("Authorization");
 
-        albumDeletingService.deleteAll(token, userId)
-                .onSuccess(deleteResult -> {
-                    JsonObject response = new JsonObject().put("id", userId);
-                    cors(routingContext.response()).end(response.encode());
+        albumDeletingService.deleteAll(Caller.of(routingContext), userId)
+                .onSuccess(jobId -> {
+                    JsonObject response = new JsonObject().put("id", userId).put("jobId", jobId);
+                    cors(routingContext.response().setStatusCode(202))
+                            .putHeader("Location", "/jobs/" + jobId)
+                            .end(response.encode());
                 }).onFailure(cause -> handleFailure(cause, routingContext.response()));
     }
+
+    private record PageRequest(int limit, String afterSortKey) {
+    }
+
+    private record ByteRange(long first, long last) {
+        long length() {
+            return last - first + 1;
+        }
+    }
 }
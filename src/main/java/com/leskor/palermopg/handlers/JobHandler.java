@@ -0,0 +1,40 @@
+package com.leskor.palermopg.handlers;
+
+import com.leskor.palermopg.security.Caller;
+import com.leskor.palermopg.services.job.JobService;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import static com.leskor.palermopg.util.ApiUtils.cors;
+import static com.leskor.palermopg.util.ApiUtils.handleFailure;
+
+public class JobHandler {
+    private final JobService jobService;
+
+    public JobHandler(JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    public void getById(RoutingContext routingContext) {
+        long jobId;
+        try {
+            jobId = Long.parseLong(routingContext.request().getParam("jobId"));
+        } catch (NumberFormatException e) {
+            cors(routingContext.response().setStatusCode(400)).end();
+            return;
+        }
+
+        jobService.find(Caller.of(routingContext), jobId)
+                .onSuccess(job -> {
+                    JsonObject response = new JsonObject()
+                            .put("id", job.id())
+                            .put("type", job.type())
+                            .put("status", job.status().name())
+                            .put("progress", job.progress())
+                            .put("total", job.total())
+                            .put("error", job.error())
+                            .put("dateModified", job.dateModified().toString());
+                    cors(routingContext.response()).end(response.encode());
+                }).onFailure(cause -> handleFailure(cause, routingContext.response()));
+    }
+}
@@ -1,5 +1,7 @@
 package com.leskor.palermopg.handlers;
 
+import com.leskor.palermopg.entity.PictureResponse;
+import com.leskor.palermopg.security.Caller;
 import com.leskor.palermopg.services.PictureService;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
@@ -22,13 +24,13 @@ public class PictureHandler {
         HttpServerRequest request = routingContext.request();
         long userId = Long.parseLong(request.getParam("userId"));
         long id = Long.parseLong(request.getParam("pictureId"));
-        String token = request.getHeader("Authorization");
         String clientHash = request.getHeader("If-None-Match");
         boolean fullSize = Boolean.parseBoolean(request.getParam("fullSize"));
         String tokenCookie = request.getCookie("token") == null ? null : request.getCookie("token").getValue();
 
+        // Browsers send the cookie with downloads only, the caller was resolved from it by HttpVerticle
         if (tokenCookie != null && !tokenCookie.isEmpty()) {
-            pictureService.downloadPicture("Bearer " + tokenCookie, userId, id)
+            pictureService.downloadPicture(Caller.of(routingContext), userId, id)
                     .onSuccess(result -> cors(routingContext.response())
                             .putHeader("Content-Disposition", "attachment; filename=\"" + id + ".jpg\"")
                             .end(buffer(result)))
@@ -36,30 +38,55 @@ public class PictureHandler {
             return;
         }
 
-        pictureService.getPictureData(token, clientHash, userId, id, fullSize)
-                .onSuccess(result -> {
-                    if (result.notModified()) {
-                        cors(routingContext.response().setStatusCode(304))
-                                .putHeader("ETag", result.hash())
-                                .putHeader("Cache-Control", "max-age=10800, public")
-                                .end();
-                        return;
-                    }
-                    cors(routingContext.response())
-                            .putHeader("ETag", result.hash())
-                            .putHeader("Cache-Control", "max-age=10800, public")
-                            .end(buffer(result.data()));
-                }).onFailure(cause -> handleFailure(cause, routingContext.response()));
+        String signature = request.getParam("signature");
+        if (signature != null) {
+            getBySignature(routingContext, signature, clientHash, userId, id, fullSize);
+            return;
+        }
+
+        pictureService.getPictureData(Caller.of(routingContext), clientHash, userId, id, fullSize)
+                .onSuccess(result -> respondWithPicture(routingContext, result, "max-age=10800, public"))
+                .onFailure(cause -> handleFailure(cause, routingContext.response()));
+    }
+
+    // Signed URLs are the same for every viewer of an album page, so shared caches may keep the response until expiry
+    private void getBySignature(RoutingContext routingContext, String signature, String clientHash,
+                                long userId, long id, boolean fullSize) {
+        long expires;
+        try {
+            expires = Long.parseLong(routingContext.request().getParam("expires"));
+        } catch (NumberFormatException e) {
+            cors(routingContext.response().setStatusCode(400)).end();
+            return;
+        }
+
+        pictureService.getSignedPictureData(signature, expires, clientHash, userId, id, fullSize)
+                .onSuccess(result -> respondWithPicture(routingContext, result,
+                        "max-age=" + pictureService.secondsLeft(expires) + ", public"))
+                .onFailure(cause -> handleFailure(cause, routingContext.response()));
+    }
+
+    private void respondWithPicture(RoutingContext routingContext, PictureResponse result, String cacheControl) {
+        if (result.notModified()) {
+            cors(routingContext.response().setStatusCode(304))
+                    .putHeader("ETag", result.hash())
+                    .putHeader("Cache-Control", cacheControl)
+                    .end();
+            return;
+        }
+        cors(routingContext.response())
+                .putHeader("ETag", result.hash())
+                .putHeader("Cache-Control", cacheControl)
+                .end(buffer(result.data()));
     }
 
     public void add(RoutingContext routingContext) {
         HttpServerRequest request = routingContext.request();
         long userId = Long.parseLong(request.getParam("userId"));
         Optional<Long> albumId = Optional.ofNullable(request.getParam("albumId")).map(Long::parseLong);
-        String token = request.getHeader("Authorization");
         byte[] data = routingContext.getBody().getBytes();
 
-        pictureService.insertNewPicture(token, userId, albumId.orElse(-1L), data)
+        pictureService.insertNewPicture(Caller.of(routingContext), userId, albumId.orElse(-1L), data)
                 .onSuccess(insertResult -> {
                     JsonObject response = new JsonObject().put("id", insertResult);
                     cors(routingContext.response()).end(response.encode());
@@ -71,7 +98,7 @@ public class PictureHandler {
         long userId = Long.parseLong(request.getParam("userId"));
         long id = Long.parseLong(request.getParam("pictureId"));
 
-        pictureService.rotatePicture(userId, id)
+        pictureService.rotatePicture(Caller.of(routingContext), userId, id)
                 .onSuccess(result -> cors(routingContext.response()).end())
                 .onFailure(cause -> handleFailure(cause, routingContext.response()));
     }
@@ -80,14 +107,11 @@ public class PictureHandler {
         HttpServerRequest request = routingContext.request();
         long userId = Long.parseLong(request.getParam("userId"));
         long id = Long.parseLong(request.getParam("pictureId"));
-        String token = request.getHeader("Authorization");
-
-        pictureService.getPictureData(token, null, userId, id, false)
-                .onSuccess(result -> pictureService.deletePicture(userId, id)
-                        .onSuccess(deleteResult -> {
-                            JsonObject response = new JsonObject().put("id", id);
-                            cors(routingContext.response()).end(response.encode());
-                        }).onFailure(cause -> handleFailure(cause, routingContext.response())))
-                .onFailure(cause -> handleFailure(cause, routingContext.response()));
+
+        pictureService.deletePicture(Caller.of(routingContext), userId, id)
+                .onSuccess(deleteResult -> {
+                    JsonObject response = new JsonObject().put("id", id);
+                    cors(routingContext.response()).end(response.encode());
+                }).onFailure(cause -> handleFailure(cause, routingContext.response()));
     }
 }
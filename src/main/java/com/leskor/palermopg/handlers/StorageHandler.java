@@ -1,5 +1,6 @@
 package com.leskor.palermopg.handlers;
 
+import com.leskor.palermopg.security.Caller;
 import com.leskor.palermopg.services.StorageService;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -9,6 +10,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static com.leskor.palermopg.util.ApiUtils.cors;
+import static com.leskor.palermopg.util.ApiUtils.endJson;
 import static com.leskor.palermopg.util.ApiUtils.handleFailure;
 
 public class StorageHandler {
@@ -20,30 +22,28 @@ public class StorageHandler {
 
     public void storageByUser(RoutingContext routingContext) {
         long userId = Long.parseLong(routingContext.request().getParam("userId"));
-        String token = routingContext.request().getHeader("Authorization");
 
-        storageService.findForUser(token, userId)
+        storageService.findForUser(Caller.of(routingContext), userId)
                 .onSuccess(result -> {
                     JsonObject jsonResponse = new JsonObject()
                             .put("size", result.size())
                             .put("limit", result.limit());
-                    cors(routingContext.response()).end(jsonResponse.encode());
+                    endJson(routingContext, jsonResponse.encode());
                 }).onFailure(cause -> handleFailure(cause, routingContext.response()));
     }
 
     public void storageByUsers(RoutingContext routingContext) {
         List<Long> ids = extractUserIds(routingContext.request().getParam("users"));
-        String token = routingContext.request().getHeader("Authorization");
 
         if (ids.isEmpty()) {
             cors(routingContext.response()).setStatusCode(400).end("'users' param is required");
             return;
         }
 
-        storageService.findForUsers(token, ids)
+        storageService.findForUsers(Caller.of(routingContext), ids)
                 .onSuccess(result -> {
                     JsonArray jsonArray = new JsonArray(result);
-                    cors(routingContext.response()).end(jsonArray.encode());
+                    endJson(routingContext, jsonArray.encode());
                 }).onFailure(cause -> handleFailure(cause, routingContext.response()));
     }
 
@@ -54,7 +54,6 @@ public class StorageHandler {
 
     public void setUserLimit(RoutingContext routingContext) {
         long userId = Long.parseLong(routingContext.request().getParam("userId"));
-        String token = routingContext.request().getHeader("Authorization");
         JsonObject body = routingContext.getBodyAsJson();
         if (body == null || !body.containsKey("limit")) {
             cors(routingContext.response().setStatusCode(400)).end();
@@ -62,7 +61,7 @@ public class StorageHandler {
         }
         long limit = body.getLong("limit");
 
-        storageService.setLimitForUser(token, userId, limit)
+        storageService.setLimitForUser(Caller.of(routingContext), userId, limit)
                 .onSuccess(result -> cors(routingContext.response()).end())
                 .onFailure(cause -> handleFailure(cause, routingContext.response()));
     }
@@ -0,0 +1,136 @@
+package com.leskor.palermopg.security;
+
+import com.leskor.palermopg.dao.AlbumDao;
+import com.leskor.palermopg.entity.Album;
+import io.vertx.core.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.vertx.core.Future.succeededFuture;
+
+/**
+ * In-process view of album ownership, sharing and ordering, used for authorization decisions.
+ * It is loaded at startup and kept up to date by the album services; albums missing from it are read through from the DAO.
+ * Every change also bumps the version of the album and of the album lists of users who can see it, so responses
+ * built from them can be cached until the version moves on.
+ */
+public class AlbumAccessIndex {
+    private static final Logger logger = LoggerFactory.getLogger("Application");
+
+    private final AlbumDao albumDao;
+    private final Map<Long, AlbumAccess> accessByAlbumId = new ConcurrentHashMap<>();
+    private final Map<Long, Long> albumVersions = new ConcurrentHashMap<>();
+    private final Map<Long, Long> userVersions = new ConcurrentHashMap<>();
+    private final AtomicLong lastVersion = new AtomicLong();
+
+    public AlbumAccessIndex(AlbumDao albumDao) {
+        this.albumDao = albumDao;
+    }
+
+    public Future<Void> load() {
+        return albumDao.findAll()
+                .onSuccess(albums -> {
+                    albums.forEach(this::put);
+                    logger.info("Loaded access index for {} albums", albums.size());
+                })
+                .mapEmpty();
+    }
+
+    public Future<Optional<AlbumAccess>> find(long albumId) {
+        AlbumAccess access = accessByAlbumId.get(albumId);
+        if (access != null) {
+            return succeededFuture(Optional.of(access));
+        }
+        return albumDao.findById(albumId).map(opt -> opt.map(this::index));
+    }
+
+    // Reads the album itself for callers that need more than access, a missing entry is indexed from the same read
+    public Future<Optional<Album>> findAlbum(long albumId) {
+        return albumDao.findById(albumId).onSuccess(opt -> opt.ifPresent(this::index));
+    }
+
+    public void put(Album album) {
+        AlbumAccess access = AlbumAccess.of(album);
+        accessByAlbumId.put(album.id(), access);
+        bump(album.id(), access);
+    }
+
+    public void update(Album album) {
+        AlbumAccess previous = accessByAlbumId.get(album.id());
+        AlbumAccess updated = accessByAlbumId.computeIfPresent(album.id(), (id, current) -> new AlbumAccess(
+                current.ownerId(),
+                album.sharedUsers() == null ? current.sharedUsers() : toSortedArray(album.sharedUsers()),
+                album.isChronologicalOrder() == null ? current.isChronologicalOrder() : album.isChronologicalOrder()));
+        bump(album.id(), previous);
+        bump(album.id(), updated);
+    }
+
+    public void remove(long albumId) {
+        bump(albumId, accessByAlbumId.remove(albumId));
+    }
+
+    // Called when pictures of an album change, album lists show the oldest picture as a cover
+    public void touch(long albumId) {
+        if (albumId <= 0) {
+            return;
+        }
+        AlbumAccess access = accessByAlbumId.get(albumId);
+        if (access != null) {
+            bump(albumId, access);
+        } else {
+            bump(albumId, null);
+            find(albumId).onSuccess(opt -> opt.ifPresent(found -> bump(albumId, found)));
+        }
+    }
+
+    public long albumVersion(long albumId) {
+        return albumVersions.getOrDefault(albumId, 0L);
+    }
+
+    public long userVersion(long userId) {
+        return userVersions.getOrDefault(userId, 0L);
+    }
+
+    private AlbumAccess index(Album album) {
+        return accessByAlbumId.computeIfAbsent(album.id(), id -> AlbumAccess.of(album));
+    }
+
+    private void bump(long albumId, AlbumAccess access) {
+        long version = lastVersion.incrementAndGet();
+        albumVersions.merge(albumId, version, Math::max);
+        if (access != null) {
+            userVersions.merge(access.ownerId(), version, Math::max);
+            for (long user : access.sharedUsers()) {
+                userVersions.merge(user, version, Math::max);
+            }
+        }
+    }
+
+    private static long[] toSortedArray(List<Long> users) {
+        long[] result = users == null ? new long[0] : users.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    public record AlbumAccess(long ownerId, long[] sharedUsers, boolean isChronologicalOrder) {
+        static AlbumAccess of(Album album) {
+            return new AlbumAccess(album.userId(), toSortedArray(album.sharedUsers()),
+                    album.isChronologicalOrder() != null && album.isChronologicalOrder());
+        }
+
+        public boolean isOwner(long userId) {
+            return ownerId == userId;
+        }
+
+        public boolean canAccess(long userId) {
+            return ownerId == userId || Arrays.binarySearch(sharedUsers, userId) >= 0;
+        }
+    }
+}
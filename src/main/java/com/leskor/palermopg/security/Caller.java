@@ -0,0 +1,40 @@
+package com.leskor.palermopg.security;
+
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * User a request was made by, as proven by its token. HttpVerticle resolves it once per request and keeps it in the
+ * routing context, services authorize against it instead of verifying the token again.
+ */
+public record Caller(long userId, boolean isAdmin, boolean isAnyUser) {
+    public static final Caller ANONYMOUS = new Caller(0, false, false);
+    // With security disabled every request may act as any user, admin included
+    static final Caller UNRESTRICTED = new Caller(0, true, true);
+
+    private static final String CONTEXT_KEY = "caller";
+
+    static Caller user(long userId, boolean isAdmin) {
+        return new Caller(userId, isAdmin, false);
+    }
+
+    public static Caller of(RoutingContext ctx) {
+        Caller caller = ctx.get(CONTEXT_KEY);
+        return caller == null ? ANONYMOUS : caller;
+    }
+
+    public void putInto(RoutingContext ctx) {
+        ctx.put(CONTEXT_KEY, this);
+    }
+
+    public boolean isAuthenticated() {
+        return isAnyUser || userId > 0;
+    }
+
+    public boolean canActAs(long userId) {
+        return isAnyUser || (this.userId > 0 && this.userId == userId);
+    }
+
+    public boolean canManage(long userId) {
+        return canActAs(userId) || isAdmin;
+    }
+}
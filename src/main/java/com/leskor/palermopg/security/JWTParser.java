@@ -9,14 +9,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.Key;
 import java.security.KeyFactory;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.time.Clock;
 import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class JWTParser {
@@ -28,15 +35,34 @@ public class JWTParser {
     private static final String BEARER = "Bearer ";
     private static final Long ADMIN_ID = Long.parseLong(System.getenv("PIC_ADMIN_ID") == null ? "-1" : System.getenv("PIC_ADMIN_ID"));
 
+    private static final int MAX_CACHED_TOKENS = 10_000;
+    // A full cache is trimmed below the limit by this many tokens at once, so misses do not scan it one by one
+    private static final int EVICTED_AT_ONCE = MAX_CACHED_TOKENS / 10;
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     private final JwtConsumer consumer;
+    private final Clock clock;
+
+    // Verified tokens by their SHA-256, so a token is checked against the RSA signature once until it expires
+    private final Map<String, VerifiedToken> verified = new ConcurrentHashMap<>();
 
     public JWTParser() {
-        Key publicKey = makePublicKey();
+        this(null, Clock.systemUTC());
+    }
 
+    JWTParser(Key publicKey, Clock clock) {
+        this.clock = clock;
         consumer = new JwtConsumerBuilder()
                 .setRequireExpirationTime()
                 .setRequireSubject()
-                .setVerificationKey(publicKey)
+                .setVerificationKey(publicKey == null ? makePublicKey() : publicKey)
                 .build();
     }
 
@@ -68,29 +94,71 @@ public class JWTParser {
         }
     }
 
-    public boolean validateTokenForUserId(String token, long userId) {
+    /**
+     * @param authorization value of the Authorization header, with or without the "Bearer " prefix
+     * @return user proven by the token, {@link Caller#ANONYMOUS} when there is no valid token
+     */
+    public Caller parse(String authorization) {
         if (SECURITY_DISABLED != null && SECURITY_DISABLED.equals("true")) {
-            return true;
+            return Caller.UNRESTRICTED;
         }
 
-        if (token == null) {
-            return false;
+        if (authorization == null) {
+            return Caller.ANONYMOUS;
         }
 
-        if (token.startsWith(BEARER)) {
-            token = token.substring(BEARER.length());
+        String token = authorization.startsWith(BEARER) ? authorization.substring(BEARER.length()) : authorization;
+        VerifiedToken verifiedToken = verify(token);
+        return verifiedToken == null ? Caller.ANONYMOUS : verifiedToken.caller();
+    }
+
+    private VerifiedToken verify(String token) {
+        String hash = hash(token);
+        long now = clock.millis();
+
+        VerifiedToken cached = verified.get(hash);
+        if (cached != null) {
+            if (cached.expiresAt() > now) {
+                return cached;
+            }
+            verified.remove(hash, cached);
+            return null;
         }
 
         try {
             JwtClaims claims = consumer.processToClaims(token);
-            return claims.getClaimValue(USER_ID_ATTR, Long.class).equals(userId);
+            Long userId = claims.getClaimValue(USER_ID_ATTR, Long.class);
+            if (userId == null) {
+                logger.warn("JWT has no " + USER_ID_ATTR + " claim");
+                return null;
+            }
+            VerifiedToken verifiedToken = new VerifiedToken(Caller.user(userId, userId.equals(ADMIN_ID)),
+                    claims.getExpirationTime().getValueInMillis());
+            if (verified.size() >= MAX_CACHED_TOKENS) {
+                evict(now);
+            }
+            verified.put(hash, verifiedToken);
+            return verifiedToken;
         } catch (InvalidJwtException | MalformedClaimException e) {
             logger.warn("JWT is invalid: " + e.getMessage());
-            return false;
+            return null;
+        }
+    }
+
+    // Drops expired tokens first and then arbitrary ones, concurrent evictions at worst remove a few extra tokens
+    private void evict(long now) {
+        verified.values().removeIf(token -> token.expiresAt() <= now);
+        Iterator<VerifiedToken> tokens = verified.values().iterator();
+        while (verified.size() > MAX_CACHED_TOKENS - EVICTED_AT_ONCE && tokens.hasNext()) {
+            tokens.next();
+            tokens.remove();
         }
     }
 
-    public boolean isAdmin(String token) {
-        return validateTokenForUserId(token, ADMIN_ID);
+    private static String hash(String token) {
+        return HexFormat.of().formatHex(SHA_256.get().digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private record VerifiedToken(Caller caller, long expiresAt) {
     }
 }
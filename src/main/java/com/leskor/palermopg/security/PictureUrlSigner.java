@@ -0,0 +1,97 @@
+package com.leskor.palermopg.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * Signs picture URLs with HMAC-SHA256 so a picture can be fetched without a JWT until the URL expires. The signature
+ * covers the user id, picture id, rendition and expiry. Expiry is rounded up to a multiple of the TTL, so the URLs
+ * minted for one album page stay the same for a while and can be cached by browsers and intermediaries.
+ */
+public class PictureUrlSigner {
+    private static final Logger logger = LoggerFactory.getLogger("Application");
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final long DEFAULT_TTL_SECONDS = 3600;
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final Clock clock;
+    private final ThreadLocal<Mac> macs;
+
+    public PictureUrlSigner() {
+        this(secretFromEnv(), Duration.ofSeconds(ttlSecondsFromEnv()), Clock.systemUTC());
+    }
+
+    PictureUrlSigner(byte[] secret, Duration ttl, Clock clock) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlSeconds = ttl.toSeconds();
+        this.clock = clock;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    // Epoch second at which URLs minted now expire, between one and two TTLs from now
+    public long expiry() {
+        long now = clock.instant().getEpochSecond();
+        return (now / ttlSeconds + 2) * ttlSeconds;
+    }
+
+    public String url(long userId, long pictureId, boolean fullSize, long expires) {
+        return String.format("/pic/%d/%d?fullSize=%b&expires=%d&signature=%s",
+                userId, pictureId, fullSize, expires, sign(userId, pictureId, fullSize, expires));
+    }
+
+    public boolean verify(long userId, long pictureId, boolean fullSize, long expires, String signature) {
+        if (signature == null || expires <= clock.instant().getEpochSecond()) {
+            return false;
+        }
+        return MessageDigest.isEqual(
+                sign(userId, pictureId, fullSize, expires).getBytes(StandardCharsets.US_ASCII),
+                signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Seconds the URL stays valid for, used as the max age of cached responses
+    public long secondsLeft(long expires) {
+        return Math.max(0, expires - clock.instant().getEpochSecond());
+    }
+
+    private String sign(long userId, long pictureId, boolean fullSize, long expires) {
+        String payload = userId + ":" + pictureId + ":" + (fullSize ? "original" : "optimized") + ":" + expires;
+        byte[] signature = macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    }
+
+    private static byte[] secretFromEnv() {
+        String secret = System.getenv("PIC_URL_SECRET");
+        if (secret != null && !secret.isBlank()) {
+            return secret.getBytes(StandardCharsets.UTF_8);
+        }
+        logger.warn("PIC_URL_SECRET is not set, signed picture URLs will not survive a restart or work across nodes");
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+
+    private static long ttlSecondsFromEnv() {
+        String ttl = System.getenv("PIC_URL_TTL_SECONDS");
+        return ttl == null || ttl.isBlank() ? DEFAULT_TTL_SECONDS : Long.parseLong(ttl);
+    }
+}
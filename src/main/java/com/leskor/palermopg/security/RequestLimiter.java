@@ -0,0 +1,206 @@
+package com.leskor.palermopg.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.micrometer.backends.BackendRegistries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.leskor.palermopg.util.ApiUtils.cors;
+
+/**
+ * Limits the request rate and the number of requests in progress of every user, separately for each route class.
+ * The rate is a token bucket kept as the time the bucket will be full again, so both checks are a compare-and-set on
+ * an atomic and never block an event loop. Requests over a limit are answered with 429 and a Retry-After in seconds.
+ * Requests are charged to the user proven by their token or by the signature of a signed URL, requests with neither
+ * to the client address, so a user id in the path alone never counts against that user.
+ */
+public class RequestLimiter {
+    private static final Logger logger = LoggerFactory.getLogger("Application");
+
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final String SIGNED_BY = "signedBy";
+
+    public enum RouteClass {
+        PICTURE_READ("picture_read", new Limit(200, 400, 64)),
+        UPLOAD("upload", new Limit(5, 20, 4)),
+        DOWNLOAD("download", new Limit(1, 5, 2)),
+        ADMIN("admin", new Limit(10, 20, 4)),
+        API("api", new Limit(50, 100, 32));
+
+        private final String tag;
+        private final Limit defaultLimit;
+
+        RouteClass(String tag, Limit defaultLimit) {
+            this.tag = tag;
+            this.defaultLimit = defaultLimit;
+        }
+    }
+
+    // Requests per second, requests allowed in a burst and requests in progress, 0 turns a check off
+    public record Limit(double rate, int burst, int concurrent) {
+        static Limit parse(String value) {
+            String[] parts = value.split(",");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Limit should look like <rate>,<burst>,<concurrent>, got " + value);
+            }
+            return new Limit(Double.parseDouble(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                    Integer.parseInt(parts[2].trim()));
+        }
+    }
+
+    private final Map<RouteClass, Limit> limits;
+    private final LongSupplier nanoTime;
+    private final Map<RouteClass, Counter> rateRejections = new EnumMap<>(RouteClass.class);
+    private final Map<RouteClass, Counter> concurrencyRejections = new EnumMap<>(RouteClass.class);
+    private final Map<String, UserState> states = new ConcurrentHashMap<>();
+
+    public RequestLimiter() {
+        this(limitsFromEnv(), System::nanoTime, BackendRegistries.getDefaultNow());
+    }
+
+    RequestLimiter(Map<RouteClass, Limit> limits, LongSupplier nanoTime, MeterRegistry registry) {
+        this.limits = limits;
+        this.nanoTime = nanoTime;
+        if (registry != null) {
+            for (RouteClass routeClass : RouteClass.values()) {
+                rateRejections.put(routeClass, rejections(registry, routeClass, "rate"));
+                concurrencyRejections.put(routeClass, rejections(registry, routeClass, "concurrency"));
+            }
+        }
+    }
+
+    public Handler<RoutingContext> handler(RouteClass routeClass) {
+        return ctx -> {
+            UserState state = state(routeClass, clientOf(ctx));
+            long retryAfter = tryAcquire(routeClass, state);
+            if (retryAfter > 0) {
+                cors(ctx.response().setStatusCode(429))
+                        .putHeader("Retry-After", String.valueOf(retryAfter))
+                        .end();
+                return;
+            }
+            ctx.addEndHandler(ended -> state.release());
+            ctx.next();
+        };
+    }
+
+    // Charges a request without a token to the user a verified signature was minted for
+    public static void chargeToSigner(RoutingContext ctx, long userId) {
+        ctx.put(SIGNED_BY, userId);
+    }
+
+    static String clientOf(RoutingContext ctx) {
+        Caller caller = Caller.of(ctx);
+        if (caller.userId() > 0) {
+            return "user:" + caller.userId();
+        }
+        Long signedBy = ctx.get(SIGNED_BY);
+        return signedBy != null ? "user:" + signedBy : "address:" + ctx.request().remoteAddress().host();
+    }
+
+    UserState state(RouteClass routeClass, String client) {
+        return states.computeIfAbsent(routeClass.tag + "/" + client, key -> new UserState());
+    }
+
+    // Zero when the request may go on and has to release the state when done, otherwise seconds to wait before retrying
+    long tryAcquire(RouteClass routeClass, UserState state) {
+        Limit limit = limits.get(routeClass);
+        long now = nanoTime.getAsLong();
+
+        if (limit.concurrent() > 0 && !state.acquireSlot(limit.concurrent())) {
+            reject(concurrencyRejections, routeClass);
+            return 1;
+        }
+        if (limit.rate() > 0) {
+            long waitNanos = state.takeToken(now, limit);
+            if (waitNanos > 0) {
+                if (limit.concurrent() > 0) state.inProgress.decrementAndGet();
+                reject(rateRejections, routeClass);
+                return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+            }
+        }
+        if (limit.concurrent() <= 0) {
+            state.inProgress.incrementAndGet();
+        }
+        return 0;
+    }
+
+    // Forgets clients with nothing in progress whose bucket has been full for a while. A request racing with this
+    // keeps and releases the state it got, its next request starts with a full bucket
+    public void sweep() {
+        long idleSince = nanoTime.getAsLong() - IDLE_NANOS;
+        int before = states.size();
+        states.values().removeIf(state -> state.inProgress.get() == 0 && state.fullAt.get() < idleSince);
+        logger.debug("Request limiter forgot {} idle clients", before - states.size());
+    }
+
+    int trackedClients() {
+        return states.size();
+    }
+
+    private static void reject(Map<RouteClass, Counter> counters, RouteClass routeClass) {
+        Counter counter = counters.get(routeClass);
+        if (counter != null) counter.increment();
+    }
+
+    private static Counter rejections(MeterRegistry registry, RouteClass routeClass, String reason) {
+        return Counter.builder("pic.requests.rejected")
+                .description("Requests answered with 429 because a per-user limit was reached")
+                .tag("route", routeClass.tag)
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    private static Map<RouteClass, Limit> limitsFromEnv() {
+        Map<RouteClass, Limit> limits = new EnumMap<>(RouteClass.class);
+        for (RouteClass routeClass : RouteClass.values()) {
+            String value = System.getenv("PIC_LIMIT_" + routeClass.name());
+            limits.put(routeClass, value == null || value.isBlank() ? routeClass.defaultLimit : Limit.parse(value));
+        }
+        return limits;
+    }
+
+    static class UserState {
+        private final AtomicInteger inProgress = new AtomicInteger();
+        // Time at which the bucket holds a full burst again, each request moves it one interval forward
+        private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+        void release() {
+            inProgress.decrementAndGet();
+        }
+
+        boolean acquireSlot(int max) {
+            int current;
+            do {
+                current = inProgress.get();
+                if (current >= max) return false;
+            } while (!inProgress.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        // Zero if a token was taken, otherwise the nanoseconds until one is available
+        long takeToken(long now, Limit limit) {
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / limit.rate());
+            long capacity = interval * Math.max(1, limit.burst());
+            long current;
+            long next;
+            do {
+                current = fullAt.get();
+                next = Math.max(current, now) + interval;
+                if (next - now > capacity) return next - now - capacity;
+            } while (!fullAt.compareAndSet(current, next));
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.leskor.palermopg.services;
+
+import com.leskor.palermopg.dao.PictureDataDao;
+import com.leskor.palermopg.dao.PictureMetaDao;
+import com.leskor.palermopg.entity.ArchiveEntry;
+import com.leskor.palermopg.util.StoredZip;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.vertx.core.Future.succeededFuture;
+
+/**
+ * Computes the size and CRC-32 of original files that have none stored, for pictures uploaded before checksums were
+ * kept and for those whose checksum could not be stored after an upload or rotation. Files are read one at a time,
+ * a bounded batch per tick in id order, so that album downloads never have to read them up front.
+ */
+public class ChecksumBackfiller {
+    private static final Logger logger = LoggerFactory.getLogger("Application");
+
+    public static final long INTERVAL_SECONDS = 10;
+    static final int BATCH_SIZE = 100;
+
+    private final Vertx vertx;
+    private final PictureMetaDao pictureMetaDao;
+    private final PictureDataDao pictureDataDao;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private long lastId = 0;
+
+    public ChecksumBackfiller(Vertx vertx, PictureMetaDao pictureMetaDao, PictureDataDao pictureDataDao) {
+        this.vertx = vertx;
+        this.pictureMetaDao = pictureMetaDao;
+        this.pictureDataDao = pictureDataDao;
+    }
+
+    public void start() {
+        vertx.setPeriodic(INTERVAL_SECONDS * 1000, id -> {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+            backfill()
+                    .onFailure(cause -> logger.warn("Checksum backfill failed: {}", cause.getMessage()))
+                    .onComplete(done -> running.set(false));
+        });
+    }
+
+    // Pictures that keep failing are skipped until the pass wraps around, so they cannot hold back the rest
+    Future<Integer> backfill() {
+        return pictureMetaDao.findMissingChecksums(lastId, BATCH_SIZE).compose(entries -> {
+            lastId = entries.size() < BATCH_SIZE ? 0 : entries.get(entries.size() - 1).pictureId();
+            return storeChecksums(entries);
+        });
+    }
+
+    private Future<Integer> storeChecksums(List<ArchiveEntry> entries) {
+        Future<Integer> chain = succeededFuture(0);
+        for (ArchiveEntry entry : entries) {
+            chain = chain.compose(stored -> storeChecksum(entry)
+                    .map(done -> stored + 1)
+                    .recover(cause -> {
+                        logger.warn("Cannot compute checksum for picture {}: {}", entry.pictureId(), cause.getMessage());
+                        return succeededFuture(stored);
+                    }));
+        }
+        return chain.onSuccess(stored -> {
+            if (stored > 0) {
+                logger.info("Computed checksums for {} pictures", stored);
+            }
+        });
+    }
+
+    private Future<Void> storeChecksum(ArchiveEntry entry) {
+        return pictureDataDao.find(entry.path()).compose(data ->
+                pictureMetaDao.setMissingOriginalChecksum(entry.pictureId(), data.length, StoredZip.crc(data)));
+    }
+}
@@ -0,0 +1,71 @@
+package com.leskor.palermopg.services;
+
+import com.leskor.palermopg.dao.AlbumDao;
+import com.leskor.palermopg.dao.PictureDataDao;
+import com.leskor.palermopg.dao.PictureMetaDao;
+import com.leskor.palermopg.entity.Album;
+import com.leskor.palermopg.entity.PictureMeta;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills an empty library with synthetic users, albums and pictures for load testing. Every picture gets its own copy
+ * of the original and optimized file in the folder of its album, so seeded pictures can be deleted one by one.
+ */
+public class LibrarySeeder {
+    private final PictureMetaDao pictureMetaDao;
+    private final PictureDataDao pictureDataDao;
+    private final AlbumDao albumDao;
+    private final PictureManipulationService pictureManipulationService;
+
+    public LibrarySeeder(PictureMetaDao pictureMetaDao, PictureDataDao pictureDataDao, AlbumDao albumDao,
+                         PictureManipulationService pictureManipulationService) {
+        this.pictureMetaDao = pictureMetaDao;
+        this.pictureDataDao = pictureDataDao;
+        this.albumDao = albumDao;
+        this.pictureManipulationService = pictureManipulationService;
+    }
+
+    // Users get ids starting from 1, completes with the number of seeded pictures
+    public Future<Long> seed(byte[] picture, int users, int albumsPerUser, int picturesPerAlbum) {
+        return pictureManipulationService.convertToOptimized(picture)
+                .compose(optimized -> {
+                    List<Future<Integer>> albums = new ArrayList<>();
+                    for (long userId = 1; userId <= users; userId++) {
+                        for (int album = 1; album <= albumsPerUser; album++) {
+                            albums.add(seedAlbum(userId, album, picture, optimized, picturesPerAlbum));
+                        }
+                    }
+                    return CompositeFuture.all(new ArrayList<>(albums));
+                })
+                .map(done -> (long) users * albumsPerUser * picturesPerAlbum);
+    }
+
+    // Pictures of an album are written one after another, file names are picked from the files already in its folder
+    private Future<Integer> seedAlbum(long userId, int album, byte[] picture, byte[] optimized, int pictures) {
+        LocalDateTime uploaded = LocalDateTime.now().minusDays(album);
+
+        return albumDao.save(Album.create(-1, userId, "Album " + album, List.of(), false))
+                .compose(albumId -> {
+                    Future<Integer> saved = Future.succeededFuture(0);
+                    for (int i = 0; i < pictures; i++) {
+                        LocalDateTime captured = uploaded.minusMinutes(i);
+                        saved = saved.compose(count -> seedPicture(userId, albumId, picture, optimized, uploaded,
+                                captured).map(id -> count + 1));
+                    }
+                    return saved;
+                });
+    }
+
+    private Future<Long> seedPicture(long userId, long albumId, byte[] picture, byte[] optimized,
+                                     LocalDateTime uploaded, LocalDateTime captured) {
+        return pictureDataDao.save(picture, albumId)
+                .compose(path -> pictureDataDao.save(optimized, albumId)
+                        .compose(pathOptimized -> pictureMetaDao.save(new PictureMeta(-1, userId, albumId,
+                                picture.length, path, pathOptimized, uploaded, captured, uploaded))));
+    }
+}
@@ -41,7 +41,7 @@ public class PictureManipulationService {
             } finally {
                 call.complete();
             }
-        });
+        }, false);
 
         return resultPromise.future();
     }
@@ -58,7 +58,7 @@ public class PictureManipulationService {
             } finally {
                 call.complete();
             }
-        });
+        }, false);
 
         return resultPromise.future();
     }
@@ -75,7 +75,7 @@ public class PictureManipulationService {
             } finally {
                 call.complete();
             }
-        });
+        }, false);
 
         return resultPromise.future();
     }
@@ -1,6 +1,5 @@
 package com.leskor.palermopg.services;
 
-import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.dao.PictureDataDao;
 import com.leskor.palermopg.dao.PictureMetaDao;
 import com.leskor.palermopg.entity.PictureMeta;
@@ -10,7 +9,10 @@ import com.leskor.palermopg.exception.AuthorizationException;
 import com.leskor.palermopg.exception.MissingItemException;
 import com.leskor.palermopg.exception.StorageLimitException;
 import com.leskor.palermopg.meta.MetaParser;
-import com.leskor.palermopg.security.JWTParser;
+import com.leskor.palermopg.security.AlbumAccessIndex;
+import com.leskor.palermopg.security.Caller;
+import com.leskor.palermopg.security.PictureUrlSigner;
+import com.leskor.palermopg.util.StoredZip;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import org.slf4j.Logger;
@@ -24,58 +26,66 @@ import static java.time.ZoneOffset.UTC;
 
 public class PictureService {
     private static final Logger logger = LoggerFactory.getLogger("Application");
+    private static final long MAX_SIGNED_AGE_SECONDS = 10800;
 
     private final PictureMetaDao pictureMetaDao;
     private final PictureDataDao pictureDataDao;
-    private final AlbumDao albumDao;
-    private final JWTParser jwtParser;
+    private final AlbumAccessIndex albumAccessIndex;
     private final StorageService storageService;
     private final PictureManipulationService pictureManipulationService;
+    private final PictureUrlSigner pictureUrlSigner;
 
     public PictureService(PictureMetaDao pictureMetaDao,
                           PictureDataDao pictureDataDao,
-                          AlbumDao albumDao,
-                          JWTParser jwtParser,
+                          AlbumAccessIndex albumAccessIndex,
                           StorageService storageService,
-                          PictureManipulationService pictureManipulationService) {
+                          PictureManipulationService pictureManipulationService,
+                          PictureUrlSigner pictureUrlSigner) {
         this.pictureMetaDao = pictureMetaDao;
         this.pictureDataDao = pictureDataDao;
-        this.albumDao = albumDao;
-        this.jwtParser = jwtParser;
+        this.albumAccessIndex = albumAccessIndex;
         this.storageService = storageService;
         this.pictureManipulationService = pictureManipulationService;
+        this.pictureUrlSigner = pictureUrlSigner;
     }
 
-    public Future<PictureResponse> getPictureData(String token, String clientHash, long userId, long pictureId, boolean fullSize) {
-        if (!jwtParser.validateTokenForUserId(token, userId)) {
-            return Future.failedFuture(new AuthorizationException("Invalid token for userId: " + userId));
+    public Future<PictureResponse> getPictureData(Caller caller, String clientHash, long userId, long pictureId, boolean fullSize) {
+        return findAccessible(caller, userId, pictureId)
+                .compose(meta -> readPicture(meta, clientHash, fullSize));
+    }
+
+    // The signature was minted after an album access check, so only the picture itself has to be looked up
+    public Future<PictureResponse> getSignedPictureData(String signature, long expires, String clientHash,
+                                                        long userId, long pictureId, boolean fullSize) {
+        if (!pictureUrlSigner.verify(userId, pictureId, fullSize, expires, signature)) {
+            return failedFuture(new AuthorizationException("Invalid or expired signature for picture: " + pictureId));
         }
 
         return pictureMetaDao.find(pictureId)
-                .compose(opt -> opt.map(Future::succeededFuture).orElseGet(() -> Future.failedFuture(new MissingItemException())))
-                .compose(meta -> checkPictureAccess(userId, meta))
-                .compose(meta -> {
-                    final String hash = calculateHash(meta, fullSize);
-                    if (hash.equals(clientHash)) return succeededFuture(new PictureResponse(null, true, hash));
-
-                    final String optimizedPath = meta.pathOptimized();
-                    final String originalPath = meta.path();
-                    final String pathToFind = fullSize || optimizedPath == null || optimizedPath.isBlank() ?
-                            originalPath : optimizedPath;
+                .compose(opt -> opt.map(Future::succeededFuture).orElseGet(() -> failedFuture(new MissingItemException())))
+                .compose(meta -> readPicture(meta, clientHash, fullSize));
+    }
 
-                    return pictureDataDao.find(pathToFind)
-                            .map(data -> new PictureResponse(data, false, hash));
-                });
+    // Max age for responses to a signed URL, never longer than the URL stays valid
+    public long secondsLeft(long expires) {
+        return Math.min(pictureUrlSigner.secondsLeft(expires), MAX_SIGNED_AGE_SECONDS);
     }
 
-    public Future<byte[]> downloadPicture(String token, long userId, long pictureId) {
-        if (!jwtParser.validateTokenForUserId(token, userId)) {
-            return Future.failedFuture(new AuthorizationException("Invalid token for userId: " + userId));
-        }
+    private Future<PictureResponse> readPicture(PictureMeta meta, String clientHash, boolean fullSize) {
+        final String hash = calculateHash(meta, fullSize);
+        if (hash.equals(clientHash)) return succeededFuture(new PictureResponse(null, true, hash));
 
-        return pictureMetaDao.find(pictureId)
-                .compose(opt -> opt.map(Future::succeededFuture).orElseGet(() -> failedFuture(new MissingItemException())))
-                .compose(meta -> checkPictureAccess(userId, meta))
+        final String optimizedPath = meta.pathOptimized();
+        final String originalPath = meta.path();
+        final String pathToFind = fullSize || optimizedPath == null || optimizedPath.isBlank() ?
+                originalPath : optimizedPath;
+
+        return pictureDataDao.find(pathToFind)
+                .map(data -> new PictureResponse(data, false, hash));
+    }
+
+    public Future<byte[]> downloadPicture(Caller caller, long userId, long pictureId) {
+        return findAccessible(caller, userId, pictureId)
                 .compose(meta -> pictureDataDao.find(meta.path()));
     }
 
@@ -88,9 +98,9 @@ public class PictureService {
         return String.format("W/\"%d%d%s\"", meta.id(), dateModified.toEpochSecond(UTC), fullSizeSuffix);
     }
 
-    public Future<Long> insertNewPicture(String token, long userId, long albumId, byte[] data) {
+    public Future<Long> insertNewPicture(Caller caller, long userId, long albumId, byte[] data) {
         final LocalDateTime dateCaptured = extractDateCaptured(data);
-        return storageService.findForUser(token, userId).compose(storage ->
+        return storageService.findForUser(caller, userId).compose(storage ->
                 pictureManipulationService.rotateToCorrectOrientation(data).compose(rotatedData ->
                         pictureManipulationService.convertToOptimized(rotatedData).compose(optimizedPictureData ->
                                 doInsertPicture(userId, albumId, storage, dateCaptured, rotatedData, optimizedPictureData)
@@ -126,9 +136,10 @@ public class PictureService {
                     LocalDateTime.now(), dateCaptured, LocalDateTime.now());
 
             return pictureMetaDao.save(meta)
-                    .map(id -> {
+                    .compose(id -> storeOriginalChecksum(id, rotatedData).map(id))
+                    .onSuccess(id -> {
                         logger.info("Inserted new picture with id {} for user id {}", id, userId);
-                        return id;
+                        albumAccessIndex.touch(albumId);
                     });
         });
     }
@@ -143,46 +154,65 @@ public class PictureService {
         }
     }
 
-    public Future<Void> rotatePicture(long userId, long pictureId) {
-        return pictureMetaDao.find(pictureId)
-                .compose(opt -> opt.map(Future::succeededFuture).orElseGet(() -> failedFuture(new MissingItemException())))
-                .compose(meta -> checkPictureAccess(userId, meta))
+    public Future<Void> rotatePicture(Caller caller, long userId, long pictureId) {
+        return findAccessible(caller, userId, pictureId)
                 .compose(meta -> {
                     doRotate(meta.pathOptimized());
-                    return doRotate(meta.path());
-                }).compose(rotated ->
-                    pictureMetaDao.setLastModified(pictureId, LocalDateTime.now())
-                            .onFailure(cause -> logger.warn("Cannot set last modified: " + cause.getMessage()))
-                );
+                    // The checksum is cleared before the file changes, so an archive is never laid out from a stale one
+                    return pictureMetaDao.clearOriginalChecksum(pictureId)
+                            .compose(cleared -> doRotate(meta.path()))
+                            .compose(rotated -> storeOriginalChecksum(pictureId, rotated))
+                            .compose(stored -> pictureMetaDao.setLastModified(pictureId, LocalDateTime.now())
+                                    .onFailure(cause -> logger.warn("Cannot set last modified: " + cause.getMessage())))
+                            .onSuccess(modified -> albumAccessIndex.touch(meta.albumId()));
+                });
     }
 
-    private Future<Void> doRotate(String path) {
+    private Future<byte[]> doRotate(String path) {
         if (path == null) return failedFuture(new MissingItemException());
         else return pictureDataDao.find(path)
                 .compose(pictureManipulationService::rotate90)
-                .compose(rotatedData -> pictureDataDao.replace(path, rotatedData));
+                .compose(rotatedData -> pictureDataDao.replace(path, rotatedData).map(rotatedData));
+    }
+
+    // Album archives are laid out from these, a value that cannot be stored is left missing for the ChecksumBackfiller
+    private Future<Void> storeOriginalChecksum(long pictureId, byte[] data) {
+        return pictureMetaDao.setOriginalChecksum(pictureId, data.length, StoredZip.crc(data))
+                .recover(cause -> {
+                    logger.warn("Cannot store checksum for picture {}: {}", pictureId, cause.getMessage());
+                    return succeededFuture();
+                });
+    }
+
+    public Future<Void> deletePicture(Caller caller, long userId, long pictureId) {
+        return findAccessible(caller, userId, pictureId)
+                .compose(meta -> pictureMetaDao.markDeletedById(pictureId)
+                        .onSuccess(deleted -> albumAccessIndex.touch(meta.albumId())));
     }
 
-    public Future<Void> deletePicture(long userId, long pictureId) {
+    // Authorizes by metadata alone, so mutating endpoints never read the picture file just to check access
+    private Future<PictureMeta> findAccessible(Caller caller, long userId, long pictureId) {
+        if (!caller.canActAs(userId)) {
+            return failedFuture(new AuthorizationException("Invalid token for userId: " + userId));
+        }
+
         return pictureMetaDao.find(pictureId)
                 .compose(opt -> opt.map(Future::succeededFuture).orElseGet(() -> failedFuture(new MissingItemException())))
-                .compose(meta -> checkPictureAccess(userId, meta))
-                .compose(meta -> pictureMetaDao.deleteById(pictureId)
-                        .compose(dbItemDeleted -> pictureDataDao.delete(meta.path()))
-                        .compose(originalDeleted -> meta.pathOptimized() == null ? succeededFuture()
-                                : pictureDataDao.delete(meta.pathOptimized()))
-                );
+                .compose(meta -> checkPictureAccess(userId, meta));
     }
 
     private Future<PictureMeta> checkPictureAccess(long userId, PictureMeta meta) {
+        if (meta.userId() == userId) {
+            return succeededFuture(meta);
+        }
         return isAlbumNotAccessible(meta.albumId(), userId)
-                .compose(albumNotAccessible -> (albumNotAccessible && meta.userId() != userId) ?
+                .compose(albumNotAccessible -> albumNotAccessible ?
                         failedFuture(new AuthorizationException("Wrong user id")) : succeededFuture(meta));
     }
 
     private Future<Boolean> isAlbumNotAccessible(long albumId, long userId) {
         return albumId <= 0 ? succeededFuture(true)
-                : albumDao.findById(albumId)
-                .map(opt -> opt.isEmpty() || opt.get().userId() != userId && (opt.get().sharedUsers() == null || !opt.get().sharedUsers().contains(userId)));
+                : albumAccessIndex.find(albumId)
+                .map(opt -> opt.isEmpty() || !opt.get().canAccess(userId));
     }
 }
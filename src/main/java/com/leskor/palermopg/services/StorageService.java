@@ -6,7 +6,7 @@ import com.leskor.palermopg.dao.PictureMetaDao;
 import com.leskor.palermopg.entity.PictureMeta;
 import com.leskor.palermopg.entity.StorageConsumption;
 import com.leskor.palermopg.exception.AuthorizationException;
-import com.leskor.palermopg.security.JWTParser;
+import com.leskor.palermopg.security.Caller;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
@@ -26,27 +26,25 @@ public class StorageService {
     private final PictureMetaDao pictureMetaDao;
     private final PictureDataDao pictureDataDao;
     private final LimitsDao limitsDao;
-    private final JWTParser jwtParser;
 
     public StorageService(
             PictureMetaDao pictureMetaDao,
             PictureDataDao pictureDataDao,
-            LimitsDao limitsDao, JWTParser jwtParser
+            LimitsDao limitsDao
     ) {
         this.pictureMetaDao = pictureMetaDao;
         this.pictureDataDao = pictureDataDao;
         this.limitsDao = limitsDao;
-        this.jwtParser = jwtParser;
     }
 
-    public Future<StorageConsumption> findForUser(String token, long userId) {
-        if (!jwtParser.validateTokenForUserId(token, userId) && !jwtParser.isAdmin(token)) {
+    public Future<StorageConsumption> findForUser(Caller caller, long userId) {
+        if (!caller.canManage(userId)) {
             return Future.failedFuture(new AuthorizationException("Invalid token for userId: " + userId));
         }
 
         Promise<StorageConsumption> resultPromise = Promise.promise();
 
-        pictureMetaDao.findPictureMetasForUserId(userId)
+        pictureMetaDao.findSizesForUserId(userId)
                 .onSuccess(metas -> {
                     long knownSize = metas.stream()
                         .mapToLong(PictureMeta::size)
@@ -78,11 +76,11 @@ public class StorageService {
         return resultPromise.future();
     }
 
-    public Future<List<StorageConsumption>> findForUsers(String token, List<Long> ids) {
+    public Future<List<StorageConsumption>> findForUsers(Caller caller, List<Long> ids) {
         Promise<List<StorageConsumption>> resultPromise = Promise.promise();
 
         List<Future<StorageConsumption>> futures = ids.stream()
-                .map(id -> findForUser(token, id))
+                .map(id -> findForUser(caller, id))
                 .toList();
 
         CompositeFuture.all(new ArrayList<>(futures))
@@ -105,8 +103,8 @@ public class StorageService {
                 }).onFailure(resultPromise::fail);
     }
 
-    public Future<Void> setLimitForUser(String token, long userId, long limit) {
-        if (!jwtParser.isAdmin(token)) {
+    public Future<Void> setLimitForUser(Caller caller, long userId, long limit) {
+        if (!caller.isAdmin()) {
             return Future.failedFuture(new AuthorizationException("User is not an admin"));
         }
 
@@ -0,0 +1,102 @@
+package com.leskor.palermopg.services;
+
+import com.leskor.palermopg.dao.AlbumDao;
+import com.leskor.palermopg.dao.PictureDataDao;
+import com.leskor.palermopg.dao.PictureMetaDao;
+import com.leskor.palermopg.entity.PictureMeta;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.vertx.core.Future.succeededFuture;
+
+/**
+ * Removes the files of tombstoned pictures and then purges their documents, a bounded batch per tick so that disk I/O
+ * is spread over time. Pictures whose files could not be removed are requeued behind newer tombstones.
+ * Album tombstones are purged once no picture tombstones remain, album pictures are always tombstoned first.
+ */
+public class TombstoneCollector {
+    private static final Logger logger = LoggerFactory.getLogger("Application");
+
+    static final int BATCH_SIZE = 200;
+    private static final long INTERVAL_MS = 10_000;
+
+    private final Vertx vertx;
+    private final PictureMetaDao pictureMetaDao;
+    private final PictureDataDao pictureDataDao;
+    private final AlbumDao albumDao;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public TombstoneCollector(Vertx vertx, PictureMetaDao pictureMetaDao, PictureDataDao pictureDataDao, AlbumDao albumDao) {
+        this.vertx = vertx;
+        this.pictureMetaDao = pictureMetaDao;
+        this.pictureDataDao = pictureDataDao;
+        this.albumDao = albumDao;
+    }
+
+    public void start() {
+        vertx.setPeriodic(INTERVAL_MS, id -> {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+            collect()
+                    .onFailure(cause -> logger.warn("Tombstone collection failed: {}", cause.getMessage()))
+                    .onComplete(done -> running.set(false));
+        });
+    }
+
+    Future<Integer> collect() {
+        return pictureMetaDao.findDeleted(BATCH_SIZE)
+                .compose(pictures -> pictures.isEmpty() ? purgeAlbums() : purgePictures(pictures));
+    }
+
+    private Future<Integer> purgePictures(List<PictureMeta> pictures) {
+        return pictureDataDao.deleteAll(filesOf(pictures)).compose(failedPaths -> {
+            Set<String> failed = new HashSet<>(failedPaths);
+            List<Long> removed = new ArrayList<>();
+            List<Long> remaining = new ArrayList<>();
+            for (PictureMeta meta : pictures) {
+                boolean filesRemoved = !failed.contains(meta.path()) && !failed.contains(meta.pathOptimized());
+                (filesRemoved ? removed : remaining).add(meta.id());
+            }
+
+            Future<Void> requeued = remaining.isEmpty() ? succeededFuture() : pictureMetaDao.requeueDeleted(remaining);
+            return requeued
+                    .compose(done -> removed.isEmpty() ? succeededFuture(0L) : pictureMetaDao.purgeDeleted(removed))
+                    .map(purged -> {
+                        logger.info("Collected {} deleted pictures, {} requeued", purged, remaining.size());
+                        return purged.intValue();
+                    });
+        });
+    }
+
+    private Future<Integer> purgeAlbums() {
+        return albumDao.purgeDeleted().map(purged -> {
+            if (purged > 0) {
+                logger.info("Collected {} deleted albums", purged);
+            }
+            return 0;
+        });
+    }
+
+    private List<String> filesOf(List<PictureMeta> metas) {
+        List<String> paths = new ArrayList<>(metas.size() * 2);
+        for (PictureMeta meta : metas) {
+            if (meta.path() != null && !meta.path().isBlank()) {
+                paths.add(meta.path());
+            }
+            if (meta.pathOptimized() != null && !meta.pathOptimized().isBlank()) {
+                paths.add(meta.pathOptimized());
+            }
+        }
+        return paths;
+    }
+}
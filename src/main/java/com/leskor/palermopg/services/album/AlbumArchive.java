@@ -0,0 +1,188 @@
+package com.leskor.palermopg.services.album;
+
+import com.leskor.palermopg.dao.PictureDataDao;
+import com.leskor.palermopg.entity.ArchiveEntry;
+import com.leskor.palermopg.util.StoredZip;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.streams.WriteStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.vertx.core.Future.failedFuture;
+import static io.vertx.core.Future.succeededFuture;
+
+/**
+ * Album pictures laid out as a ZIP archive of STORED entries. Headers are built up front from the sizes and CRCs cached
+ * in metadata, so the archive length is known before writing and any byte range maps directly onto headers and files.
+ * Only file contents are read while writing, the next segment is read while the current one is being written.
+ */
+public class AlbumArchive {
+    private final PictureDataDao pictureDataDao;
+    private final List<Segment> segments = new ArrayList<>();
+    private final long length;
+    private final String etag;
+
+    AlbumArchive(List<ArchiveEntry> entries, PictureDataDao pictureDataDao) {
+        this.pictureDataDao = pictureDataDao;
+
+        Buffer centralDirectory = Buffer.buffer();
+        long offset = 0;
+        for (ArchiveEntry entry : entries) {
+            Buffer header = StoredZip.localHeader(entry.name(), entry.size(), entry.crc(), entry.dateModified());
+            centralDirectory.appendBuffer(
+                    StoredZip.centralHeader(entry.name(), entry.size(), entry.crc(), entry.dateModified(), offset));
+            segments.add(Segment.of(offset, header));
+            offset += header.length();
+            segments.add(new Segment(offset, entry.size(), null, entry.path()));
+            offset += entry.size();
+        }
+
+        Buffer end = StoredZip.end(entries.size(), centralDirectory.length(), offset);
+        segments.add(Segment.of(offset, centralDirectory.appendBuffer(end)));
+        this.length = offset + centralDirectory.length();
+        this.etag = String.format("\"%x-%x\"", length, StoredZip.crc(centralDirectory.getBytes()));
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Strong validator for the archive content: the central directory covers every name, size, CRC and offset.
+     */
+    public String etag() {
+        return etag;
+    }
+
+    public Future<Void> writeTo(WriteStream<Buffer> stream) {
+        return writeTo(stream, 0, length - 1);
+    }
+
+    /**
+     * Writes bytes {@code first} to {@code last} inclusive.
+     */
+    public Future<Void> writeTo(WriteStream<Buffer> stream, long first, long last) {
+        if (first < 0 || last >= length || first > last) {
+            return failedFuture(new IllegalArgumentException("Range is outside of the archive"));
+        }
+
+        List<Segment> slices = new ArrayList<>();
+        for (Segment segment : segments) {
+            long from = Math.max(first, segment.offset());
+            long to = Math.min(last + 1, segment.offset() + segment.length());
+            if (from < to) {
+                slices.add(segment.slice(from - segment.offset(), to - from));
+            }
+        }
+
+        return new Transfer(stream, slices).start();
+    }
+
+    private Future<Buffer> read(Segment slice) {
+        if (slice.data() != null) {
+            return succeededFuture(slice.data());
+        }
+        if (slice.length() > Integer.MAX_VALUE) {
+            return failedFuture(new IllegalStateException("Picture " + slice.path() + " is too large to read at once"));
+        }
+        return pictureDataDao.findRange(slice.path(), slice.fileOffset(), (int) slice.length()).map(Buffer::buffer);
+    }
+
+    /**
+     * One write of a range to a stream. A stream that fails or a client that goes away fails the transfer together
+     * with a pending wait for drain, which would never come, so the slices read ahead are released.
+     */
+    private final class Transfer {
+        private final WriteStream<Buffer> stream;
+        private final List<Segment> slices;
+        private final Promise<Void> done = Promise.promise();
+        private Promise<Void> drained;
+
+        Transfer(WriteStream<Buffer> stream, List<Segment> slices) {
+            this.stream = stream;
+            this.slices = slices;
+        }
+
+        Future<Void> start() {
+            stream.exceptionHandler(this::abort);
+            if (stream instanceof HttpServerResponse response) {
+                response.closeHandler(closed -> abort(new IllegalStateException("Client closed the connection")));
+            }
+            writeSlices(0, read(slices.get(0)));
+            return done.future();
+        }
+
+        private void abort(Throwable cause) {
+            done.tryFail(cause);
+            if (drained != null) {
+                drained.tryFail(cause);
+            }
+        }
+
+        // Loops while slices complete synchronously and resumes from callbacks otherwise, so the stack stays flat
+        private void writeSlices(int index, Future<Buffer> current) {
+            while (index < slices.size()) {
+                if (done.future().isComplete()) {
+                    return;
+                }
+                Future<Buffer> next = index + 1 < slices.size() ? read(slices.get(index + 1)) : null;
+                Future<Void> written = current.compose(this::write);
+
+                if (!written.isComplete()) {
+                    int nextIndex = index + 1;
+                    written.onSuccess(v -> writeSlices(nextIndex, next))
+                            .onFailure(done::tryFail);
+                    return;
+                }
+                if (written.failed()) {
+                    done.tryFail(written.cause());
+                    return;
+                }
+                index++;
+                current = next;
+            }
+            done.tryComplete();
+        }
+
+        private Future<Void> write(Buffer buffer) {
+            try {
+                stream.write(buffer);
+            } catch (IllegalStateException e) {
+                return failedFuture(e);
+            }
+            if (!stream.writeQueueFull()) {
+                return succeededFuture();
+            }
+            drained = Promise.promise();
+            Promise<Void> waiting = drained;
+            stream.drainHandler(v -> waiting.tryComplete());
+            if (!stream.writeQueueFull()) {
+                waiting.tryComplete();
+            }
+            return waiting.future();
+        }
+    }
+
+    /**
+     * Part of the archive at {@code offset}: either precomputed header bytes or a range of a picture file.
+     */
+    private record Segment(long offset, long length, Buffer data, String path, long fileOffset) {
+        Segment(long offset, long length, Buffer data, String path) {
+            this(offset, length, data, path, 0);
+        }
+
+        static Segment of(long offset, Buffer data) {
+            return new Segment(offset, data.length(), data, null);
+        }
+
+        Segment slice(long from, long sliceLength) {
+            return data != null
+                    ? new Segment(offset + from, sliceLength, data.slice((int) from, (int) (from + sliceLength)), null)
+                    : new Segment(offset + from, sliceLength, null, path, fileOffset + from);
+        }
+    }
+}
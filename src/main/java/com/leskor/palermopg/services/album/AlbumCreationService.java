@@ -2,6 +2,7 @@ package com.leskor.palermopg.services.album;
 
 import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.entity.Album;
+import com.leskor.palermopg.security.AlbumAccessIndex;
 import io.vertx.core.Future;
 
 import java.util.List;
@@ -10,9 +11,11 @@ import static io.vertx.core.Future.failedFuture;
 
 public class AlbumCreationService {
     private final AlbumDao dao;
+    private final AlbumAccessIndex albumAccessIndex;
 
-    public AlbumCreationService(AlbumDao dao) {
+    public AlbumCreationService(AlbumDao dao, AlbumAccessIndex albumAccessIndex) {
         this.dao = dao;
+        this.albumAccessIndex = albumAccessIndex;
     }
 
     public Future<Long> addNewAlbum(Album album) {
@@ -21,7 +24,9 @@ public class AlbumCreationService {
         }
 
         Album albumToPersist = prepareAlbumForPersisting(album);
-        return dao.save(albumToPersist);
+        return dao.save(albumToPersist)
+                .onSuccess(id -> albumAccessIndex.put(Album.create(id, albumToPersist.userId(), albumToPersist.name(),
+                        albumToPersist.sharedUsers(), albumToPersist.isChronologicalOrder())));
     }
 
     private Album prepareAlbumForPersisting(Album album) {
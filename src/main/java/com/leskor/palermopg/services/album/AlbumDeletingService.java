@@ -3,90 +3,89 @@ package com.leskor.palermopg.services.album;
 import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.dao.PictureMetaDao;
 import com.leskor.palermopg.entity.Album;
+import com.leskor.palermopg.entity.Job;
 import com.leskor.palermopg.exception.AuthorizationException;
 import com.leskor.palermopg.exception.MissingItemException;
-import com.leskor.palermopg.security.JWTParser;
-import com.leskor.palermopg.services.PictureService;
-import io.vertx.core.CompositeFuture;
+import com.leskor.palermopg.security.AlbumAccessIndex;
+import com.leskor.palermopg.security.Caller;
+import com.leskor.palermopg.services.job.JobService;
+import com.leskor.palermopg.services.job.JobTask;
 import io.vertx.core.Future;
-import io.vertx.core.Promise;
+
+import java.util.List;
 
 import static io.vertx.core.Future.failedFuture;
 import static io.vertx.core.Future.succeededFuture;
 
-public class AlbumDeletingService {
-    private final JWTParser jwtParser;
-    private final PictureService pictureService;
+public class AlbumDeletingService implements JobTask {
+    public static final String DELETE_ALL_JOB = "deleteAllAlbums";
+
     private final AlbumDao albumDao;
     private final PictureMetaDao pictureMetaDao;
-    private final AlbumFetchingService albumFetchingService;
+    private final AlbumAccessIndex albumAccessIndex;
+    private final JobService jobService;
 
     public AlbumDeletingService(
-            JWTParser jwtParser,
-            PictureService pictureService,
             AlbumDao albumDao,
             PictureMetaDao pictureMetaDao,
-            AlbumFetchingService albumFetchingService
+            AlbumAccessIndex albumAccessIndex,
+            JobService jobService
     ) {
-        this.jwtParser = jwtParser;
-        this.pictureService = pictureService;
         this.albumDao = albumDao;
         this.pictureMetaDao = pictureMetaDao;
-        this.albumFetchingService = albumFetchingService;
+        this.albumAccessIndex = albumAccessIndex;
+        this.jobService = jobService;
     }
 
-    public Future<Void> deleteAll(String token, long userId) {
-        if (!jwtParser.validateTokenForUserId(token, userId) && !jwtParser.isAdmin(token)) {
+    public Future<Long> deleteAll(Caller caller, long userId) {
+        if (!caller.canManage(userId)) {
             return failedFuture(new AuthorizationException("Invalid token for userId: " + userId));
         }
 
-        return albumFetchingService.getAlbumsForUserId(userId)
-                .compose(albums -> {
-                    var deleteFutures = albums.stream()
-                            .filter(a -> a.userId() == userId)
-                            .map(album -> deleteAlbum(userId, album))
-                            .map(fut -> {
-                                Promise promise = Promise.promise();
+        return jobService.submit(DELETE_ALL_JOB, userId);
+    }
 
-                                fut.onSuccess(success -> promise.complete())
-                                        .onFailure(cause -> promise.fail("Not deleted: " + cause.getMessage()));
+    @Override
+    public String type() {
+        return DELETE_ALL_JOB;
+    }
 
-                                return promise.future();
-                            })
+    // Deletes owned albums in id order, the checkpoint is the last deleted album id
+    @Override
+    public Future<Void> run(Job job, Progress progress) {
+        return albumDao.findAlbumsForUserId(job.userId())
+                .compose(albums -> {
+                    List<Long> remaining = albums.stream()
+                            .filter(album -> album.userId() == job.userId() && album.id() > job.checkpoint())
+                            .map(Album::id)
+                            .sorted()
                             .toList();
+                    long total = job.progress() + remaining.size();
 
-                    return CompositeFuture.all(deleteFutures)
-                            .compose(success -> succeededFuture());
+                    Future<Void> chain = progress.update(job.progress(), total, job.checkpoint());
+                    for (int i = 0; i < remaining.size(); i++) {
+                        long albumId = remaining.get(i);
+                        long deleted = job.progress() + i + 1;
+                        chain = chain.compose(updated -> deleteAlbum(albumId))
+                                .compose(albumDeleted -> progress.update(deleted, total, albumId));
+                    }
+                    return chain;
                 });
     }
 
     public Future<Void> delete(long userId, long albumId) {
-        return albumDao.findById(albumId)
-                .compose(opt -> opt.map(Future::succeededFuture).orElseGet(() -> failedFuture(new MissingItemException())))
-                .compose(album -> deleteAlbum(userId, album));
+        return albumAccessIndex.find(albumId)
+                .compose(opt -> opt.filter(access -> access.canAccess(userId))
+                        .map(Future::succeededFuture)
+                        .orElseGet(() -> failedFuture(new MissingItemException())))
+                .compose(access -> access.isOwner(userId) ? deleteAlbum(albumId)
+                        : failedFuture(new AuthorizationException("Album is not available to user")));
     }
 
-    private Future<Void> deleteAlbum(long userId, Album album) {
-        if (album.userId() != userId) {
-            return failedFuture(new AuthorizationException("Album is not available to user"));
-        }
-        return pictureMetaDao.findForAlbumId(album.id())
-                .compose(metas -> {
-                    var deleteFutures = metas.stream()
-                            .map(meta -> pictureService.deletePicture(userId, meta.id()))
-                            .map(fut -> {
-                                Promise promise = Promise.promise();
-
-                                fut.onSuccess(success -> promise.complete())
-                                        .onFailure(cause -> promise.fail("Not deleted: " + cause.getMessage()));
-
-                                return promise.future();
-                            })
-                            .toList();
-
-                    return CompositeFuture.all(deleteFutures)
-                            .compose(success -> succeededFuture());
-                })
-                .compose(deleted ->  albumDao.delete(album.id()));
+    // Authorization is checked by the callers. Pictures are tombstoned before the album, files are left to the collector
+    private Future<Void> deleteAlbum(long albumId) {
+        return pictureMetaDao.markDeletedForAlbumId(albumId)
+                .compose(tombstoned -> albumDao.markDeleted(albumId))
+                .onSuccess(deleted -> albumAccessIndex.remove(albumId));
     }
 }
@@ -4,22 +4,27 @@ import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.dao.PictureDataDao;
 import com.leskor.palermopg.dao.PictureMetaDao;
 import com.leskor.palermopg.entity.Album;
+import com.leskor.palermopg.entity.AlbumDetails;
+import com.leskor.palermopg.entity.ArchiveEntry;
 import com.leskor.palermopg.entity.PictureMeta;
+import com.leskor.palermopg.entity.PicturePage;
+import com.leskor.palermopg.entity.SignedPictureUrls;
 import com.leskor.palermopg.exception.AuthorizationException;
 import com.leskor.palermopg.exception.MissingItemException;
-import com.leskor.palermopg.security.JWTParser;
+import com.leskor.palermopg.exception.NotReadyException;
+import com.leskor.palermopg.security.AlbumAccessIndex;
+import com.leskor.palermopg.security.AlbumAccessIndex.AlbumAccess;
+import com.leskor.palermopg.security.Caller;
+import com.leskor.palermopg.security.PictureUrlSigner;
+import com.leskor.palermopg.services.ChecksumBackfiller;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
-
 import io.vertx.core.Promise;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.time.LocalDateTime;
+import org.reactivestreams.Publisher;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import static io.vertx.core.Future.failedFuture;
 import static io.vertx.core.Future.succeededFuture;
@@ -29,14 +34,17 @@ public class AlbumFetchingService {
     private final AlbumDao albumDao;
     private final PictureMetaDao pictureMetaDao;
     private final PictureDataDao pictureDataDao;
-    private final JWTParser jwtParser;
+    private final AlbumAccessIndex albumAccessIndex;
+    private final PictureUrlSigner pictureUrlSigner;
 
     public AlbumFetchingService(AlbumDao albumDao, PictureMetaDao pictureMetaDao,
-                                PictureDataDao pictureDataDao, JWTParser jwtParser) {
+                                PictureDataDao pictureDataDao,
+                                AlbumAccessIndex albumAccessIndex, PictureUrlSigner pictureUrlSigner) {
         this.albumDao = albumDao;
         this.pictureMetaDao = pictureMetaDao;
         this.pictureDataDao = pictureDataDao;
-        this.jwtParser = jwtParser;
+        this.albumAccessIndex = albumAccessIndex;
+        this.pictureUrlSigner = pictureUrlSigner;
     }
 
     public Future<List<Album>> getAlbumsForUserId(long userId) {
@@ -63,117 +71,109 @@ public class AlbumFetchingService {
         return resultPromise.future();
     }
 
-    public Future<Album> getAlbumForUserId(long userId, long albumId) {
+    // Version of the album list of a user, bumped whenever one of the albums or its cover changes
+    public Future<Long> getAlbumsVersion(long userId) {
+        return succeededFuture(albumAccessIndex.userVersion(userId));
+    }
+
+    // Version of an album and its pictures, reading it checks access like reading the album itself
+    public Future<Long> getAlbumVersion(long userId, long albumId) {
+        return checkAccess(userId, albumId).map(access -> albumAccessIndex.albumVersion(albumId));
+    }
+
+    public Future<AlbumDetails> getAlbumDetails(long userId, long albumId) {
         if (userId < 1) {
             return failedFuture(
                     new IllegalArgumentException("User ID is invalid for fetching albums"));
         }
 
-        return albumDao.findById(albumId)
-                .compose(opt -> opt.map(Future::succeededFuture)
-                        .orElseGet(() -> failedFuture(new MissingItemException())))
-                .compose(album -> checkAccess(album, userId))
-                .compose(album -> pictureMetaDao.findForAlbumId(album.id())
-                        .map(metas -> metas.stream().max(this::sortPictureMeta)
-                                .map(first ->
-                                        album.withCoverPicture(
-                                                        new Album.CoverPicture(first.userId(), first.id()))
-                                                .withDateCreated(first.dateUploaded()))
-                                .orElse(album)
-                        ));
+        return findAccessibleAlbum(userId, albumId)
+                .compose(album -> pictureMetaDao.findSortedForAlbumId(albumId, album.isChronologicalOrder())
+                        .map(pictures -> {
+                            Optional<PictureMeta> oldest = pictures.isEmpty() ? Optional.empty()
+                                    : Optional.of(album.isChronologicalOrder() ? pictures.get(0)
+                                    : pictures.get(pictures.size() - 1));
+                            return new AlbumDetails(withCoverPicture(album, oldest), pictures, null);
+                        }));
+    }
+
+    public Future<AlbumDetails> getAlbumDetailsPage(long userId, long albumId, String afterSortKey, int limit) {
+        return findAccessibleAlbum(userId, albumId)
+                .compose(album -> CompositeFuture.join(
+                        pictureMetaDao.findPageForAlbumId(albumId, album.isChronologicalOrder(), afterSortKey, limit),
+                        pictureMetaDao.findOldestForAlbumId(albumId)
+                ).map(results -> {
+                    PicturePage page = results.resultAt(0);
+                    Optional<PictureMeta> oldest = results.resultAt(1);
+                    return new AlbumDetails(withCoverPicture(album, oldest), page.pictures(), page.nextSortKey());
+                }));
     }
 
     private List<Future<Album>> enrichAlbumsWithCoverPictures(List<Album> albums) {
         return albums.stream()
-                .map(album -> pictureMetaDao.findForAlbumId(album.id())
-                        .map(metas -> metas.stream().max(this::sortPictureMeta)
-                                .map(first ->
-                                        album.withCoverPicture(
-                                                        new Album.CoverPicture(first.userId(), first.id()))
-                                                .withDateCreated(first.dateUploaded()))
-                                .orElse(album)
-                        )
+                .map(album -> pictureMetaDao.findOldestForAlbumId(album.id())
+                        .map(oldest -> withCoverPicture(album, oldest))
                 ).toList();
     }
 
-    public Future<List<PictureMeta>> getPictureMetaForAlbum(long userId, long albumId) {
-        return albumDao.findById(albumId)
-                .compose(opt -> opt.map(Future::succeededFuture)
-                        .orElseGet(() -> Future.failedFuture(new MissingItemException())))
-                .compose(album -> checkAccess(album, userId))
-                .compose(album -> pictureMetaDao.findForAlbumId(albumId)
-                        .map(metas -> metas.stream()
-                                .sorted((a, b) -> album.isChronologicalOrder() ?
-                                        -1 * sortPictureMeta(a, b) : sortPictureMeta(a, b))
-                                .toList()
-                        )
-                );
+    private Album withCoverPicture(Album album, Optional<PictureMeta> oldest) {
+        return oldest
+                .map(first -> album.withCoverPicture(new Album.CoverPicture(first.userId(), first.id()))
+                        .withDateCreated(first.dateUploaded()))
+                .orElse(album);
     }
 
-    public Future<byte[]> download(String token, long userId, long albumId) {
-        if (!jwtParser.validateTokenForUserId(token, userId)) {
-            return failedFuture(new AuthorizationException("Invalid token for userId: " + userId));
-        }
+    public Future<Publisher<PictureMeta>> streamPictureMetaForAlbum(long userId, long albumId) {
+        return checkAccess(userId, albumId)
+                .map(access -> pictureMetaDao.streamSortedIdsForAlbumId(albumId, access.isChronologicalOrder()));
+    }
 
-        return albumDao.findById(albumId)
-                .compose(opt -> opt.map(Future::succeededFuture)
-                        .orElseGet(() -> failedFuture(new MissingItemException())))
-                .compose(album -> checkAccess(album, userId))
-                .compose(album -> pictureMetaDao.findForAlbumId(albumId))
-                .compose(metas -> {
-                    var pics = metas.stream()
-                            .sorted(this::sortPictureMeta)
-                            .toList();
-
-                    var futures = pics.stream()
-                            .map(p -> pictureDataDao.find(p.path()))
-                            .toList();
-
-                    return CompositeFuture.all(new ArrayList<>(futures))
-                            .compose(dataResults -> createArchive(dataResults, pics));
-                });
+    public Future<PicturePage> getPictureMetaPageForAlbum(long userId, long albumId, String afterSortKey, int limit) {
+        return checkAccess(userId, albumId)
+                .compose(access -> pictureMetaDao.findPageForAlbumId(
+                        albumId, access.isChronologicalOrder(), afterSortKey, limit));
     }
 
-    private Future<Album> checkAccess(Album album, long userId) {
-        return album.userId() != userId &&
-                (album.sharedUsers() == null || !album.sharedUsers().contains(userId)) ?
-                failedFuture(
-                        new AuthorizationException("Album is missing or not available to user")) :
-                succeededFuture(album);
+    public Future<SignedPictureUrls> signPictureUrls(long userId, long albumId, String afterSortKey, int limit,
+                                                     boolean fullSize) {
+        long expires = pictureUrlSigner.expiry();
+        return getPictureMetaPageForAlbum(userId, albumId, afterSortKey, limit)
+                .map(page -> new SignedPictureUrls(
+                        page.pictures().stream()
+                                .map(meta -> new SignedPictureUrls.PictureUrl(
+                                        meta.id(), pictureUrlSigner.url(userId, meta.id(), fullSize, expires)))
+                                .toList(),
+                        expires,
+                        page.nextSortKey()));
     }
 
-    private Future<byte[]> createArchive(CompositeFuture pictures, List<PictureMeta> metas) {
-        try (
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ZipOutputStream zos = new ZipOutputStream(baos)
-        ) {
-            for (int i = 0; i < pictures.size(); i++) {
-                var data = (byte[]) pictures.resultAt(i);
-                var meta = metas.get(i);
-                ZipEntry entry = new ZipEntry(meta.id() + ".jpg");
-                zos.putNextEntry(entry);
-                zos.write(data);
-                zos.closeEntry();
-            }
-            zos.finish();
-            zos.flush();
-            return succeededFuture(baos.toByteArray());
-        } catch (IOException e) {
-            return failedFuture(e);
+    // Archives are laid out from stored checksums, pictures still missing one are left to the ChecksumBackfiller
+    public Future<AlbumArchive> download(Caller caller, long userId, long albumId) {
+        if (!caller.canActAs(userId)) {
+            return failedFuture(new AuthorizationException("Invalid token for userId: " + userId));
         }
-    }
 
-    private int sortPictureMeta(PictureMeta a, PictureMeta b) {
-        LocalDateTime uploadedA = a.dateUploaded();
-        LocalDateTime uploadedB = b.dateUploaded();
-        LocalDateTime capturedA = a.dateCaptured();
-        LocalDateTime capturedB = b.dateCaptured();
+        return checkAccess(userId, albumId)
+                .compose(access -> pictureMetaDao.findArchiveEntriesForAlbumId(albumId))
+                .compose(entries -> entries.stream().allMatch(ArchiveEntry::hasChecksum)
+                        ? succeededFuture(new AlbumArchive(entries, pictureDataDao))
+                        : failedFuture(new NotReadyException("Checksums of album " + albumId + " are being computed",
+                                ChecksumBackfiller.INTERVAL_SECONDS)));
+    }
 
-        if (uploadedA.getYear() == uploadedB.getYear() &&
-                uploadedA.getDayOfYear() == uploadedB.getDayOfYear()) {
-            return capturedB.compareTo(capturedA);
-        }
+    // The album is read once, an album missing from the index is indexed from that read before access is checked
+    private Future<Album> findAccessibleAlbum(long userId, long albumId) {
+        return albumAccessIndex.findAlbum(albumId)
+                .compose(opt -> opt.map(Future::succeededFuture)
+                        .orElseGet(() -> failedFuture(new MissingItemException())))
+                .compose(album -> checkAccess(userId, albumId).map(album));
+    }
 
-        return uploadedB.compareTo(uploadedA);
+    private Future<AlbumAccess> checkAccess(long userId, long albumId) {
+        return albumAccessIndex.find(albumId)
+                .compose(opt -> opt.map(Future::succeededFuture)
+                        .orElseGet(() -> failedFuture(new MissingItemException())))
+                .compose(access -> access.canAccess(userId) ? succeededFuture(access) :
+                        failedFuture(new AuthorizationException("Album is missing or not available to user")));
     }
 }
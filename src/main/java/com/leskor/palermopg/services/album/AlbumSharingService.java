@@ -1,8 +1,10 @@
 package com.leskor.palermopg.services.album;
 
 import com.leskor.palermopg.dao.AlbumDao;
+import com.leskor.palermopg.entity.Album;
 import com.leskor.palermopg.exception.AuthorizationException;
 import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.security.AlbumAccessIndex;
 import io.vertx.core.Future;
 
 import java.util.ArrayList;
@@ -13,9 +15,11 @@ import static io.vertx.core.Future.succeededFuture;
 
 public class AlbumSharingService {
     private final AlbumDao dao;
+    private final AlbumAccessIndex albumAccessIndex;
 
-    public AlbumSharingService(AlbumDao dao) {
+    public AlbumSharingService(AlbumDao dao, AlbumAccessIndex albumAccessIndex) {
         this.dao = dao;
+        this.albumAccessIndex = albumAccessIndex;
     }
 
     public Future<Void> shareAlbum(long userId, long albumId, List<Long> sharedUsers) {
@@ -23,7 +27,12 @@ public class AlbumSharingService {
                 .compose(opt -> opt.map(Future::succeededFuture).orElseGet(() -> failedFuture(new MissingItemException())))
                 .compose(album -> album.userId() != userId ?
                         failedFuture(new AuthorizationException("Album is not available to user")) : succeededFuture(album))
-                .compose(album -> dao.updateSharedUsers(albumId, combineSharedUsers(album.sharedUsers(), sharedUsers)));
+                .compose(album -> {
+                    List<Long> combined = combineSharedUsers(album.sharedUsers(), sharedUsers);
+                    return dao.updateSharedUsers(albumId, combined)
+                            .onSuccess(updated -> albumAccessIndex.update(
+                                    Album.create(albumId, userId, null, combined, null)));
+                });
     }
 
     private List<Long> combineSharedUsers(List<Long> current, List<Long> toAdd) {
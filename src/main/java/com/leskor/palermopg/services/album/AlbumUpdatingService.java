@@ -4,21 +4,25 @@ import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.entity.Album;
 import com.leskor.palermopg.exception.AuthorizationException;
 import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.security.AlbumAccessIndex;
 import io.vertx.core.Future;
 
 import static io.vertx.core.Future.failedFuture;
 
 public class AlbumUpdatingService {
     private final AlbumDao dao;
+    private final AlbumAccessIndex albumAccessIndex;
 
-    public AlbumUpdatingService(AlbumDao dao) {
+    public AlbumUpdatingService(AlbumDao dao, AlbumAccessIndex albumAccessIndex) {
         this.dao = dao;
+        this.albumAccessIndex = albumAccessIndex;
     }
 
     public Future<Void> update(Album album) {
-        return dao.findById(album.id())
+        return albumAccessIndex.find(album.id())
                 .compose(opt -> opt.map(Future::succeededFuture).orElseGet(() -> failedFuture(new MissingItemException())))
-                .compose(a -> a.userId() == album.userId() ? dao.updateAlbum(album)
-                        : failedFuture(new AuthorizationException("Album is not available to user")));
+                .compose(access -> access.isOwner(album.userId()) ? dao.updateAlbum(album)
+                        : failedFuture(new AuthorizationException("Album is not available to user")))
+                .onSuccess(updated -> albumAccessIndex.update(album));
     }
 }
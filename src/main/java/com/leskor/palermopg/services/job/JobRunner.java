@@ -0,0 +1,100 @@
+package com.leskor.palermopg.services.job;
+
+import com.leskor.palermopg.dao.JobDao;
+import com.leskor.palermopg.entity.Job;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.vertx.core.Future.failedFuture;
+
+/**
+ * Leases jobs from the jobs collection and runs at most PIC_JOB_WORKERS of them at a time on this node.
+ * A job whose node stops renewing the lease is picked up again by any node once the lease expires.
+ */
+public class JobRunner {
+    private static final Logger logger = LoggerFactory.getLogger("Application");
+
+    static final Duration LEASE = Duration.ofMinutes(5);
+    private static final long POLL_INTERVAL_MS = 5_000;
+    private static final int DEFAULT_WORKERS = 2;
+
+    private final Vertx vertx;
+    private final JobDao jobDao;
+    private final int workers;
+    private final String owner = UUID.randomUUID().toString();
+    private final Map<String, JobTask> tasks = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+
+    public JobRunner(Vertx vertx, JobDao jobDao) {
+        this(vertx, jobDao, workersFromEnv());
+    }
+
+    JobRunner(Vertx vertx, JobDao jobDao, int workers) {
+        this.vertx = vertx;
+        this.jobDao = jobDao;
+        this.workers = workers;
+    }
+
+    public JobRunner register(JobTask task) {
+        tasks.put(task.type(), task);
+        return this;
+    }
+
+    public void start() {
+        vertx.setPeriodic(POLL_INTERVAL_MS, id -> poll());
+    }
+
+    void poll() {
+        if (active.incrementAndGet() > workers) {
+            active.decrementAndGet();
+            return;
+        }
+
+        jobDao.acquire(owner, LEASE).onComplete(acquired -> {
+            if (acquired.failed() || acquired.result().isEmpty()) {
+                active.decrementAndGet();
+                if (acquired.failed()) {
+                    logger.warn("Cannot acquire a job: {}", acquired.cause().getMessage());
+                }
+                return;
+            }
+
+            Job job = acquired.result().get();
+            execute(job).onComplete(done -> {
+                active.decrementAndGet();
+                poll();
+            });
+            poll();
+        });
+    }
+
+    private Future<Void> execute(Job job) {
+        JobTask task = tasks.get(job.type());
+        logger.info("Running job {} of type {} from checkpoint {}", job.id(), job.type(), job.checkpoint());
+
+        Future<Void> run = task == null ? failedFuture(new IllegalStateException("Unknown job type " + job.type()))
+                : task.run(job, (progress, total, checkpoint) ->
+                        jobDao.checkpoint(job.id(), owner, LEASE, progress, total, checkpoint));
+
+        return run
+                .compose(done -> jobDao.finish(job.id(), owner, Job.Status.DONE, null),
+                        cause -> {
+                            logger.warn("Job {} failed: {}", job.id(), cause.getMessage());
+                            return jobDao.finish(job.id(), owner, Job.Status.FAILED, cause.getMessage());
+                        })
+                .onFailure(cause -> logger.warn("Cannot finish job {}: {}", job.id(), cause.getMessage()));
+    }
+
+    private static int workersFromEnv() {
+        String workers = System.getenv("PIC_JOB_WORKERS");
+        return workers == null || workers.isBlank() ? DEFAULT_WORKERS : Integer.parseInt(workers);
+    }
+}
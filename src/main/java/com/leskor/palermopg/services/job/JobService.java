@@ -0,0 +1,33 @@
+package com.leskor.palermopg.services.job;
+
+import com.leskor.palermopg.dao.JobDao;
+import com.leskor.palermopg.entity.Job;
+import com.leskor.palermopg.exception.AuthorizationException;
+import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.security.Caller;
+import io.vertx.core.Future;
+
+import static io.vertx.core.Future.failedFuture;
+import static io.vertx.core.Future.succeededFuture;
+
+public class JobService {
+    private final JobDao jobDao;
+
+    public JobService(JobDao jobDao) {
+        this.jobDao = jobDao;
+    }
+
+    // Callers authorize the submission, the job is picked up by the JobRunner
+    public Future<Long> submit(String type, long userId) {
+        return jobDao.save(Job.create(type, userId));
+    }
+
+    public Future<Job> find(Caller caller, long jobId) {
+        return jobDao.findById(jobId)
+                .compose(opt -> opt.map(Future::succeededFuture)
+                        .orElseGet(() -> failedFuture(new MissingItemException())))
+                .compose(job -> caller.canManage(job.userId())
+                        ? succeededFuture(job)
+                        : failedFuture(new AuthorizationException("Job is not available to user")));
+    }
+}
@@ -0,0 +1,19 @@
+package com.leskor.palermopg.services.job;
+
+import com.leskor.palermopg.entity.Job;
+import io.vertx.core.Future;
+
+/**
+ * Work behind one job type. A task may be started again after a restart or a lost lease,
+ * so it must resume from {@link Job#checkpoint()} and tolerate repeating the step after it.
+ */
+public interface JobTask {
+    String type();
+
+    Future<Void> run(Job job, Progress progress);
+
+    interface Progress {
+        // Persists the checkpoint and renews the lease, fails once the lease has been lost
+        Future<Void> update(long progress, long total, long checkpoint);
+    }
+}
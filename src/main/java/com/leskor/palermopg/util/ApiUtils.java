@@ -2,14 +2,27 @@ package com.leskor.palermopg.util;
 
 import com.leskor.palermopg.exception.AuthorizationException;
 import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.exception.NotReadyException;
 import com.leskor.palermopg.exception.StorageLimitException;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static io.vertx.core.http.HttpHeaders.ACCEPT_ENCODING;
+import static io.vertx.core.http.HttpHeaders.CONTENT_ENCODING;
+import static io.vertx.core.http.HttpHeaders.VARY;
+
 public class ApiUtils {
     private static final Logger logger = LoggerFactory.getLogger("Application");
 
+    public static final String GZIP = "gzip";
+    public static final int GZIP_LEVEL = 6;
+    // Smaller bodies fit in a packet either way
+    private static final int MIN_GZIP_SIZE = 1024;
+
     public static void handleFailure(Throwable cause, HttpServerResponse response) {
         if (cause instanceof AuthorizationException) {
             cors(response.setStatusCode(401)).end();
@@ -19,6 +32,12 @@ public class ApiUtils {
             cors(response.setStatusCode(404)).end();
             return;
         }
+        if (cause instanceof NotReadyException nre) {
+            cors(response.setStatusCode(503))
+                    .putHeader("Retry-After", String.valueOf(nre.retryAfterSeconds()))
+                    .end();
+            return;
+        }
         if (cause instanceof StorageLimitException sle) {
             cors(response.setStatusCode(400)).end(sle.json());
             return;
@@ -27,10 +46,59 @@ public class ApiUtils {
         cors(response.setStatusCode(500)).end();
     }
 
+    // JSON is compressed with gzip when the client accepts it, pictures are never compressed again
+    public static void endJson(RoutingContext routingContext, String json) {
+        endJson(routingContext, new EncodedJson(Buffer.buffer(json)));
+    }
+
+    public static void endJson(RoutingContext routingContext, EncodedJson json) {
+        HttpServerResponse response = cors(routingContext.response()).putHeader(VARY, ACCEPT_ENCODING);
+        json.headers().forEach(response::putHeader);
+        if (json.size() < MIN_GZIP_SIZE || !acceptsGzip(routingContext.request())) {
+            response.end(json.body());
+            return;
+        }
+
+        json.gzip(routingContext.vertx())
+                .onSuccess(compressed -> response.putHeader(CONTENT_ENCODING, GZIP).end(compressed))
+                .onFailure(cause -> handleFailure(cause, response));
+    }
+
+    public static boolean acceptsGzip(HttpServerRequest request) {
+        String acceptEncoding = request.getHeader(ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            double quality = quality(parts);
+            if (parts[0].trim().equalsIgnoreCase(GZIP)) gzip = quality;
+            else if (parts[0].trim().equals("*")) any = quality;
+        }
+        return gzip > 0 || (gzip < 0 && any > 0);
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
     public static HttpServerResponse cors(HttpServerResponse response) {
         return response.putHeader("Access-Control-Allow-Headers", "content-type, authorization")
                 .putHeader("Access-Control-Allow-Origin", "*")
                 .putHeader("Access-Control-Allow-Methods", "GET, POST, DELETE, PATCH, OPTIONS")
+                .putHeader("Access-Control-Expose-Headers", "X-Next-Cursor, Location, ETag")
                 .putHeader("Access-Control-Max-Age", "-1");
     }
 }
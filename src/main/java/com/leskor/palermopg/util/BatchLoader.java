@@ -0,0 +1,93 @@
+package com.leskor.palermopg.util;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Coalesces single-key lookups issued on one event loop into a single batch query. Keys are collected until the
+ * current loop tick is over or the batch is full, identical keys share one result. Lookups made outside of a Vert.x
+ * context, such as those chained on a DAO future that completed on a driver thread, are handed over to a context of
+ * the loader's own and batched there.
+ */
+public class BatchLoader<K, V> {
+    static final int MAX_BATCH_SIZE = 500;
+
+    private static final AtomicLong instances = new AtomicLong();
+
+    private final Context fallbackContext;
+    private final Function<Set<K>, Future<List<V>>> batchLookup;
+    private final Function<V, K> keyOf;
+    private final String contextKey = "batchLoader." + instances.incrementAndGet();
+
+    public BatchLoader(Vertx vertx, Function<Set<K>, Future<List<V>>> batchLookup, Function<V, K> keyOf) {
+        this.fallbackContext = vertx.getOrCreateContext();
+        this.batchLookup = batchLookup;
+        this.keyOf = keyOf;
+    }
+
+    public Future<Optional<V>> load(K key) {
+        Context context = Vertx.currentContext();
+        if (context == null) {
+            Promise<Optional<V>> result = Promise.promise();
+            fallbackContext.runOnContext(v -> enqueue(fallbackContext, key).onComplete(result));
+            return result.future();
+        }
+        return enqueue(context, key);
+    }
+
+    private Future<Optional<V>> enqueue(Context context, K key) {
+        Batch<K, V> batch = context.get(contextKey);
+        if (batch == null) {
+            Batch<K, V> created = new Batch<>();
+            context.put(contextKey, created);
+            context.runOnContext(v -> flush(context, created));
+            batch = created;
+        }
+
+        Future<Optional<V>> result = batch.add(key);
+        if (batch.promises.size() >= MAX_BATCH_SIZE) {
+            flush(context, batch);
+        }
+        return result;
+    }
+
+    private void flush(Context context, Batch<K, V> batch) {
+        if (context.get(contextKey) == batch) {
+            context.remove(contextKey);
+        }
+        if (!batch.dispatched) {
+            dispatch(batch);
+        }
+    }
+
+    private void dispatch(Batch<K, V> batch) {
+        batch.dispatched = true;
+        batchLookup.apply(Set.copyOf(batch.promises.keySet()))
+                .onSuccess(values -> {
+                    Map<K, V> byKey = new HashMap<>();
+                    values.forEach(value -> byKey.put(keyOf.apply(value), value));
+                    batch.promises.forEach((key, promise) -> promise.complete(Optional.ofNullable(byKey.get(key))));
+                })
+                .onFailure(cause -> batch.promises.values().forEach(promise -> promise.fail(cause)));
+    }
+
+    private static class Batch<K, V> {
+        private final Map<K, Promise<Optional<V>>> promises = new LinkedHashMap<>();
+        private boolean dispatched;
+
+        private Future<Optional<V>> add(K key) {
+            return promises.computeIfAbsent(key, k -> Promise.promise()).future();
+        }
+    }
+}
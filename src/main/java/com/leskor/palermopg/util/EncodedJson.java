@@ -0,0 +1,81 @@
+package com.leskor.palermopg.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * An encoded JSON body together with its gzip form and the headers that go with it. The gzip form is made on the
+ * first request that accepts it and kept, so a cached body is compressed once however often it is served.
+ */
+public class EncodedJson {
+    // Larger bodies are compressed on a worker thread
+    private static final int MAX_INLINE_GZIP_SIZE = 256 * 1024;
+
+    private final Buffer body;
+    private final Map<String, String> headers;
+    private Future<Buffer> gzip;
+    private IntConsumer gzipListener;
+
+    public EncodedJson(Buffer body) {
+        this(body, Map.of());
+    }
+
+    public EncodedJson(Buffer body, Map<String, String> headers) {
+        this.body = body;
+        this.headers = headers;
+    }
+
+    public Buffer body() {
+        return body;
+    }
+
+    public Map<String, String> headers() {
+        return headers;
+    }
+
+    public int size() {
+        return body.length();
+    }
+
+    public Future<Buffer> gzip(Vertx vertx) {
+        Future<Buffer> made;
+        synchronized (this) {
+            if (gzip != null && !gzip.failed()) {
+                return gzip;
+            }
+            gzip = body.length() <= MAX_INLINE_GZIP_SIZE
+                    ? Future.succeededFuture(GzipStream.gzip(body, ApiUtils.GZIP_LEVEL))
+                    : vertx.executeBlocking(call -> call.complete(GzipStream.gzip(body, ApiUtils.GZIP_LEVEL)), false);
+            made = gzip;
+        }
+        return made.onSuccess(compressed -> gzipped(compressed.length()));
+    }
+
+    /**
+     * @param onGzip told the size of the gzip form if it is made later, so a cache keeping this body can count it
+     * @return bytes held so far, the body plus its gzip form once made
+     */
+    synchronized long trackSize(IntConsumer onGzip) {
+        if (gzip != null && gzip.succeeded()) {
+            return (long) body.length() + gzip.result().length();
+        }
+        gzipListener = onGzip;
+        return body.length();
+    }
+
+    // The listener is called without holding this lock, it takes the lock of the cache
+    private void gzipped(int length) {
+        IntConsumer listener;
+        synchronized (this) {
+            listener = gzipListener;
+            gzipListener = null;
+        }
+        if (listener != null) {
+            listener.accept(length);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.leskor.palermopg.util;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a body written in pieces into a single gzip member. Every call returns the compressed bytes that are
+ * ready to be sent, which may be none until the deflater has gathered enough input or is flushed.
+ */
+public class GzipStream {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[8192];
+    private boolean headerWritten;
+
+    public GzipStream(int level) {
+        this.deflater = new Deflater(level, true);
+    }
+
+    public static Buffer gzip(Buffer data, int level) {
+        GzipStream stream = new GzipStream(level);
+        return stream.write(data).appendBuffer(stream.finish());
+    }
+
+    public Buffer write(Buffer data) {
+        byte[] bytes = data.getBytes();
+        crc.update(bytes);
+        deflater.setInput(bytes);
+        Buffer out = header();
+        while (!deflater.needsInput()) {
+            deflate(out, Deflater.NO_FLUSH);
+        }
+        return out;
+    }
+
+    // Pushes everything written so far to the output, so a client can start parsing before the body ends
+    public Buffer flush() {
+        Buffer out = header();
+        int length;
+        do {
+            length = deflate(out, Deflater.SYNC_FLUSH);
+        } while (length == chunk.length);
+        return out;
+    }
+
+    public Buffer finish() {
+        Buffer out = header();
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(out, Deflater.NO_FLUSH);
+        }
+        out.appendIntLE((int) crc.getValue()).appendIntLE((int) deflater.getBytesRead());
+        close();
+        return out;
+    }
+
+    // Releases the native memory of the deflater, for bodies that are abandoned before they finish
+    public void close() {
+        deflater.end();
+    }
+
+    private Buffer header() {
+        Buffer out = Buffer.buffer();
+        if (!headerWritten) {
+            out.appendBytes(HEADER);
+            headerWritten = true;
+        }
+        return out;
+    }
+
+    private int deflate(Buffer out, int flush) {
+        int length = deflater.deflate(chunk, 0, chunk.length, flush);
+        out.appendBytes(chunk, 0, length);
+        return length;
+    }
+}
@@ -0,0 +1,74 @@
+package com.leskor.palermopg.util;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the items of a list while respecting subscriber demand, used where a database cursor is not available.
+ */
+public class ListPublisher<T> implements Publisher<T> {
+    private final List<T> items;
+
+    public ListPublisher(List<T> items) {
+        this.items = items;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        subscriber.onSubscribe(new ListSubscription<>(items, subscriber));
+    }
+
+    private static class ListSubscription<T> implements Subscription {
+        private final List<T> items;
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicBoolean emitting = new AtomicBoolean();
+
+        private volatile boolean cancelled;
+        private int next;
+
+        private ListSubscription(List<T> items, Subscriber<? super T> subscriber) {
+            this.items = items;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " items"));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            emit();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        // Requests made from onNext only add demand, the loop already running picks them up
+        private void emit() {
+            while (emitting.compareAndSet(false, true)) {
+                while (!cancelled && next < items.size() && demand.get() > 0) {
+                    demand.decrementAndGet();
+                    subscriber.onNext(items.get(next++));
+                }
+                if (!cancelled && next == items.size()) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                }
+                emitting.set(false);
+                if (cancelled || demand.get() == 0) {
+                    return;
+                }
+            }
+        }
+    }
+}
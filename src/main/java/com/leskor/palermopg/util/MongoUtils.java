@@ -6,14 +6,19 @@ import com.mongodb.reactivestreams.client.MongoCollection;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
 public class MongoUtils {
     public static <T> Future<Void> setField(MongoCollection<Document> collection, long id, String field, T value) {
-        Promise<Void> resultPromise = Promise.promise();
-
         BasicDBObject query = new BasicDBObject();
         query.put("id", id);
 
+        return setField(collection, query, field, value);
+    }
+
+    public static <T> Future<Void> setField(MongoCollection<Document> collection, Bson query, String field, T value) {
+        Promise<Void> resultPromise = Promise.promise();
+
         BasicDBObject newDoc = new BasicDBObject();
         newDoc.put(field, value);
 
@@ -0,0 +1,18 @@
+package com.leskor.palermopg.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+public class PageCursor {
+    public static String encode(String sortKey) {
+        return sortKey == null ? null
+                : Base64.getUrlEncoder().withoutPadding().encodeToString(sortKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            throw new IllegalArgumentException("Cursor is empty");
+        }
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,161 @@
+package com.leskor.palermopg.util;
+
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.Json;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.function.Function;
+
+import static com.leskor.palermopg.util.ApiUtils.handleFailure;
+import static io.vertx.core.http.HttpHeaders.CONTENT_ENCODING;
+
+/**
+ * Writes a stream of documents to a chunked response as a JSON array, optionally compressed with gzip.
+ * Documents are requested in batches and the next batch is only requested once the write queue has drained.
+ * All signals are handled on the context of the request, so writes stay ordered and on the event loop.
+ */
+public class ReactiveResponseSubscriber<T> implements Subscriber<T> {
+    public static final int BATCH_SIZE = 128;
+
+    private final Context context;
+    private final HttpServerResponse response;
+    private final Function<T, ?> toJson;
+    private final GzipStream gzip;
+
+    private Subscription subscription;
+    private int pending = 0;
+    private boolean started = false;
+    private boolean closed = false;
+
+    public static <T> ReactiveResponseSubscriber<T> forJsonArray(Context context, HttpServerResponse response,
+                                                                 Function<T, ?> toJson) {
+        return new ReactiveResponseSubscriber<>(context, response, toJson, false);
+    }
+
+    public static <T> ReactiveResponseSubscriber<T> forGzipJsonArray(Context context, HttpServerResponse response,
+                                                                     Function<T, ?> toJson) {
+        return new ReactiveResponseSubscriber<>(context, response, toJson, true);
+    }
+
+    protected ReactiveResponseSubscriber(Context context, HttpServerResponse response, Function<T, ?> toJson,
+                                         boolean gzip) {
+        this(context, response, toJson, gzip ? new GzipStream(ApiUtils.GZIP_LEVEL) : null);
+    }
+
+    ReactiveResponseSubscriber(Context context, HttpServerResponse response, Function<T, ?> toJson,
+                               GzipStream gzip) {
+        this.context = context;
+        this.response = response;
+        this.toJson = toJson;
+        this.gzip = gzip;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        context.runOnContext(v -> {
+            this.subscription = subscription;
+            response.closeHandler(closed -> {
+                this.closed = true;
+                subscription.cancel();
+                closeGzip();
+            });
+            requestBatch();
+        });
+    }
+
+    @Override
+    public void onNext(T next) {
+        context.runOnContext(v -> {
+            if (closed) {
+                return;
+            }
+            if (!started) {
+                startBody();
+                response.setChunked(true);
+                write("[");
+                started = true;
+            } else {
+                write(",");
+            }
+            write(Json.encode(toJson.apply(next)));
+
+            if (--pending > 0) {
+                return;
+            }
+            if (gzip != null) {
+                response.write(gzip.flush());
+            }
+            if (response.writeQueueFull()) {
+                response.drainHandler(drained -> requestBatch());
+            } else {
+                requestBatch();
+            }
+        });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        context.runOnContext(v -> {
+            if (closed) {
+                return;
+            }
+            closeGzip();
+            if (started) {
+                response.reset();
+            } else {
+                handleFailure(throwable, response);
+            }
+        });
+    }
+
+    @Override
+    public void onComplete() {
+        context.runOnContext(v -> {
+            if (closed) {
+                return;
+            }
+            String last = started ? "]" : "[]";
+            if (!started) {
+                startBody();
+            }
+            if (gzip == null) {
+                response.end(last);
+            } else {
+                response.end(gzip.write(Buffer.buffer(last)).appendBuffer(gzip.finish()));
+            }
+        });
+    }
+
+    // Failures before the first document are answered without a body, so only a started body is marked as gzip
+    private void startBody() {
+        if (gzip != null) {
+            response.putHeader(CONTENT_ENCODING, ApiUtils.GZIP);
+        }
+    }
+
+    private void write(String json) {
+        if (gzip == null) {
+            response.write(json);
+            return;
+        }
+        Buffer compressed = gzip.write(Buffer.buffer(json));
+        if (compressed.length() > 0) {
+            response.write(compressed);
+        }
+    }
+
+    private void closeGzip() {
+        if (gzip != null) {
+            gzip.close();
+        }
+    }
+
+    private void requestBatch() {
+        response.drainHandler(null);
+        pending = BATCH_SIZE;
+        subscription.request(BATCH_SIZE);
+    }
+}
@@ -0,0 +1,107 @@
+package com.leskor.palermopg.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps encoded JSON responses together with the version of the data they were built from. An entry is only served
+ * while the version is current, so writers never invalidate entries, they bump versions. Least recently used entries
+ * are dropped once the bodies, with the gzip forms made of them, take more than the configured number of bytes.
+ */
+public class ResponseCache {
+    private static final long DEFAULT_MAX_MB = 64;
+
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Counter hits;
+    private final Counter misses;
+    private long bytes;
+
+    public ResponseCache() {
+        this(maxMbFromEnv() * 1024 * 1024, BackendRegistries.getDefaultNow());
+    }
+
+    ResponseCache(long maxBytes, MeterRegistry registry) {
+        this.maxBytes = maxBytes;
+        this.hits = counter(registry, "hit");
+        this.misses = counter(registry, "miss");
+    }
+
+    public synchronized Optional<EncodedJson> get(String key, long version) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version != version) {
+            if (misses != null) misses.increment();
+            return Optional.empty();
+        }
+        if (hits != null) hits.increment();
+        return Optional.of(entry.json);
+    }
+
+    // An entry built from an older version than the one cached is dropped, it is stale already
+    public synchronized void put(String key, long version, EncodedJson json) {
+        if (json.size() > maxBytes / 8) {
+            return;
+        }
+        Entry current = entries.get(key);
+        if (current != null) {
+            if (current.version > version) return;
+            drop(current);
+        }
+        Entry entry = new Entry(version, json);
+        entry.size = json.trackSize(gzipped -> grow(entry, gzipped));
+        entries.put(key, entry);
+        bytes += entry.size;
+        evict();
+    }
+
+    // Gzip forms are made after the body is cached, on the first request accepting them
+    private synchronized void grow(Entry entry, int gzipped) {
+        if (!entry.cached) return;
+        entry.size += gzipped;
+        bytes += gzipped;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            drop(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private void drop(Entry entry) {
+        entry.cached = false;
+        bytes -= entry.size;
+    }
+
+    private static Counter counter(MeterRegistry registry, String result) {
+        return registry == null ? null : Counter.builder("pic.response.cache")
+                .description("Lookups of cached JSON responses")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static long maxMbFromEnv() {
+        String mb = System.getenv("PIC_RESPONSE_CACHE_MB");
+        return mb == null || mb.isBlank() ? DEFAULT_MAX_MB : Long.parseLong(mb);
+    }
+
+    private static class Entry {
+        private final long version;
+        private final EncodedJson json;
+        private long size;
+        private boolean cached = true;
+
+        private Entry(long version, EncodedJson json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
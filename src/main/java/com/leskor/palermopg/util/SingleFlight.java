@@ -0,0 +1,51 @@
+package com.leskor.palermopg.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent calls for the same key share one in-flight future. Callers that join a running call are counted
+ * in the pic.coalesced.requests metric. Joined callers receive the same result instance, so it must not be mutated.
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, Future<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    public SingleFlight(String operation) {
+        this(operation, BackendRegistries.getDefaultNow());
+    }
+
+    SingleFlight(String operation, MeterRegistry registry) {
+        this.coalesced = registry == null ? null : Counter.builder("pic.coalesced.requests")
+                .description("Requests served by joining an identical call already in flight")
+                .tag("operation", operation)
+                .register(registry);
+    }
+
+    public Future<V> execute(K key, Supplier<Future<V>> call) {
+        Promise<V> promise = Promise.promise();
+        Future<V> running = inFlight.putIfAbsent(key, promise.future());
+        if (running != null) {
+            if (coalesced != null) coalesced.increment();
+            return running;
+        }
+
+        try {
+            call.get().onComplete(result -> {
+                inFlight.remove(key, promise.future());
+                promise.handle(result);
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, promise.future());
+            promise.fail(e);
+        }
+        return promise.future();
+    }
+}
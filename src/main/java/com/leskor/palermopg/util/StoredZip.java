@@ -0,0 +1,154 @@
+package com.leskor.palermopg.util;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes ZIP records for STORED (uncompressed) entries, switching to ZIP64 fields when sizes, offsets or the entry
+ * count exceed the classic limits. Sizes and CRCs are written up front, so no data descriptors are used.
+ */
+public class StoredZip {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    public static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    public static Buffer localHeader(String name, long size, long crc, LocalDateTime modified) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean zip64 = size >= MAX_32;
+
+        Buffer header = Buffer.buffer(localHeaderSize(name, size))
+                .appendIntLE(LOCAL_HEADER_SIGNATURE)
+                .appendShortLE((short) (zip64 ? VERSION_ZIP64 : VERSION))
+                .appendShortLE((short) FLAG_UTF8)
+                .appendShortLE((short) 0)
+                .appendIntLE(dosTime(modified))
+                .appendIntLE((int) crc)
+                .appendIntLE((int) (zip64 ? MAX_32 : size))
+                .appendIntLE((int) (zip64 ? MAX_32 : size))
+                .appendShortLE((short) nameBytes.length)
+                .appendShortLE((short) (zip64 ? 20 : 0))
+                .appendBytes(nameBytes);
+
+        if (zip64) {
+            header.appendShortLE((short) ZIP64_EXTRA_ID)
+                    .appendShortLE((short) 16)
+                    .appendLongLE(size)
+                    .appendLongLE(size);
+        }
+        return header;
+    }
+
+    public static int localHeaderSize(String name, long size) {
+        return 30 + name.getBytes(StandardCharsets.UTF_8).length + (size >= MAX_32 ? 20 : 0);
+    }
+
+    public static Buffer centralHeader(String name, long size, long crc, LocalDateTime modified, long offset) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean zip64Size = size >= MAX_32;
+        boolean zip64Offset = offset >= MAX_32;
+        int extraSize = (zip64Size ? 16 : 0) + (zip64Offset ? 8 : 0);
+
+        Buffer header = Buffer.buffer(centralHeaderSize(name, size, offset))
+                .appendIntLE(CENTRAL_HEADER_SIGNATURE)
+                .appendShortLE((short) VERSION_ZIP64)
+                .appendShortLE((short) (extraSize > 0 ? VERSION_ZIP64 : VERSION))
+                .appendShortLE((short) FLAG_UTF8)
+                .appendShortLE((short) 0)
+                .appendIntLE(dosTime(modified))
+                .appendIntLE((int) crc)
+                .appendIntLE((int) (zip64Size ? MAX_32 : size))
+                .appendIntLE((int) (zip64Size ? MAX_32 : size))
+                .appendShortLE((short) nameBytes.length)
+                .appendShortLE((short) (extraSize > 0 ? extraSize + 4 : 0))
+                .appendShortLE((short) 0)
+                .appendShortLE((short) 0)
+                .appendShortLE((short) 0)
+                .appendIntLE(0)
+                .appendIntLE((int) (zip64Offset ? MAX_32 : offset))
+                .appendBytes(nameBytes);
+
+        if (extraSize > 0) {
+            header.appendShortLE((short) ZIP64_EXTRA_ID).appendShortLE((short) extraSize);
+            if (zip64Size) {
+                header.appendLongLE(size).appendLongLE(size);
+            }
+            if (zip64Offset) {
+                header.appendLongLE(offset);
+            }
+        }
+        return header;
+    }
+
+    public static int centralHeaderSize(String name, long size, long offset) {
+        int extraSize = (size >= MAX_32 ? 16 : 0) + (offset >= MAX_32 ? 8 : 0);
+        return 46 + name.getBytes(StandardCharsets.UTF_8).length + (extraSize > 0 ? extraSize + 4 : 0);
+    }
+
+    public static Buffer end(long entries, long centralDirectorySize, long centralDirectoryOffset) {
+        boolean zip64 = entries >= MAX_16 || centralDirectorySize >= MAX_32 || centralDirectoryOffset >= MAX_32;
+        Buffer end = Buffer.buffer(endSize(entries, centralDirectorySize, centralDirectoryOffset));
+
+        if (zip64) {
+            long zip64EndOffset = centralDirectoryOffset + centralDirectorySize;
+            end.appendIntLE(ZIP64_END_SIGNATURE)
+                    .appendLongLE(44)
+                    .appendShortLE((short) VERSION_ZIP64)
+                    .appendShortLE((short) VERSION_ZIP64)
+                    .appendIntLE(0)
+                    .appendIntLE(0)
+                    .appendLongLE(entries)
+                    .appendLongLE(entries)
+                    .appendLongLE(centralDirectorySize)
+                    .appendLongLE(centralDirectoryOffset)
+                    .appendIntLE(ZIP64_LOCATOR_SIGNATURE)
+                    .appendIntLE(0)
+                    .appendLongLE(zip64EndOffset)
+                    .appendIntLE(1);
+        }
+
+        return end.appendIntLE(END_SIGNATURE)
+                .appendShortLE((short) 0)
+                .appendShortLE((short) 0)
+                .appendShortLE((short) (zip64 ? MAX_16 : entries))
+                .appendShortLE((short) (zip64 ? MAX_16 : entries))
+                .appendIntLE((int) (zip64 ? MAX_32 : centralDirectorySize))
+                .appendIntLE((int) (zip64 ? MAX_32 : centralDirectoryOffset))
+                .appendShortLE((short) 0);
+    }
+
+    public static int endSize(long entries, long centralDirectorySize, long centralDirectoryOffset) {
+        boolean zip64 = entries >= MAX_16 || centralDirectorySize >= MAX_32 || centralDirectoryOffset >= MAX_32;
+        return 22 + (zip64 ? 56 + 20 : 0);
+    }
+
+    private static int dosTime(LocalDateTime time) {
+        if (time == null || time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+}
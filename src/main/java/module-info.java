@@ -8,6 +8,7 @@ module com.leskor.palermopg {
     requires io.vertx.core;
     requires io.vertx.web;
     requires io.vertx.metrics.micrometer;
+    requires micrometer.core;
 
     // Annotations for JSON fields
     requires com.fasterxml.jackson.annotation;
@@ -27,7 +28,12 @@ module com.leskor.palermopg {
     requires metadata.extractor;
     requires java.desktop;
 
+    opens com.leskor.palermopg;
+    opens com.leskor.palermopg.dao.impl;
     opens com.leskor.palermopg.services;
     opens com.leskor.palermopg.services.album;
+    opens com.leskor.palermopg.services.job;
     opens com.leskor.palermopg.entity;
+    opens com.leskor.palermopg.security;
+    opens com.leskor.palermopg.util;
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package com.leskor.palermopg;
+
+import com.leskor.palermopg.handlers.AlbumHandler;
+import com.leskor.palermopg.handlers.JobHandler;
+import com.leskor.palermopg.handlers.PictureHandler;
+import com.leskor.palermopg.handlers.StorageHandler;
+import com.leskor.palermopg.security.Caller;
+import com.leskor.palermopg.security.JWTParser;
+import com.leskor.palermopg.security.PictureUrlSigner;
+import com.leskor.palermopg.security.RequestLimiter;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.RoutingContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HttpVerticleTest {
+    private static final String TOKEN = "token-of-42";
+    private static final long USER_ID = 42;
+
+    private Vertx vertx;
+    private HttpServer server;
+    private HttpClient client;
+    private PictureHandler pictureHandler;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        vertx = Vertx.vertx();
+
+        JWTParser jwtParser = mock(JWTParser.class);
+        when(jwtParser.parse(any())).thenReturn(Caller.ANONYMOUS);
+        when(jwtParser.parse(TOKEN)).thenReturn(new Caller(USER_ID, false, false));
+        when(jwtParser.parse("Bearer " + TOKEN)).thenReturn(new Caller(USER_ID, false, false));
+
+        pictureHandler = mock(PictureHandler.class);
+        doAnswer(invocation -> endOk(invocation.getArgument(0))).when(pictureHandler).rotate(any());
+        AlbumHandler albumHandler = mock(AlbumHandler.class);
+        doAnswer(invocation -> {
+            RoutingContext ctx = invocation.getArgument(0);
+            if (Caller.of(ctx).canActAs(USER_ID)) endOk(ctx);
+            else ctx.response().setStatusCode(401).end();
+            return null;
+        }).when(albumHandler).downloadAlbum(any());
+
+        HttpVerticle verticle = new HttpVerticle(jwtParser, mock(PictureUrlSigner.class), pictureHandler, albumHandler,
+                mock(StorageHandler.class), mock(JobHandler.class), null, new RequestLimiter());
+        verticle.init(vertx, vertx.getOrCreateContext());
+        server = vertx.createHttpServer().requestHandler(verticle.createRouter()).listen(0)
+                .toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        client = vertx.createHttpClient();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void mutatingRouteIgnoresTokenCookie() throws Exception {
+        assertEquals(401, send(HttpMethod.POST, "/pic/42/7/rotate", "Cookie", "token=" + TOKEN));
+        verify(pictureHandler, never()).rotate(any());
+
+        assertEquals(200, send(HttpMethod.POST, "/pic/42/7/rotate", "Authorization", "Bearer " + TOKEN));
+    }
+
+    @Test
+    void downloadAcceptsTokenCookie() throws Exception {
+        assertEquals(200, send(HttpMethod.GET, "/album/42/3/download", "Cookie", "token=" + TOKEN));
+    }
+
+    private int send(HttpMethod method, String uri, String header, String value) throws Exception {
+        return client.request(method, server.actualPort(), "localhost", uri)
+                .compose(request -> request.putHeader(header, value).send())
+                .map(HttpClientResponse::statusCode)
+                .toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    private static Void endOk(RoutingContext ctx) {
+        ctx.response().end();
+        return null;
+    }
+}
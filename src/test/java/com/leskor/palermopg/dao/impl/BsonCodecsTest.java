@@ -0,0 +1,116 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.entity.Album;
+import com.leskor.palermopg.entity.PictureMeta;
+import org.bson.BsonArray;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import static java.time.ZoneOffset.UTC;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BsonCodecsTest {
+    private static final LocalDateTime
+            UPLOADED = LocalDateTime.of(2021, 3, 4, 10, 20, 30),
+            CAPTURED = LocalDateTime.of(2020, 1, 2, 3, 4, 5);
+
+    private final PictureMetaCodec pictureMetaCodec = new PictureMetaCodec();
+    private final AlbumCodec albumCodec = new AlbumCodec();
+
+    @Test
+    void pictureMetaRoundTrip() {
+        PictureMeta meta = new PictureMeta(7, 1, 2, 1024, "a.jpg", "a_opt.jpg", UPLOADED, CAPTURED, UPLOADED);
+
+        BsonDocument document = encode(pictureMetaCodec, meta);
+        PictureMeta decoded = decode(pictureMetaCodec, document);
+
+        assertEquals(meta.sortKey(), document.getString("sortKey").getValue());
+        assertEquals(UPLOADED.toInstant(UTC).toEpochMilli(), document.getDateTime("dateUploaded").getValue());
+        assertEquals(new PictureMeta(7, 1, 2, 1024, "a.jpg", "a_opt.jpg", fromUtc(UPLOADED), fromUtc(CAPTURED),
+                fromUtc(UPLOADED)), decoded);
+    }
+
+    @Test
+    void pictureMetaWithoutCaptureDateSortsByUploadDate() {
+        PictureMeta meta = new PictureMeta(7, 1, 2, 1024, "a.jpg", null, UPLOADED, null, UPLOADED);
+
+        BsonDocument document = encode(pictureMetaCodec, meta);
+
+        assertEquals(new PictureMeta(7, 1, 2, 1024, "a.jpg", null, UPLOADED, UPLOADED, UPLOADED).sortKey(),
+                document.getString("sortKey").getValue());
+        assertNull(decode(pictureMetaCodec, document).dateCaptured());
+    }
+
+    @Test
+    void pictureMetaWithoutAlbumOmitsAlbumId() {
+        PictureMeta meta = new PictureMeta(7, 1, -1, 1024, "a.jpg", null, UPLOADED, CAPTURED, UPLOADED);
+
+        BsonDocument document = encode(pictureMetaCodec, meta);
+
+        assertFalse(document.containsKey("albumId"));
+        assertEquals(-1, decode(pictureMetaCodec, document).albumId());
+    }
+
+    @Test
+    void projectedPictureMetaKeepsDefaults() {
+        BsonDocument document = new BsonDocument()
+                .append("id", new BsonInt32(7))
+                .append("path", new BsonString("a.jpg"))
+                .append("dateUploaded", new BsonDateTime(UPLOADED.toInstant(UTC).toEpochMilli()))
+                .append("unknown", new BsonArray(List.of(new BsonString("skipped"))));
+
+        PictureMeta decoded = decode(pictureMetaCodec, document);
+
+        assertEquals(new PictureMeta(7, -1, -1, -1, "a.jpg", null, fromUtc(UPLOADED), null, fromUtc(UPLOADED)),
+                decoded);
+    }
+
+    @Test
+    void albumRoundTrip() {
+        Album album = Album.create(3, 1, "Holidays", List.of(2L, 4L), true);
+
+        assertEquals(album, decode(albumCodec, encode(albumCodec, album)));
+    }
+
+    @Test
+    void legacyAlbumDefaultsToNonChronologicalOrder() {
+        BsonDocument document = new BsonDocument()
+                .append("id", new BsonInt64(3))
+                .append("userId", new BsonInt64(1))
+                .append("name", new BsonString("Holidays"));
+
+        Album decoded = decode(albumCodec, document);
+
+        assertEquals(Album.create(3, 1, "Holidays", null, false), decoded);
+        assertNull(decoded.sharedUsers());
+    }
+
+    private static <T> BsonDocument encode(Codec<T> codec, T value) {
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), value, EncoderContext.builder().build());
+        return document;
+    }
+
+    private static <T> T decode(Codec<T> codec, BsonDocument document) {
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    private static LocalDateTime fromUtc(LocalDateTime dateTime) {
+        return LocalDateTime.ofInstant(dateTime.toInstant(UTC), ZoneId.systemDefault());
+    }
+}
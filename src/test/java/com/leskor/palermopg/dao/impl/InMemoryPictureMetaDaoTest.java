@@ -0,0 +1,86 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.entity.PictureMeta;
+import com.leskor.palermopg.entity.PicturePage;
+import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.util.ReactiveListSubscriber;
+import io.vertx.core.Promise;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryPictureMetaDaoTest {
+    private static final long ALBUM_ID = 5;
+    private static final LocalDateTime UPLOADED = LocalDateTime.of(2021, 3, 4, 10, 20, 30);
+
+    private InMemoryPictureMetaDao dao;
+
+    @BeforeEach
+    void setUp() {
+        dao = new InMemoryPictureMetaDao();
+        for (int minutes = 0; minutes < 5; minutes++) {
+            dao.save(picture(UPLOADED.minusMinutes(minutes)));
+        }
+    }
+
+    @Test
+    void pagesThroughAlbumInSortOrder() {
+        PicturePage first = dao.findPageForAlbumId(ALBUM_ID, true, null, 2).result();
+        PicturePage second = dao.findPageForAlbumId(ALBUM_ID, true, first.nextSortKey(), 2).result();
+        PicturePage last = dao.findPageForAlbumId(ALBUM_ID, true, second.nextSortKey(), 2).result();
+
+        assertEquals(List.of(5L, 4L), ids(first.pictures()));
+        assertEquals(List.of(3L, 2L), ids(second.pictures()));
+        assertEquals(List.of(1L), ids(last.pictures()));
+        assertNull(last.nextSortKey());
+    }
+
+    @Test
+    void streamsSortedIds() {
+        Promise<List<PictureMeta>> streamed = Promise.promise();
+
+        dao.streamSortedIdsForAlbumId(ALBUM_ID, false)
+                .subscribe(ReactiveListSubscriber.forPromise(streamed, meta -> meta));
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), ids(streamed.future().result()));
+    }
+
+    @Test
+    void tombstonesAreHiddenUntilPurged() {
+        assertTrue(dao.markDeletedById(2).succeeded());
+        assertEquals(4L, dao.markDeletedForAlbumId(ALBUM_ID).result());
+
+        assertEquals(Optional.empty(), dao.find(2).result());
+        assertEquals(List.of(), dao.findForAlbumId(ALBUM_ID).result());
+        assertEquals(List.of(2L, 1L), ids(dao.findDeleted(2).result()));
+        assertTrue(dao.markDeletedById(2).cause() instanceof MissingItemException);
+
+        assertEquals(2L, dao.purgeDeleted(List.of(1L, 2L)).result());
+        assertEquals(List.of(3L, 4L, 5L), ids(dao.findDeleted(10).result()));
+    }
+
+    @Test
+    void updateWithoutChangeFailsLikeMongo() {
+        LocalDateTime modified = UPLOADED.plusDays(1);
+
+        assertTrue(dao.setLastModified(1, modified).succeeded());
+        assertTrue(dao.setLastModified(1, modified).cause() instanceof MissingItemException);
+        assertTrue(dao.setOriginalChecksum(404, 10, 20).cause() instanceof MissingItemException);
+        assertEquals(modified, dao.find(1).result().orElseThrow().dateModified());
+    }
+
+    private static PictureMeta picture(LocalDateTime captured) {
+        return new PictureMeta(-1, 1, ALBUM_ID, 10, "a.jpg", null, UPLOADED, captured, UPLOADED);
+    }
+
+    private static List<Long> ids(List<PictureMeta> pictures) {
+        return pictures.stream().map(PictureMeta::id).toList();
+    }
+}
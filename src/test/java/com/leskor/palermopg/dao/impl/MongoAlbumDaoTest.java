@@ -0,0 +1,82 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.entity.Album;
+import com.leskor.palermopg.exception.MissingItemException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+class MongoAlbumDaoTest {
+    private static final long ALBUM_ID = 42;
+
+    private MongoCollection<Document> documents;
+    private MongoAlbumDao dao;
+
+    @BeforeEach
+    void setUp() {
+        MongoClient client = mock(MongoClient.class);
+        MongoDatabase database = mock(MongoDatabase.class);
+        documents = mock(MongoCollection.class);
+
+        when(client.getDatabase(any())).thenReturn(database);
+        when(database.getCollection(anyString())).thenReturn(documents);
+        // Nothing matches a deleted album, so the update reports no modification
+        Publisher<UpdateResult> unmodified = subscriber -> {
+            subscriber.onSubscribe(mock(Subscription.class));
+            subscriber.onNext(UpdateResult.acknowledged(0, 0L, null));
+            subscriber.onComplete();
+        };
+        when(documents.updateOne(any(Bson.class), any(Bson.class))).thenReturn(unmodified);
+
+        dao = new MongoAlbumDao(client, mock(Vertx.class));
+    }
+
+    @Test
+    void renameSkipsDeletedAlbum() {
+        assertSkipsDeletedAlbum(() -> dao.renameAlbum(ALBUM_ID, "Trip"));
+    }
+
+    @Test
+    void updateSkipsDeletedAlbum() {
+        assertSkipsDeletedAlbum(() -> dao.updateAlbum(Album.create(ALBUM_ID, 1, "Trip", List.of(), true)));
+    }
+
+    @Test
+    void sharingSkipsDeletedAlbum() {
+        assertSkipsDeletedAlbum(() -> dao.updateSharedUsers(ALBUM_ID, List.of(7L)));
+    }
+
+    private void assertSkipsDeletedAlbum(Supplier<Future<Void>> update) {
+        Future<Void> result = update.get();
+
+        assertTrue(result.cause() instanceof MissingItemException);
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        verify(documents).updateOne(filter.capture(), any(Bson.class));
+        assertEquals(BsonDocument.parse("{id: {$numberLong: '42'}, deletedAt: {$exists: false}}"),
+                filter.getValue().toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry()));
+    }
+}
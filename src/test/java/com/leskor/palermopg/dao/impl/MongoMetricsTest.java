@@ -0,0 +1,96 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import com.mongodb.event.ConnectionPoolWaitQueueEnteredEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueExitedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MongoMetricsTest {
+    private static final ConnectionDescription CONNECTION =
+            new ConnectionDescription(new ServerId(new ClusterId(), new ServerAddress()));
+
+    private SimpleMeterRegistry registry;
+    private MongoMetrics metrics;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new MongoMetrics(registry, Duration.ofMillis(100));
+    }
+
+    @Test
+    void recordsLatencyPerCommandAndCollection() {
+        BsonDocument find = BsonDocument.parse("{find: 'pictures', filter: {id: 7}}");
+        metrics.commandStarted(new CommandStartedEvent(1, CONNECTION, "db", "find", find));
+        metrics.commandSucceeded(new CommandSucceededEvent(1, CONNECTION, "find", new BsonDocument(),
+                TimeUnit.MILLISECONDS.toNanos(5)));
+        metrics.commandStarted(new CommandStartedEvent(2, CONNECTION, "db", "find", find));
+        metrics.commandFailed(new CommandFailedEvent(2, CONNECTION, "find", TimeUnit.MILLISECONDS.toNanos(7),
+                new RuntimeException("Broken")));
+
+        assertEquals(1, timer("find", "pictures", "success"));
+        assertEquals(1, timer("find", "pictures", "failure"));
+    }
+
+    @Test
+    void namesCollectionOfGetMore() {
+        assertEquals("albums", MongoMetrics.collectionOf("getMore",
+                BsonDocument.parse("{getMore: {$numberLong: '42'}, collection: 'albums'}")));
+        assertEquals("none", MongoMetrics.collectionOf("ping", BsonDocument.parse("{ping: 1}")));
+    }
+
+    @Test
+    void replacesFilterValuesWithPlaceholders() {
+        assertEquals("{\"id\": {\"$in\": \"?\"}, \"deletedAt\": {\"$exists\": \"?\"}}", MongoMetrics.filterShape("find",
+                BsonDocument.parse("{find: 'pictures', filter: {id: {$in: [1, 2]}, deletedAt: {$exists: false}}}")));
+        assertEquals("{\"albumId\": \"?\"}", MongoMetrics.filterShape("update",
+                BsonDocument.parse("{update: 'pictures', updates: [{q: {albumId: 3}, u: {$set: {deletedAt: 1}}}]}")));
+        assertEquals("[{\"$match\": {\"userId\": \"?\"}}]", MongoMetrics.filterShape("aggregate",
+                BsonDocument.parse("{aggregate: 'pictures', pipeline: [{$match: {userId: 1}}]}")));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void recordsPoolWaitsPerServer() {
+        ConnectionPoolListener pool = metrics.instrument(MongoClientSettings.builder()).build()
+                .getConnectionPoolSettings().getConnectionPoolListeners().get(0);
+        ServerId server = CONNECTION.getConnectionId().getServerId();
+        String address = server.getAddress().toString();
+
+        pool.waitQueueEntered(new ConnectionPoolWaitQueueEnteredEvent(server));
+        pool.waitQueueEntered(new ConnectionPoolWaitQueueEnteredEvent(server));
+        pool.waitQueueExited(new ConnectionPoolWaitQueueExitedEvent(server));
+
+        assertEquals(1, registry.get("pic.mongo.pool.waiting").tag("server", address).gauge().value());
+        assertEquals(1, registry.get("pic.mongo.pool.wait").tag("server", address).timer().count());
+
+        pool.waitQueueExited(new ConnectionPoolWaitQueueExitedEvent(server));
+
+        assertEquals(0, registry.get("pic.mongo.pool.waiting").tag("server", address).gauge().value());
+        assertEquals(2, registry.get("pic.mongo.pool.wait").tag("server", address).timer().count());
+    }
+
+    private long timer(String command, String collection, String outcome) {
+        return registry.get("pic.mongo.commands")
+                .tag("command", command)
+                .tag("collection", collection)
+                .tag("outcome", outcome)
+                .timer().count();
+    }
+}
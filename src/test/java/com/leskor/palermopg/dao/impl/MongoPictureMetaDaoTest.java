@@ -0,0 +1,195 @@
+package com.leskor.palermopg.dao.impl;
+
+import com.leskor.palermopg.entity.PictureMeta;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import io.vertx.core.Vertx;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.stream.IntStream;
+
+import static java.time.ZoneOffset.UTC;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+class MongoPictureMetaDaoTest {
+    private static final long ALBUM_ID = 42;
+    private static final LocalDateTime UPLOADED = LocalDateTime.of(2021, 3, 14, 10, 0);
+
+    private MongoCollection<PictureMeta> pictures;
+    private MongoCollection<Document> documents;
+    private MongoPictureMetaDao dao;
+
+    @BeforeEach
+    void setUp() {
+        MongoClient client = mock(MongoClient.class);
+        MongoDatabase database = mock(MongoDatabase.class);
+        pictures = mock(MongoCollection.class);
+        documents = mock(MongoCollection.class);
+
+        when(client.getDatabase(any())).thenReturn(database);
+        when(database.withCodecRegistry(any())).thenReturn(database);
+        when(database.getCollection(anyString(), eq(PictureMeta.class))).thenReturn(pictures);
+        when(database.getCollection(anyString())).thenReturn(documents);
+
+        dao = new MongoPictureMetaDao(client, mock(Vertx.class));
+    }
+
+    @Test
+    void sortsLiveAlbumPicturesBySortKey() {
+        FindPublisher<PictureMeta> publisher = publisherOf(List.of());
+        when(pictures.find(any(Bson.class))).thenReturn(publisher);
+
+        dao.findSortedForAlbumId(ALBUM_ID, false);
+
+        assertEquals(liveAlbumFilter(), render(captureFilter(pictures)));
+        assertEquals(BsonDocument.parse("{sortKey: -1}"), render(captureSort(publisher)));
+    }
+
+    @Test
+    void findsOldestPictureByAscendingSortKey() {
+        FindPublisher<PictureMeta> publisher = publisherOf(List.of());
+        when(pictures.find(any(Bson.class))).thenReturn(publisher);
+
+        dao.findOldestForAlbumId(ALBUM_ID);
+
+        assertEquals(liveAlbumFilter(), render(captureFilter(pictures)));
+        assertEquals(BsonDocument.parse("{sortKey: 1}"), render(captureSort(publisher)));
+        verify(publisher).first();
+    }
+
+    @Test
+    void continuesPageAfterCursorInRequestedOrder() {
+        FindPublisher<Document> publisher = publisherOf(List.of());
+        when(documents.find(any(Bson.class))).thenReturn(publisher);
+
+        dao.findPageForAlbumId(ALBUM_ID, true, "cursor", 20);
+
+        assertEquals(BsonDocument.parse("{albumId: {$numberLong: '42'}, sortKey: {$gt: 'cursor'},"
+                + " deletedAt: {$exists: false}}"), render(captureFilter(documents)));
+        assertEquals(BsonDocument.parse("{sortKey: 1}"), render(captureSort(publisher)));
+        verify(publisher).limit(21);
+    }
+
+    @Test
+    void backfillsSortKeysInPagesById() {
+        List<Document> fullPage = IntStream.range(0, 1000).mapToObj(MongoPictureMetaDaoTest::legacyPicture).toList();
+        List<Document> lastPage = List.of(legacyPicture(1000));
+        FindPublisher<Document> first = publisherOf(fullPage);
+        FindPublisher<Document> second = publisherOf(lastPage);
+        when(documents.find(any(Bson.class))).thenReturn(first, second);
+        when(documents.bulkWrite(anyList(), any())).thenAnswer(invocation -> publisherOf(List.of(
+                BulkWriteResult.acknowledged(0, 0, 0, invocation.<List<?>>getArgument(0).size(), List.of()))));
+
+        assertEquals(1001L, dao.backfillSortKeys().result());
+
+        ArgumentCaptor<Bson> filters = ArgumentCaptor.forClass(Bson.class);
+        verify(documents, times(2)).find(filters.capture());
+        assertEquals(BsonDocument.parse("{sortKey: {$exists: false}}"), render(filters.getAllValues().get(0)));
+        assertEquals(BsonDocument.parse("{sortKey: {$exists: false}, _id: {$gt: 999}}"),
+                render(filters.getAllValues().get(1)));
+        assertEquals(BsonDocument.parse("{_id: 1}"), render(captureSort(second)));
+        verify(second).limit(1000);
+
+        ArgumentCaptor<List<UpdateOneModel<Document>>> updates = ArgumentCaptor.forClass(List.class);
+        verify(documents, times(2)).bulkWrite(updates.capture(), any());
+        UpdateOneModel<Document> update = updates.getAllValues().get(1).get(0);
+        assertEquals(BsonDocument.parse("{_id: 1000}"), render(update.getFilter()));
+        assertEquals(new BsonDocument("$set", new BsonDocument("sortKey", new BsonString(
+                        new PictureMeta(1000, -1, -1, -1, null, null, UPLOADED, UPLOADED, null).sortKey()))),
+                render(update.getUpdate()));
+    }
+
+    @Test
+    void backfilledSortKeyMatchesInsertedOneOutsideUtc() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        // Ahead of UTC by more than the upload hour, so that both the upload day and the capture time would shift
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        try {
+            FindPublisher<Document> legacy = publisherOf(List.of(legacyPicture(7)));
+            when(documents.find(any(Bson.class))).thenReturn(legacy);
+            when(documents.bulkWrite(anyList(), any())).thenAnswer(invocation -> publisherOf(List.of(
+                    BulkWriteResult.acknowledged(0, 0, 0, 1, List.of()))));
+
+            assertEquals(1L, dao.backfillSortKeys().result());
+
+            ArgumentCaptor<List<UpdateOneModel<Document>>> updates = ArgumentCaptor.forClass(List.class);
+            verify(documents).bulkWrite(updates.capture(), any());
+            BsonDocument inserted = new BsonDocument();
+            new PictureMetaCodec().encode(new BsonDocumentWriter(inserted),
+                    new PictureMeta(7, 1, ALBUM_ID, 1024, "a.jpg", null, UPLOADED, UPLOADED, UPLOADED),
+                    EncoderContext.builder().build());
+            assertEquals(new BsonDocument("$set", new BsonDocument("sortKey", inserted.getString("sortKey"))),
+                    render(updates.getValue().get(0).getUpdate()));
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    // The driver stores LocalDateTime values as UTC instants
+    private static Document legacyPicture(int id) {
+        Date date = Date.from(UPLOADED.toInstant(UTC));
+        return new Document("_id", id).append("id", (long) id).append("dateUploaded", date).append("dateCaptured", date);
+    }
+
+    private static BsonDocument liveAlbumFilter() {
+        return BsonDocument.parse("{albumId: {$numberLong: '42'}, deletedAt: {$exists: false}}");
+    }
+
+    private static <T> Bson captureFilter(MongoCollection<T> collection) {
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        verify(collection).find(filter.capture());
+        return filter.getValue();
+    }
+
+    private static <T> Bson captureSort(FindPublisher<T> publisher) {
+        ArgumentCaptor<Bson> sort = ArgumentCaptor.forClass(Bson.class);
+        verify(publisher).sort(sort.capture());
+        return sort.getValue();
+    }
+
+    private static BsonDocument render(Bson bson) {
+        return bson.toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    private static <T> FindPublisher<T> publisherOf(List<T> items) {
+        FindPublisher<T> publisher = mock(FindPublisher.class, RETURNS_SELF);
+        doAnswer(invocation -> {
+            Subscriber<T> subscriber = invocation.getArgument(0);
+            subscriber.onSubscribe(mock(Subscription.class));
+            items.forEach(subscriber::onNext);
+            subscriber.onComplete();
+            return null;
+        }).when(publisher).subscribe(any());
+        return publisher;
+    }
+}
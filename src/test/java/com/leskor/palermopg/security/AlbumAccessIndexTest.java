@@ -0,0 +1,61 @@
+package com.leskor.palermopg.security;
+
+import com.leskor.palermopg.dao.AlbumDao;
+import com.leskor.palermopg.entity.Album;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class AlbumAccessIndexTest {
+    private static final long OWNER = 1;
+    private static final long FRIEND = 2;
+    private static final long STRANGER = 3;
+    private static final long ALBUM_ID = 10;
+
+    private AlbumAccessIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new AlbumAccessIndex(mock(AlbumDao.class));
+        index.put(Album.create(ALBUM_ID, OWNER, "album", List.of(FRIEND), false));
+    }
+
+    @Test
+    void pictureChangesBumpAlbumAndEveryoneSeeingIt() {
+        long album = index.albumVersion(ALBUM_ID);
+        long owner = index.userVersion(OWNER);
+        long friend = index.userVersion(FRIEND);
+        long stranger = index.userVersion(STRANGER);
+
+        index.touch(ALBUM_ID);
+
+        assertTrue(index.albumVersion(ALBUM_ID) > album);
+        assertTrue(index.userVersion(OWNER) > owner);
+        assertTrue(index.userVersion(FRIEND) > friend);
+        assertEquals(stranger, index.userVersion(STRANGER));
+    }
+
+    @Test
+    void unsharingBumpsUsersWhoLostTheAlbum() {
+        long friend = index.userVersion(FRIEND);
+
+        index.update(Album.create(ALBUM_ID, OWNER, null, List.of(STRANGER), null));
+
+        assertTrue(index.userVersion(FRIEND) > friend);
+        assertEquals(index.albumVersion(ALBUM_ID), index.userVersion(STRANGER));
+    }
+
+    @Test
+    void removingBumpsOwner() {
+        long owner = index.userVersion(OWNER);
+
+        index.remove(ALBUM_ID);
+
+        assertTrue(index.userVersion(OWNER) > owner);
+    }
+}
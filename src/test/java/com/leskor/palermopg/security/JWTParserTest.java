@@ -0,0 +1,105 @@
+package com.leskor.palermopg.security;
+
+import org.jose4j.jwk.RsaJsonWebKey;
+import org.jose4j.jwk.RsaJwkGenerator;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.lang.JoseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JWTParserTest {
+    private static final long USER_ID = 42;
+
+    private RsaJsonWebKey key;
+    private MutableClock clock;
+    private JWTParser parser;
+
+    @BeforeEach
+    void setUp() throws JoseException {
+        key = RsaJwkGenerator.generateJwk(2048);
+        clock = new MutableClock(Instant.now());
+        parser = new JWTParser(key.getPublicKey(), clock);
+    }
+
+    @Test
+    void parsesCallerOfToken() throws JoseException {
+        String token = token(key, USER_ID, 10);
+
+        assertEquals(USER_ID, parser.parse("Bearer " + token).userId());
+        assertTrue(parser.parse(token).canActAs(USER_ID));
+        assertFalse(parser.parse(token).canActAs(USER_ID + 1));
+        assertFalse(parser.parse(token).isAdmin());
+    }
+
+    @Test
+    void rejectsCachedTokenOnceExpired() throws JoseException {
+        String token = token(key, USER_ID, 10);
+        assertTrue(parser.parse(token).canActAs(USER_ID));
+
+        clock.advance(Duration.ofMinutes(11));
+
+        assertEquals(Caller.ANONYMOUS, parser.parse(token));
+    }
+
+    @Test
+    void rejectsTokenSignedWithAnotherKey() throws JoseException {
+        String forged = token(RsaJwkGenerator.generateJwk(2048), USER_ID, 10);
+
+        assertEquals(Caller.ANONYMOUS, parser.parse(forged));
+        assertEquals(Caller.ANONYMOUS, parser.parse(forged));
+        assertEquals(Caller.ANONYMOUS, parser.parse(null));
+        assertFalse(Caller.ANONYMOUS.isAuthenticated());
+    }
+
+    private static String token(RsaJsonWebKey signingKey, long userId, int minutesValid) throws JoseException {
+        JwtClaims claims = new JwtClaims();
+        claims.setSubject("user");
+        claims.setClaim("userId", userId);
+        claims.setExpirationTimeMinutesInTheFuture(minutesValid);
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setPayload(claims.toJson());
+        jws.setKey(signingKey.getPrivateKey());
+        jws.setAlgorithmHeaderValue(AlgorithmIdentifiers.RSA_USING_SHA256);
+        return jws.getCompactSerialization();
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.leskor.palermopg.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PictureUrlSignerTest {
+    private static final byte[] SECRET = "secret".getBytes(StandardCharsets.UTF_8);
+    private static final Instant NOW = Instant.ofEpochSecond(10_000);
+
+    private final PictureUrlSigner signer =
+            new PictureUrlSigner(SECRET, Duration.ofSeconds(3600), Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    void verifiesOnlyTheSignedPicture() {
+        long expires = signer.expiry();
+        String signature = signature(signer.url(42, 69, false, expires));
+
+        assertTrue(signer.verify(42, 69, false, expires, signature));
+        assertFalse(signer.verify(42, 70, false, expires, signature));
+        assertFalse(signer.verify(43, 69, false, expires, signature));
+        assertFalse(signer.verify(42, 69, true, expires, signature));
+        assertFalse(signer.verify(42, 69, false, expires + 1, signature));
+        assertFalse(signer.verify(42, 69, false, expires, null));
+    }
+
+    @Test
+    void rejectsExpiredUrls() {
+        long expires = signer.expiry();
+        String signature = signature(signer.url(42, 69, false, expires));
+        PictureUrlSigner later = new PictureUrlSigner(SECRET, Duration.ofSeconds(3600),
+                Clock.fixed(Instant.ofEpochSecond(expires), ZoneOffset.UTC));
+
+        assertFalse(later.verify(42, 69, false, expires, signature));
+        assertEquals(0, later.secondsLeft(expires));
+    }
+
+    @Test
+    void mintsStableExpiryWithinTheTtl() {
+        long expires = signer.expiry();
+        PictureUrlSigner later = new PictureUrlSigner(SECRET, Duration.ofSeconds(3600),
+                Clock.fixed(NOW.plusSeconds(60), ZoneOffset.UTC));
+
+        assertEquals(0, expires % 3600);
+        assertTrue(signer.secondsLeft(expires) > 3600);
+        assertEquals(expires, later.expiry());
+    }
+
+    private static String signature(String url) {
+        return url.substring(url.indexOf("signature=") + "signature=".length());
+    }
+}
@@ -0,0 +1,107 @@
+package com.leskor.palermopg.security;
+
+import com.leskor.palermopg.security.RequestLimiter.Limit;
+import com.leskor.palermopg.security.RequestLimiter.RouteClass;
+import com.leskor.palermopg.security.RequestLimiter.UserState;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.ext.web.RoutingContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RequestLimiterTest {
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private SimpleMeterRegistry registry;
+    private RequestLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        Map<RouteClass, Limit> limits = new EnumMap<>(RouteClass.class);
+        for (RouteClass routeClass : RouteClass.values()) {
+            limits.put(routeClass, new Limit(0, 0, 0));
+        }
+        limits.put(RouteClass.UPLOAD, new Limit(1, 3, 0));
+        limits.put(RouteClass.DOWNLOAD, new Limit(0, 0, 2));
+        registry = new SimpleMeterRegistry();
+        limiter = new RequestLimiter(limits, now::get, registry);
+    }
+
+    @Test
+    void allowsBurstThenRefillsAtRate() {
+        UserState state = limiter.state(RouteClass.UPLOAD, "42");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire(RouteClass.UPLOAD, state));
+            state.release();
+        }
+        assertEquals(1, limiter.tryAcquire(RouteClass.UPLOAD, state));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, limiter.tryAcquire(RouteClass.UPLOAD, state));
+        assertEquals(1.0, rejected("upload", "rate"));
+    }
+
+    @Test
+    void keepsUsersApart() {
+        UserState first = limiter.state(RouteClass.UPLOAD, "42");
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire(RouteClass.UPLOAD, first);
+        }
+
+        assertEquals(0, limiter.tryAcquire(RouteClass.UPLOAD, limiter.state(RouteClass.UPLOAD, "43")));
+    }
+
+    @Test
+    void capsRequestsInProgress() {
+        UserState state = limiter.state(RouteClass.DOWNLOAD, "42");
+        assertEquals(0, limiter.tryAcquire(RouteClass.DOWNLOAD, state));
+        assertEquals(0, limiter.tryAcquire(RouteClass.DOWNLOAD, state));
+        assertEquals(1, limiter.tryAcquire(RouteClass.DOWNLOAD, state));
+
+        state.release();
+        assertEquals(0, limiter.tryAcquire(RouteClass.DOWNLOAD, state));
+        assertEquals(1.0, rejected("download", "concurrency"));
+    }
+
+    @Test
+    void forgetsIdleClientsOnly() {
+        UserState busy = limiter.state(RouteClass.DOWNLOAD, "42");
+        limiter.tryAcquire(RouteClass.DOWNLOAD, busy);
+        UserState idle = limiter.state(RouteClass.UPLOAD, "43");
+        limiter.tryAcquire(RouteClass.UPLOAD, idle);
+        idle.release();
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(10));
+        limiter.sweep();
+
+        assertEquals(1, limiter.trackedClients());
+    }
+
+    @Test
+    void chargesCallerRatherThanUserIdInPath() {
+        assertEquals("user:42", RequestLimiter.clientOf(request(Caller.user(42, false), null)));
+        assertEquals("user:43", RequestLimiter.clientOf(request(Caller.ANONYMOUS, 43L)));
+        assertEquals("address:10.0.0.1", RequestLimiter.clientOf(request(Caller.ANONYMOUS, null)));
+    }
+
+    // Path parameters are not stubbed, the limiter must not look at them
+    private static RoutingContext request(Caller caller, Long signedBy) {
+        RoutingContext ctx = mock(RoutingContext.class, RETURNS_DEEP_STUBS);
+        when(ctx.get("caller")).thenReturn(caller);
+        when(ctx.get("signedBy")).thenReturn(signedBy);
+        when(ctx.request().remoteAddress().host()).thenReturn("10.0.0.1");
+        return ctx;
+    }
+
+    private double rejected(String route, String reason) {
+        return registry.get("pic.requests.rejected").tag("route", route).tag("reason", reason).counter().count();
+    }
+}
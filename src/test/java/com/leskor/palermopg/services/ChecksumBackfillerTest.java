@@ -0,0 +1,74 @@
+package com.leskor.palermopg.services;
+
+import com.leskor.palermopg.dao.PictureDataDao;
+import com.leskor.palermopg.dao.PictureMetaDao;
+import com.leskor.palermopg.entity.ArchiveEntry;
+import com.leskor.palermopg.util.StoredZip;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static io.vertx.core.Future.failedFuture;
+import static io.vertx.core.Future.succeededFuture;
+import static java.time.LocalDateTime.now;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChecksumBackfillerTest {
+    private static final byte[] DATA = {0, 9, 25};
+
+    private PictureMetaDao pictureMetaDao;
+    private PictureDataDao pictureDataDao;
+    private ChecksumBackfiller backfiller;
+
+    @BeforeEach
+    void setUp() {
+        pictureMetaDao = mock(PictureMetaDao.class);
+        pictureDataDao = mock(PictureDataDao.class);
+        backfiller = new ChecksumBackfiller(mock(Vertx.class), pictureMetaDao, pictureDataDao);
+    }
+
+    @Test
+    void storesChecksumsOnlyWhereStillMissing() {
+        when(pictureMetaDao.findMissingChecksums(0, ChecksumBackfiller.BATCH_SIZE))
+                .thenReturn(succeededFuture(List.of(entry(1, "a.jpg"), entry(2, "b.jpg"))));
+        when(pictureDataDao.find("a.jpg")).thenReturn(failedFuture(new IllegalStateException("Gone")));
+        when(pictureDataDao.find("b.jpg")).thenReturn(succeededFuture(DATA));
+        when(pictureMetaDao.setMissingOriginalChecksum(anyLong(), anyLong(), anyLong())).thenReturn(succeededFuture());
+
+        assertEquals(1, backfiller.backfill().result());
+        verify(pictureMetaDao).setMissingOriginalChecksum(2, DATA.length, StoredZip.crc(DATA));
+    }
+
+    @Test
+    void continuesAfterFullBatchAndWrapsAround() {
+        List<ArchiveEntry> full = LongStream.rangeClosed(1, ChecksumBackfiller.BATCH_SIZE)
+                .mapToObj(id -> entry(id, "a.jpg"))
+                .toList();
+        when(pictureMetaDao.findMissingChecksums(anyLong(), anyInt()))
+                .thenReturn(succeededFuture(full))
+                .thenReturn(succeededFuture(List.of()));
+        when(pictureDataDao.find(anyString())).thenReturn(succeededFuture(DATA));
+        when(pictureMetaDao.setMissingOriginalChecksum(anyLong(), anyLong(), anyLong())).thenReturn(succeededFuture());
+
+        backfiller.backfill();
+        backfiller.backfill();
+        backfiller.backfill();
+
+        verify(pictureMetaDao).findMissingChecksums(ChecksumBackfiller.BATCH_SIZE, ChecksumBackfiller.BATCH_SIZE);
+        verify(pictureMetaDao, times(2)).findMissingChecksums(0, ChecksumBackfiller.BATCH_SIZE);
+    }
+
+    private static ArchiveEntry entry(long pictureId, String path) {
+        return new ArchiveEntry(pictureId, path, -1, 0, now());
+    }
+}
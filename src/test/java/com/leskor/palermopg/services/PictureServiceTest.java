@@ -9,12 +9,16 @@ import com.leskor.palermopg.entity.PictureResponse;
 import com.leskor.palermopg.entity.StorageConsumption;
 import com.leskor.palermopg.exception.AuthorizationException;
 import com.leskor.palermopg.exception.StorageLimitException;
-import com.leskor.palermopg.security.JWTParser;
+import com.leskor.palermopg.security.AlbumAccessIndex;
+import com.leskor.palermopg.security.Caller;
+import com.leskor.palermopg.security.PictureUrlSigner;
+import com.leskor.palermopg.util.StoredZip;
 import io.vertx.core.Future;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
@@ -28,14 +32,18 @@ import java.util.Optional;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 class PictureServiceTest {
-    private static final String TOKEN = "abc";
     private static final long USER_ID = 42;
     private static final long USER_ID_2 = 43;
     private static final long USER_ID_3 = 44;
+    private static final Caller CALLER = new Caller(USER_ID, false, false);
     private static final long PICTURE_ID = 69;
     private static final long ALBUM_ID = 2;
     private static final String PATH = "path";
@@ -47,12 +55,12 @@ class PictureServiceTest {
 
     private static byte[] data;
 
-    private JWTParser parser;
     private PictureMetaDao metaDao;
     private PictureDataDao dataDao;
     private AlbumDao albumDao;
     private StorageService storageService;
     private PictureManipulationService pmService;
+    private PictureUrlSigner signer;
 
     @BeforeAll
     static void setup() throws URISyntaxException, IOException {
@@ -61,12 +69,12 @@ class PictureServiceTest {
 
     @BeforeEach
     void prepareMocks() {
-        this.parser = mock(JWTParser.class);
         this.metaDao = mock(PictureMetaDao.class);
         this.dataDao = mock(PictureDataDao.class);
         this.albumDao = mock(AlbumDao.class);
         this.storageService = mock(StorageService.class);
         this.pmService = mock(PictureManipulationService.class);
+        this.signer = mock(PictureUrlSigner.class);
     }
 
     @Test
@@ -74,34 +82,56 @@ class PictureServiceTest {
         PictureMeta meta = new PictureMeta(PICTURE_ID, USER_ID, ALBUM_ID, -1L, PATH, null, TIME, TIME, TIME);
         Album album = Album.create(ALBUM_ID, USER_ID, "album", List.of(), false);
 
-        when(parser.validateTokenForUserId(TOKEN, USER_ID)).thenReturn(true);
         when(metaDao.find(PICTURE_ID)).thenReturn(Future.succeededFuture(Optional.of(meta)));
         when(dataDao.find(PATH)).thenReturn(Future.succeededFuture(data));
         when(albumDao.findById(ALBUM_ID)).thenReturn(Future.succeededFuture(Optional.of(album)));
 
-        PictureService service = new PictureService(metaDao, dataDao, albumDao, parser, storageService, pmService);
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
 
         String expectedHash = "W/\"" + PICTURE_ID + TIME.toEpochSecond(ZoneOffset.UTC) + "\"";
 
         PictureResponse expected = new PictureResponse(data, false, expectedHash);
-        service.getPictureData(TOKEN, null, USER_ID, PICTURE_ID, false)
+        service.getPictureData(CALLER, null, USER_ID, PICTURE_ID, false)
                 .onComplete(response -> assertEquals(expected, response.result()));
     }
 
+    @Test
+    void testGetSignedPictureDataSkipsAlbumCheck() {
+        PictureMeta meta = new PictureMeta(PICTURE_ID, USER_ID, ALBUM_ID, -1L, PATH, null, TIME, TIME, TIME);
+
+        when(signer.verify(USER_ID, PICTURE_ID, false, 100, "signature")).thenReturn(true);
+        when(metaDao.find(PICTURE_ID)).thenReturn(Future.succeededFuture(Optional.of(meta)));
+        when(dataDao.find(PATH)).thenReturn(Future.succeededFuture(data));
+
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
+
+        PictureResponse response = service.getSignedPictureData("signature", 100, null, USER_ID, PICTURE_ID, false).result();
+        assertEquals(data, response.data());
+        verifyNoInteractions(albumDao);
+    }
+
+    @Test
+    void testGetSignedPictureDataWithInvalidSignature() {
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
+
+        assertTrue(service.getSignedPictureData("forged", 100, null, USER_ID, PICTURE_ID, false).cause()
+                instanceof AuthorizationException);
+        verifyNoInteractions(metaDao, dataDao);
+    }
+
     @Test
     void testDownloadPictureData() {
         PictureMeta meta = new PictureMeta(PICTURE_ID, USER_ID, ALBUM_ID, -1L, PATH, null, TIME, TIME, TIME);
         Album album = Album.create(ALBUM_ID, USER_ID, "album", List.of(), false);
 
-        when(parser.validateTokenForUserId(TOKEN, USER_ID)).thenReturn(true);
         when(metaDao.find(PICTURE_ID)).thenReturn(Future.succeededFuture(Optional.of(meta)));
         when(dataDao.find(PATH)).thenReturn(Future.succeededFuture(data));
         when(albumDao.findById(ALBUM_ID)).thenReturn(Future.succeededFuture(Optional.of(album)));
 
-        PictureService service = new PictureService(metaDao, dataDao, albumDao, parser, storageService, pmService);
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
 
         byte[] expected = data;
-        service.downloadPicture(TOKEN, USER_ID, PICTURE_ID)
+        service.downloadPicture(CALLER, USER_ID, PICTURE_ID)
                 .onComplete(response -> assertEquals(expected, response.result()));
     }
 
@@ -110,44 +140,107 @@ class PictureServiceTest {
         PictureMeta meta = new PictureMeta(PICTURE_ID, USER_ID_2, ALBUM_ID, -1L, PATH, null, TIME, TIME, TIME);
         Album album = Album.create(ALBUM_ID, USER_ID_2, "album", List.of(USER_ID_3), false);
 
-        when(parser.validateTokenForUserId(TOKEN, USER_ID)).thenReturn(true);
         when(metaDao.find(PICTURE_ID)).thenReturn(Future.succeededFuture(Optional.of(meta)));
         when(dataDao.find(PATH)).thenReturn(Future.succeededFuture(data));
         when(albumDao.findById(ALBUM_ID)).thenReturn(Future.succeededFuture(Optional.of(album)));
 
-        PictureService service = new PictureService(metaDao, dataDao, albumDao, parser, storageService, pmService);
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
         
-        service.getPictureData(TOKEN, null, USER_ID, PICTURE_ID, false).onComplete(response -> {
+        service.getPictureData(CALLER, null, USER_ID, PICTURE_ID, false).onComplete(response -> {
             assertTrue(response.failed());
             assertEquals(new AuthorizationException("Wrong user id"), response.cause());
         });
     }
 
+    @Test
+    void testDeletePictureReadsNoData() {
+        PictureMeta meta = new PictureMeta(PICTURE_ID, USER_ID, ALBUM_ID, -1L, PATH, null, TIME, TIME, TIME);
+
+        when(metaDao.find(PICTURE_ID)).thenReturn(Future.succeededFuture(Optional.of(meta)));
+        when(metaDao.markDeletedById(PICTURE_ID)).thenReturn(Future.succeededFuture());
+        when(albumDao.findById(ALBUM_ID)).thenReturn(Future.succeededFuture(Optional.empty()));
+
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
+
+        assertTrue(service.deletePicture(CALLER, USER_ID, PICTURE_ID).succeeded());
+        verify(metaDao).markDeletedById(PICTURE_ID);
+        verifyNoInteractions(dataDao);
+    }
+
+    @Test
+    void testDeletePictureAlbumNotAccessible() {
+        PictureMeta meta = new PictureMeta(PICTURE_ID, USER_ID_2, ALBUM_ID, -1L, PATH, null, TIME, TIME, TIME);
+        Album album = Album.create(ALBUM_ID, USER_ID_2, "album", List.of(USER_ID_3), false);
+
+        when(metaDao.find(PICTURE_ID)).thenReturn(Future.succeededFuture(Optional.of(meta)));
+        when(albumDao.findById(ALBUM_ID)).thenReturn(Future.succeededFuture(Optional.of(album)));
+
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
+
+        Future<Void> result = service.deletePicture(CALLER, USER_ID, PICTURE_ID);
+        assertEquals(new AuthorizationException("Wrong user id"), result.cause());
+        verify(metaDao, never()).markDeletedById(PICTURE_ID);
+        verifyNoInteractions(dataDao);
+    }
+
+    @Test
+    void testRotatePictureWithInvalidToken() {
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
+
+        assertTrue(service.rotatePicture(Caller.ANONYMOUS, USER_ID, PICTURE_ID).cause() instanceof AuthorizationException);
+        verifyNoInteractions(metaDao, dataDao);
+    }
+
+    @Test
+    void testRotatePictureClearsChecksumBeforeReplacingFile() {
+        PictureMeta meta = new PictureMeta(PICTURE_ID, USER_ID, ALBUM_ID, -1L, PATH, null, TIME, TIME, TIME);
+
+        when(metaDao.find(PICTURE_ID)).thenReturn(Future.succeededFuture(Optional.of(meta)));
+        when(metaDao.clearOriginalChecksum(PICTURE_ID)).thenReturn(Future.succeededFuture());
+        when(dataDao.find(PATH)).thenReturn(Future.succeededFuture(data));
+        when(pmService.rotate90(data)).thenReturn(Future.succeededFuture(OPTIMIZED_DATA));
+        when(dataDao.replace(PATH, OPTIMIZED_DATA)).thenReturn(Future.succeededFuture());
+        when(metaDao.setOriginalChecksum(PICTURE_ID, OPTIMIZED_DATA.length, StoredZip.crc(OPTIMIZED_DATA)))
+                .thenReturn(Future.succeededFuture());
+        when(metaDao.setLastModified(any(Long.class), any())).thenReturn(Future.succeededFuture());
+        when(albumDao.findById(ALBUM_ID)).thenReturn(Future.succeededFuture(Optional.empty()));
+
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
+
+        assertTrue(service.rotatePicture(CALLER, USER_ID, PICTURE_ID).succeeded());
+        InOrder inOrder = inOrder(metaDao, dataDao);
+        inOrder.verify(metaDao).clearOriginalChecksum(PICTURE_ID);
+        inOrder.verify(dataDao).replace(PATH, OPTIMIZED_DATA);
+        inOrder.verify(metaDao).setOriginalChecksum(PICTURE_ID, OPTIMIZED_DATA.length, StoredZip.crc(OPTIMIZED_DATA));
+        inOrder.verify(metaDao).setLastModified(any(Long.class), any());
+    }
+
     @Test
     void testInsertingNewPicture() {
         when(dataDao.save(data, -1)).thenReturn(Future.succeededFuture(PATH));
         when(dataDao.save(OPTIMIZED_DATA, -1)).thenReturn(Future.succeededFuture(PATH + "_optimized"));
         when(metaDao.save(any())).thenReturn(Future.succeededFuture(PICTURE_ID));
-        when(storageService.findForUser(TOKEN, USER_ID)).thenReturn(Future.succeededFuture(STORAGE_CONSUMPTION));
+        when(metaDao.setOriginalChecksum(PICTURE_ID, data.length, StoredZip.crc(data))).thenReturn(Future.succeededFuture());
+        when(storageService.findForUser(CALLER, USER_ID)).thenReturn(Future.succeededFuture(STORAGE_CONSUMPTION));
         when(pmService.rotateToCorrectOrientation(data)).thenReturn(Future.succeededFuture(data));
         when(pmService.convertToOptimized(data)).thenReturn(Future.succeededFuture(OPTIMIZED_DATA));
 
-        PictureService service = new PictureService(metaDao, dataDao, null, parser, storageService, pmService);
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
 
         Long expected = PICTURE_ID;
-        service.insertNewPicture(TOKEN, USER_ID, -1L, data)
+        service.insertNewPicture(CALLER, USER_ID, -1L, data)
                 .onComplete(response -> assertEquals(expected, response.result()));
     }
 
     @Test
     void testInsertingNewPictureExceedingLimit() {
-        when(storageService.findForUser(TOKEN, USER_ID)).thenReturn(Future.succeededFuture(STORAGE_CONSUMPTION_LIMITED));
+        when(storageService.findForUser(CALLER, USER_ID)).thenReturn(Future.succeededFuture(STORAGE_CONSUMPTION_LIMITED));
         when(pmService.rotateToCorrectOrientation(data)).thenReturn(Future.succeededFuture(data));
         when(pmService.convertToOptimized(data)).thenReturn(Future.succeededFuture(OPTIMIZED_DATA));
 
-        PictureService service = new PictureService(metaDao, dataDao, null, parser, storageService, pmService);
+        PictureService service = new PictureService(metaDao, dataDao, new AlbumAccessIndex(albumDao), storageService, pmService, signer);
 
-        service.insertNewPicture(TOKEN, USER_ID, -1L, data)
+        service.insertNewPicture(CALLER, USER_ID, -1L, data)
                 .onComplete(response -> {
                     assertTrue(response.failed());
                     assertEquals(StorageLimitException.class, response.cause().getClass());
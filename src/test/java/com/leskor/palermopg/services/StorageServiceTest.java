@@ -5,7 +5,7 @@ import com.leskor.palermopg.dao.PictureDataDao;
 import com.leskor.palermopg.dao.PictureMetaDao;
 import com.leskor.palermopg.entity.PictureMeta;
 import com.leskor.palermopg.entity.StorageConsumption;
-import com.leskor.palermopg.security.JWTParser;
+import com.leskor.palermopg.security.Caller;
 import io.vertx.core.Future;
 import org.junit.jupiter.api.Test;
 
@@ -18,7 +18,6 @@ import static org.mockito.Mockito.*;
 
 public class StorageServiceTest {
     private static final String 
-        TOKEN = "Bearer abcxyz",
         PATH_1 = "path/1",
         PATH_2 = "path/2",
         PATH_3 = "path/3";
@@ -37,39 +36,35 @@ public class StorageServiceTest {
 
     @Test
     void testSimpleUserConsumption() {
-        JWTParser jwtParser = mock(JWTParser.class);
         PictureMetaDao pictureMetaDao = mock(PictureMetaDao.class);
         PictureDataDao pictureDataDao = mock(PictureDataDao.class);
         LimitsDao limitsDao = mock(LimitsDao.class);
 
-        when(jwtParser.validateTokenForUserId(TOKEN, USER_ID)).thenReturn(true);
-        when(pictureMetaDao.findPictureMetasForUserId(USER_ID)).thenReturn(Future.succeededFuture(PICTURE_METAS));
+        when(pictureMetaDao.findSizesForUserId(USER_ID)).thenReturn(Future.succeededFuture(PICTURE_METAS));
         when(pictureDataDao.find(PATH_1)).thenReturn(Future.succeededFuture(new byte[]{0, 1, 2}));
         when(pictureDataDao.find(PATH_2)).thenReturn(Future.succeededFuture(new byte[]{0}));
         when(pictureDataDao.find(PATH_3)).thenReturn(Future.succeededFuture(new byte[]{0, 1, 2, 3, 4}));
         when(limitsDao.getLimitForUser(USER_ID)).thenReturn(Future.succeededFuture(Optional.empty()));
 
-        StorageService service = new StorageService(pictureMetaDao, pictureDataDao, limitsDao, jwtParser);
+        StorageService service = new StorageService(pictureMetaDao, pictureDataDao, limitsDao);
 
         var expectedConsumption = new StorageConsumption(USER_ID, CONSUMPTION_SIZE, CONSUMPTION_LIMIT);
 
-        service.findForUser(TOKEN, USER_ID)
+        service.findForUser(new Caller(USER_ID, false, false), USER_ID)
             .onComplete(response -> assertEquals(expectedConsumption, response.result()));
     }
 
     @Test
     void testSettingNewLimitForUser() {
-        JWTParser jwtParser = mock(JWTParser.class);
         PictureMetaDao pictureMetaDao = mock(PictureMetaDao.class);
         PictureDataDao pictureDataDao = mock(PictureDataDao.class);
         LimitsDao limitsDao = mock(LimitsDao.class);
 
-        when(jwtParser.isAdmin(TOKEN)).thenReturn(true);
         when(limitsDao.setLimitForUser(USER_ID, NEW_LIMIT)).thenReturn(Future.succeededFuture());
 
-        StorageService service = new StorageService(pictureMetaDao, pictureDataDao, limitsDao, jwtParser);
+        StorageService service = new StorageService(pictureMetaDao, pictureDataDao, limitsDao);
 
-        service.setLimitForUser(TOKEN, USER_ID, NEW_LIMIT)
+        service.setLimitForUser(new Caller(USER_ID + 1, true, false), USER_ID, NEW_LIMIT)
                 .onComplete(response -> {
                     assertFalse(response.failed());
                     verify(limitsDao, times(1)).setLimitForUser(USER_ID, NEW_LIMIT);
@@ -0,0 +1,75 @@
+package com.leskor.palermopg.services;
+
+import com.leskor.palermopg.dao.AlbumDao;
+import com.leskor.palermopg.dao.PictureDataDao;
+import com.leskor.palermopg.dao.PictureMetaDao;
+import com.leskor.palermopg.entity.PictureMeta;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static io.vertx.core.Future.succeededFuture;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TombstoneCollectorTest {
+    private static final long PICTURE_ID = 69;
+
+    private static final PictureMeta
+            PICTURE = new PictureMeta(PICTURE_ID, 1, 2, 10, "a.jpg", "a_opt.jpg", null, null, null),
+            PICTURE_2 = new PictureMeta(PICTURE_ID + 1, 1, 2, 10, "b.jpg", null, null, null, null);
+
+    private PictureMetaDao pictureMetaDao;
+    private PictureDataDao pictureDataDao;
+    private AlbumDao albumDao;
+    private TombstoneCollector collector;
+
+    @BeforeEach
+    void setUp() {
+        pictureMetaDao = mock(PictureMetaDao.class);
+        pictureDataDao = mock(PictureDataDao.class);
+        albumDao = mock(AlbumDao.class);
+        collector = new TombstoneCollector(mock(Vertx.class), pictureMetaDao, pictureDataDao, albumDao);
+    }
+
+    @Test
+    void removesFilesBeforePurgingPictures() {
+        when(pictureMetaDao.findDeleted(TombstoneCollector.BATCH_SIZE)).thenReturn(succeededFuture(List.of(PICTURE, PICTURE_2)));
+        when(pictureDataDao.deleteAll(List.of("a.jpg", "a_opt.jpg", "b.jpg"))).thenReturn(succeededFuture(List.of()));
+        when(pictureMetaDao.purgeDeleted(List.of(PICTURE_ID, PICTURE_ID + 1))).thenReturn(succeededFuture(2L));
+
+        collector.collect().onComplete(res -> assertEquals(2, res.result()));
+
+        verify(pictureMetaDao, never()).requeueDeleted(any());
+        verify(albumDao, never()).purgeDeleted();
+    }
+
+    @Test
+    void requeuesPicturesWithRemainingFiles() {
+        when(pictureMetaDao.findDeleted(TombstoneCollector.BATCH_SIZE)).thenReturn(succeededFuture(List.of(PICTURE, PICTURE_2)));
+        when(pictureDataDao.deleteAll(List.of("a.jpg", "a_opt.jpg", "b.jpg"))).thenReturn(succeededFuture(List.of("a_opt.jpg")));
+        when(pictureMetaDao.requeueDeleted(List.of(PICTURE_ID))).thenReturn(succeededFuture());
+        when(pictureMetaDao.purgeDeleted(List.of(PICTURE_ID + 1))).thenReturn(succeededFuture(1L));
+
+        collector.collect().onComplete(res -> assertEquals(1, res.result()));
+
+        verify(pictureMetaDao).requeueDeleted(List.of(PICTURE_ID));
+    }
+
+    @Test
+    void purgesAlbumsWhenNoPicturesAreLeft() {
+        when(pictureMetaDao.findDeleted(TombstoneCollector.BATCH_SIZE)).thenReturn(succeededFuture(List.of()));
+        when(albumDao.purgeDeleted()).thenReturn(succeededFuture(3L));
+
+        collector.collect().onComplete(res -> assertEquals(0, res.result()));
+
+        verify(albumDao).purgeDeleted();
+        verify(pictureDataDao, never()).deleteAll(any());
+    }
+}
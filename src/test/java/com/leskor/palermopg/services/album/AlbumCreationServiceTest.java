@@ -11,6 +11,7 @@ import static org.mockito.Mockito.when;
 
 import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.entity.Album;
+import com.leskor.palermopg.security.AlbumAccessIndex;
 import java.util.List;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
@@ -35,7 +36,7 @@ class AlbumCreationServiceTest {
     @BeforeEach
     void setUp() {
         dao = mock(AlbumDao.class);
-        albumCreationService = new AlbumCreationService(dao);
+        albumCreationService = new AlbumCreationService(dao, new AlbumAccessIndex(dao));
     }
 
     @Test
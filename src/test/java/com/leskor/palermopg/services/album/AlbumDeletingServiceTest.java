@@ -3,15 +3,19 @@ package com.leskor.palermopg.services.album;
 import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.dao.PictureMetaDao;
 import com.leskor.palermopg.entity.Album;
-import com.leskor.palermopg.entity.PictureMeta;
+import com.leskor.palermopg.entity.Job;
 import com.leskor.palermopg.exception.AuthorizationException;
-import com.leskor.palermopg.security.JWTParser;
-import com.leskor.palermopg.services.PictureService;
+import com.leskor.palermopg.exception.MissingItemException;
+import com.leskor.palermopg.security.AlbumAccessIndex;
+import com.leskor.palermopg.security.Caller;
+import com.leskor.palermopg.services.job.JobService;
+import com.leskor.palermopg.services.job.JobTask;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.InOrder;
 
 import java.util.List;
 import java.util.Optional;
@@ -20,21 +24,21 @@ import java.util.stream.Stream;
 import static io.vertx.core.Future.succeededFuture;
 import static java.time.LocalDateTime.now;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class AlbumDeletingServiceTest {
     private static final String
-            NAME = "Birthday Party",
-            PATH = "/pic1.jpg",
-            PATH_2 = "/pic2.jpg",
-            TOKEN = "Bearer abcxyz";
+            NAME = "Birthday Party";
 
     private static final long
             USER_ID = 25,
             ALBUM_ID = 42,
-            ALBUM_ID_3 = 43,
-            PICTURE_ID = 256;
+            ALBUM_ID_3 = 43;
 
     private static final Album
             ALBUM = Album.create(ALBUM_ID, USER_ID, NAME, List.of(), true),
@@ -42,59 +46,68 @@ class AlbumDeletingServiceTest {
             ALBUM_2 = Album.create(ALBUM_ID, USER_ID - 1, NAME, List.of(), false),
             ALBUM_3 = Album.create(ALBUM_ID_3, USER_ID - 1, NAME, List.of(), false);
 
-    private static final PictureMeta
-            PICTURE_META = new PictureMeta(PICTURE_ID, USER_ID, ALBUM_ID, -1, PATH, "", now(), now(), now()),
-            PICTURE_META_2 = new PictureMeta(PICTURE_ID + 1, USER_ID, ALBUM_ID, -1, PATH_2, "", now().plusDays(2), now(), now());
-
-    private JWTParser jwtParser;
-    private PictureService pictureService;
     private AlbumDao albumDao;
     private PictureMetaDao pictureMetaDao;
-    private AlbumFetchingService albumFetchingService;
+    private JobService jobService;
     private AlbumDeletingService albumDeletingService;
 
     @BeforeEach
     void setUp() {
-        jwtParser = mock(JWTParser.class);
-        pictureService = mock(PictureService.class);
         albumDao = mock(AlbumDao.class);
         pictureMetaDao = mock(PictureMetaDao.class);
-        albumFetchingService = mock(AlbumFetchingService.class);
-        albumDeletingService = new AlbumDeletingService(jwtParser, pictureService, albumDao, pictureMetaDao, albumFetchingService);
+        jobService = mock(JobService.class);
+        albumDeletingService = new AlbumDeletingService(albumDao, pictureMetaDao, new AlbumAccessIndex(albumDao),
+                jobService);
     }
 
     @Test
     void delete() {
         when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM)));
-        when(albumDao.delete(ALBUM_ID)).thenReturn(succeededFuture());
-        when(pictureMetaDao.findForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(List.of(PICTURE_META, PICTURE_META_2)));
-        when(pictureService.deletePicture(USER_ID, PICTURE_ID)).thenReturn(succeededFuture());
-        when(pictureService.deletePicture(USER_ID, PICTURE_ID + 1)).thenReturn(succeededFuture());
+        when(albumDao.markDeleted(ALBUM_ID)).thenReturn(succeededFuture());
+        when(pictureMetaDao.markDeletedForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(2L));
 
         albumDeletingService.delete(USER_ID, ALBUM_ID)
                 .onComplete(res -> assertTrue(res.succeeded()));
+
+        InOrder inOrder = inOrder(pictureMetaDao, albumDao);
+        inOrder.verify(pictureMetaDao).markDeletedForAlbumId(ALBUM_ID);
+        inOrder.verify(albumDao).markDeleted(ALBUM_ID);
     }
 
     @Test
-    void deleteAll() {
-        when(jwtParser.validateTokenForUserId(TOKEN, USER_ID)).thenReturn(false);
-        when(jwtParser.isAdmin(TOKEN)).thenReturn(true);
-        when(albumFetchingService.getAlbumsForUserId(USER_ID)).thenReturn(succeededFuture(List.of(ALBUM, ALBUM_FOR_SHARED_USER, ALBUM_3)));
-        when(albumDao.delete(ALBUM_ID)).thenReturn(succeededFuture());
-        when(albumDao.delete(ALBUM_ID_3)).thenReturn(succeededFuture());
-        when(pictureMetaDao.findForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(List.of(PICTURE_META, PICTURE_META_2)));
-        when(pictureMetaDao.findForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(List.of()));
-        when(pictureService.deletePicture(USER_ID, PICTURE_ID)).thenReturn(succeededFuture());
-        when(pictureService.deletePicture(USER_ID, PICTURE_ID + 1)).thenReturn(succeededFuture());
-
-        albumDeletingService.deleteAll(TOKEN, USER_ID)
+    void deleteAllSubmitsJob() {
+        when(jobService.submit(AlbumDeletingService.DELETE_ALL_JOB, USER_ID)).thenReturn(succeededFuture(7L));
+
+        albumDeletingService.deleteAll(new Caller(USER_ID + 1, true, false), USER_ID)
+                .onComplete(res -> assertEquals(7L, res.result()));
+
+        verify(albumDao, never()).markDeleted(anyLong());
+    }
+
+    @Test
+    void deleteAllJobResumesFromCheckpoint() {
+        Job job = new Job(7, AlbumDeletingService.DELETE_ALL_JOB, USER_ID, Job.Status.RUNNING, 1, 3, ALBUM_ID - 1,
+                null, now(), now());
+        Album deletedBeforeRestart = Album.create(ALBUM_ID - 1, USER_ID, NAME, List.of(), true);
+        JobTask.Progress progress = mock(JobTask.Progress.class);
+        when(progress.update(anyLong(), anyLong(), anyLong())).thenReturn(succeededFuture());
+        when(albumDao.findAlbumsForUserId(USER_ID)).thenReturn(
+                succeededFuture(List.of(ALBUM_3, ALBUM, deletedBeforeRestart, ALBUM_FOR_SHARED_USER)));
+        when(albumDao.markDeleted(ALBUM_ID)).thenReturn(succeededFuture());
+        when(pictureMetaDao.markDeletedForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(2L));
+
+        albumDeletingService.run(job, progress)
                 .onComplete(res -> assertTrue(res.succeeded()));
+
+        verify(albumDao).markDeleted(ALBUM_ID);
+        verify(albumDao, never()).markDeleted(ALBUM_ID - 1);
+        verify(albumDao, never()).markDeleted(ALBUM_ID_3);
+        verify(progress).update(2, 2, ALBUM_ID);
     }
 
-    @ParameterizedTest
-    @MethodSource("albumsNotOwnedByUser")
-    void returnsErrorForNotOwnedAlbums(Album album) {
-        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(album)));
+    @Test
+    void returnsErrorForSharedAlbums() {
+        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM_FOR_SHARED_USER)));
 
         albumDeletingService.delete(USER_ID, ALBUM_ID)
                 .onComplete(resp -> {
@@ -104,10 +117,22 @@ class AlbumDeletingServiceTest {
                 });
     }
 
-    private static Stream<Arguments> albumsNotOwnedByUser() {
+    @ParameterizedTest
+    @MethodSource("albumsNotAccessibleByUser")
+    void returnsMissingForNotAccessibleAlbums(Optional<Album> album) {
+        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(album));
+
+        albumDeletingService.delete(USER_ID, ALBUM_ID)
+                .onComplete(resp -> {
+                    assertTrue(resp.failed());
+                    assertEquals(MissingItemException.class, resp.cause().getClass());
+                });
+    }
+
+    private static Stream<Arguments> albumsNotAccessibleByUser() {
         return Stream.of(
-                Arguments.of(ALBUM_FOR_SHARED_USER),
-                Arguments.of(ALBUM_2)
+                Arguments.of(Optional.of(ALBUM_2)),
+                Arguments.of(Optional.empty())
         );
     }
-}
\ No newline at end of file
+}
@@ -2,32 +2,69 @@ package com.leskor.palermopg.services.album;
 
 import static io.vertx.core.Future.succeededFuture;
 import static java.time.LocalDateTime.now;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.dao.PictureDataDao;
 import com.leskor.palermopg.dao.PictureMetaDao;
 import com.leskor.palermopg.entity.Album;
+import com.leskor.palermopg.entity.AlbumDetails;
+import com.leskor.palermopg.entity.ArchiveEntry;
 import com.leskor.palermopg.entity.PictureMeta;
+import com.leskor.palermopg.entity.PicturePage;
 import com.leskor.palermopg.exception.AuthorizationException;
-import com.leskor.palermopg.security.JWTParser;
+import com.leskor.palermopg.exception.NotReadyException;
+import com.leskor.palermopg.security.AlbumAccessIndex;
+import com.leskor.palermopg.security.Caller;
+import com.leskor.palermopg.security.PictureUrlSigner;
+import com.leskor.palermopg.util.StoredZip;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.streams.WriteStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Publisher;
 
 class AlbumFetchingServiceTest {
     private static final String
-            TOKEN = "abc",
             NAME = "Birthday Party",
             PATH = "/pic1.jpg",
             PATH_2 = "/pic2.jpg";
@@ -37,6 +74,8 @@ class AlbumFetchingServiceTest {
             ALBUM_ID = 42,
             PICTURE_ID = 256;
 
+    private static final Caller CALLER = new Caller(USER_ID, false, false);
+
     private static final byte[]
             DATA = new byte[] {0, 9, 25},
             DATA_2 = new byte[] {16, 101};
@@ -56,20 +95,21 @@ class AlbumFetchingServiceTest {
             PICTURE_META_3 = new PictureMeta(PICTURE_ID + 2, USER_ID, ALBUM_ID, -1, "", "", now(),
                     now().plusDays(2), now());
 
-    private JWTParser jwtParser;
     private AlbumDao albumDao;
     private PictureMetaDao pictureMetaDao;
     private PictureDataDao pictureDataDao;
+    private AlbumAccessIndex albumAccessIndex;
     private AlbumFetchingService albumFetchingService;
 
     @BeforeEach
     void setUp() {
-        jwtParser = mock(JWTParser.class);
         albumDao = mock(AlbumDao.class);
         pictureMetaDao = mock(PictureMetaDao.class);
         pictureDataDao = mock(PictureDataDao.class);
+        albumAccessIndex = new AlbumAccessIndex(albumDao);
         albumFetchingService =
-                new AlbumFetchingService(albumDao, pictureMetaDao, pictureDataDao, jwtParser);
+                new AlbumFetchingService(albumDao, pictureMetaDao, pictureDataDao, albumAccessIndex,
+                        mock(PictureUrlSigner.class));
     }
 
     @Test
@@ -77,10 +117,10 @@ class AlbumFetchingServiceTest {
         when(albumDao.findAlbumsForUserId(USER_ID)).thenReturn(
                 succeededFuture(List.of(ALBUM, ALBUM_2)));
 
-        when(pictureMetaDao.findForAlbumId(ALBUM_ID))
-                .thenReturn(succeededFuture(List.of(PICTURE_META, PICTURE_META_2)));
-        when(pictureMetaDao.findForAlbumId(ALBUM_ID + 1))
-                .thenReturn(succeededFuture(List.of()));
+        when(pictureMetaDao.findOldestForAlbumId(ALBUM_ID))
+                .thenReturn(succeededFuture(Optional.of(PICTURE_META)));
+        when(pictureMetaDao.findOldestForAlbumId(ALBUM_ID + 1))
+                .thenReturn(succeededFuture(Optional.empty()));
 
         albumFetchingService.getAlbumsForUserId(USER_ID)
                 .onComplete(res -> assertEquals(
@@ -113,40 +153,123 @@ class AlbumFetchingServiceTest {
     }
 
     @Test
-    void getAlbumForUserId() {
-        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM)));
-        when(pictureMetaDao.findForAlbumId(ALBUM_ID))
-                .thenReturn(succeededFuture(List.of(PICTURE_META, PICTURE_META_2)));
+    void getAlbumDetails() {
+        when(albumDao.findById(ALBUM_ID + 1)).thenReturn(succeededFuture(Optional.of(ALBUM_2)));
+        when(pictureMetaDao.findSortedForAlbumId(ALBUM_ID + 1, false))
+                .thenReturn(succeededFuture(List.of(PICTURE_META_2, PICTURE_META_3, PICTURE_META)));
 
-        albumFetchingService.getAlbumForUserId(USER_ID, ALBUM_ID)
+        albumFetchingService.getAlbumDetails(USER_ID, ALBUM_ID + 1)
                 .onComplete(res -> assertEquals(
-                        ALBUM.withCoverPicture(new Album.CoverPicture(PICTURE_META.userId(),
-                                        PICTURE_META.id()))
-                                .withDateCreated(PICTURE_META.dateUploaded()),
+                        new AlbumDetails(
+                                ALBUM_2.withCoverPicture(new Album.CoverPicture(PICTURE_META.userId(),
+                                                PICTURE_META.id()))
+                                        .withDateCreated(PICTURE_META.dateUploaded()),
+                                List.of(PICTURE_META_2, PICTURE_META_3, PICTURE_META),
+                                null),
                         res.result()));
     }
 
     @ParameterizedTest
     @MethodSource("albumsWithUserAccess")
-    void getPictureMetaForAlbum(Album album) {
+    void getAlbumDetailsInChronologicalOrder(Album album) {
         when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(album)));
+        when(pictureMetaDao.findSortedForAlbumId(ALBUM_ID, true))
+                .thenReturn(succeededFuture(List.of(PICTURE_META, PICTURE_META_3, PICTURE_META_2)));
+
+        albumFetchingService.getAlbumDetails(USER_ID, ALBUM_ID)
+                .onComplete(res -> {
+                    assertEquals(List.of(PICTURE_META, PICTURE_META_3, PICTURE_META_2), res.result().pictures());
+                    assertEquals(new Album.CoverPicture(PICTURE_META.userId(), PICTURE_META.id()),
+                            res.result().album().coverPicture());
+                });
+    }
 
-        when(pictureMetaDao.findForAlbumId(ALBUM_ID))
-                .thenReturn(succeededFuture(List.of(PICTURE_META, PICTURE_META_2, PICTURE_META_3)));
+    @Test
+    void getAlbumDetailsReadsAlbumAndPicturesOnce() {
+        albumAccessIndex.put(ALBUM);
+        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM)));
+        when(pictureMetaDao.findSortedForAlbumId(ALBUM_ID, true))
+                .thenReturn(succeededFuture(List.of(PICTURE_META, PICTURE_META_3, PICTURE_META_2)));
 
-        albumFetchingService.getPictureMetaForAlbum(USER_ID, ALBUM_ID)
-                .onComplete(
-                        res -> assertEquals(List.of(PICTURE_META, PICTURE_META_3, PICTURE_META_2),
-                                res.result()));
+        albumFetchingService.getAlbumDetails(USER_ID, ALBUM_ID)
+                .onComplete(res -> {
+                    assertTrue(res.succeeded());
+                    verify(albumDao, times(1)).findById(ALBUM_ID);
+                    verify(pictureMetaDao, times(1)).findSortedForAlbumId(ALBUM_ID, true);
+                    verifyNoMoreInteractions(albumDao, pictureMetaDao);
+                });
+    }
+
+    @Test
+    void getAlbumDetailsReadsAlbumMissingFromIndexOnce() {
+        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM)));
+        when(pictureMetaDao.findSortedForAlbumId(ALBUM_ID, true)).thenReturn(succeededFuture(List.of()));
+
+        albumFetchingService.getAlbumDetails(USER_ID, ALBUM_ID)
+                .onComplete(res -> assertTrue(res.succeeded()));
+        albumFetchingService.getAlbumVersion(USER_ID, ALBUM_ID)
+                .onComplete(res -> assertTrue(res.succeeded()));
+
+        verify(albumDao, times(1)).findById(ALBUM_ID);
+    }
+
+    @Test
+    void getAlbumDetailsPage() {
+        PicturePage page = new PicturePage(List.of(PICTURE_META_2), PICTURE_META_2.sortKey());
+        when(albumDao.findById(ALBUM_ID + 1)).thenReturn(succeededFuture(Optional.of(ALBUM_2)));
+        when(pictureMetaDao.findPageForAlbumId(ALBUM_ID + 1, false, null, 1)).thenReturn(succeededFuture(page));
+        when(pictureMetaDao.findOldestForAlbumId(ALBUM_ID + 1)).thenReturn(succeededFuture(Optional.of(PICTURE_META)));
+
+        albumFetchingService.getAlbumDetailsPage(USER_ID, ALBUM_ID + 1, null, 1)
+                .onComplete(res -> {
+                    assertEquals(List.of(PICTURE_META_2), res.result().pictures());
+                    assertEquals(PICTURE_META_2.sortKey(), res.result().nextSortKey());
+                    assertEquals(new Album.CoverPicture(PICTURE_META.userId(), PICTURE_META.id()),
+                            res.result().album().coverPicture());
+                });
+    }
+
+    @Test
+    void streamPictureMetaForAlbum() {
+        Publisher<PictureMeta> publisher = subscriber -> { };
+        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM_FOR_SHARED_USER)));
+        when(pictureMetaDao.streamSortedIdsForAlbumId(ALBUM_ID, true)).thenReturn(publisher);
+
+        albumFetchingService.streamPictureMetaForAlbum(USER_ID, ALBUM_ID)
+                .onComplete(res -> assertEquals(publisher, res.result()));
+
+        albumFetchingService.streamPictureMetaForAlbum(USER_ID + 1, ALBUM_ID)
+                .onComplete(res -> assertEquals(AuthorizationException.class, res.cause().getClass()));
+    }
+
+    @Test
+    void getPictureMetaPageForAlbum() {
+        PicturePage page = new PicturePage(List.of(PICTURE_META_2, PICTURE_META), PICTURE_META.sortKey());
+        when(albumDao.findById(ALBUM_ID + 1)).thenReturn(succeededFuture(Optional.of(ALBUM_2)));
+        when(pictureMetaDao.findPageForAlbumId(ALBUM_ID + 1, false, PICTURE_META_3.sortKey(), 2))
+                .thenReturn(succeededFuture(page));
+
+        albumFetchingService.getPictureMetaPageForAlbum(USER_ID, ALBUM_ID + 1, PICTURE_META_3.sortKey(), 2)
+                .onComplete(res -> assertEquals(page, res.result()));
+    }
+
+    @Test
+    void sortKeysFollowAlbumOrder() {
+        List<String> expected = List.of(PICTURE_META_2.sortKey(), PICTURE_META_3.sortKey(), PICTURE_META.sortKey());
+        List<String> sorted = Stream.of(PICTURE_META, PICTURE_META_2, PICTURE_META_3)
+                .map(PictureMeta::sortKey)
+                .sorted(Comparator.reverseOrder())
+                .toList();
+
+        assertEquals(expected, sorted);
     }
 
     @ParameterizedTest
     @MethodSource("albumsWithoutUserAccess")
     void returnsErrorWhenAlbumIsNotAccessible(Album album) {
-        when(jwtParser.validateTokenForUserId(TOKEN, USER_ID)).thenReturn(true);
         when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(album)));
 
-        albumFetchingService.getPictureMetaForAlbum(USER_ID + 1, ALBUM_ID)
+        albumFetchingService.getAlbumDetails(USER_ID + 1, ALBUM_ID)
                 .onComplete(resp -> {
                     assertNull(resp.result());
                     assertFalse(resp.succeeded());
@@ -154,7 +277,7 @@ class AlbumFetchingServiceTest {
                     assertEquals(AuthorizationException.class, resp.cause().getClass());
                 });
 
-        albumFetchingService.download(TOKEN, USER_ID + 1, ALBUM_ID)
+        albumFetchingService.download(new Caller(USER_ID + 1, false, false), USER_ID + 1, ALBUM_ID)
                 .onComplete(resp -> {
                     assertNull(resp.result());
                     assertFalse(resp.succeeded());
@@ -165,15 +288,146 @@ class AlbumFetchingServiceTest {
 
     @Test
     void download() {
-        when(jwtParser.validateTokenForUserId(TOKEN, USER_ID)).thenReturn(true);
         when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM)));
-        when(pictureMetaDao.findForAlbumId(ALBUM_ID)).thenReturn(
-                succeededFuture(List.of(PICTURE_META, PICTURE_META_2)));
-        when(pictureDataDao.find(PATH)).thenReturn(succeededFuture(DATA));
-        when(pictureDataDao.find(PATH_2)).thenReturn(succeededFuture(DATA_2));
+        when(pictureMetaDao.findArchiveEntriesForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(List.of(
+                archiveEntry(PICTURE_ID, PATH, DATA), archiveEntry(PICTURE_ID + 1, PATH_2, DATA_2))));
+        stubFile(PATH, DATA);
+        stubFile(PATH_2, DATA_2);
+
+        Buffer archive = downloadArchive();
+        Map<String, byte[]> entries = unzip(archive);
+
+        assertEquals(List.of(PICTURE_ID + ".jpg", (PICTURE_ID + 1) + ".jpg"), List.copyOf(entries.keySet()));
+        assertArrayEquals(DATA, entries.get(PICTURE_ID + ".jpg"));
+        assertArrayEquals(DATA_2, entries.get((PICTURE_ID + 1) + ".jpg"));
+        verify(pictureDataDao, never()).find(any());
+    }
+
+    @Test
+    void downloadHasExactLengthAndServesEveryRange() {
+        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM)));
+        when(pictureMetaDao.findArchiveEntriesForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(List.of(
+                archiveEntry(PICTURE_ID, PATH, DATA), archiveEntry(PICTURE_ID + 1, PATH_2, DATA_2))));
+        stubFile(PATH, DATA);
+        stubFile(PATH_2, DATA_2);
+
+        AlbumArchive archive = albumFetchingService.download(CALLER, USER_ID, ALBUM_ID).result();
+        Buffer whole = write(archive, 0, archive.length() - 1);
+        assertEquals(archive.length(), whole.length());
+
+        for (int first = 0; first < whole.length(); first++) {
+            int last = Math.min(first + 10, whole.length() - 1);
+            assertEquals(whole.slice(first, last + 1), write(archive, first, last));
+            assertEquals(whole.slice(first, whole.length()), write(archive, first, whole.length() - 1));
+        }
+        assertEquals(archive.etag(), albumFetchingService.download(CALLER, USER_ID, ALBUM_ID).result().etag());
+    }
+
+    @Test
+    void downloadWaitsForMissingChecksums() {
+        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM)));
+        when(pictureMetaDao.findArchiveEntriesForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(List.of(
+                new ArchiveEntry(PICTURE_ID, PATH, -1, 0, now()), archiveEntry(PICTURE_ID + 1, PATH_2, DATA_2))));
+
+        Future<AlbumArchive> result = albumFetchingService.download(CALLER, USER_ID, ALBUM_ID);
+
+        assertTrue(result.cause() instanceof NotReadyException);
+        verifyNoInteractions(pictureDataDao);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void downloadStopsWhenClientClosesWhileWaitingForDrain() {
+        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM)));
+        when(pictureMetaDao.findArchiveEntriesForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(List.of(
+                archiveEntry(PICTURE_ID, PATH, DATA), archiveEntry(PICTURE_ID + 1, PATH_2, DATA_2))));
+        stubFile(PATH, DATA);
+        stubFile(PATH_2, DATA_2);
+        HttpServerResponse response = mock(HttpServerResponse.class);
+        when(response.writeQueueFull()).thenReturn(true);
+
+        AlbumArchive archive = albumFetchingService.download(CALLER, USER_ID, ALBUM_ID).result();
+        Future<Void> written = archive.writeTo(response);
+        assertFalse(written.isComplete());
+
+        ArgumentCaptor<Handler<Void>> closeHandler = ArgumentCaptor.forClass(Handler.class);
+        verify(response).closeHandler(closeHandler.capture());
+        closeHandler.getValue().handle(null);
+
+        assertTrue(written.failed());
+        verify(response, times(1)).write(any(Buffer.class));
+        verify(pictureDataDao, never()).findRange(eq(PATH_2), anyLong(), anyInt());
+    }
+
+    @Test
+    void downloadLargeAlbumWithZip64Directory() {
+        List<ArchiveEntry> pictures = LongStream.range(0, 70_000)
+                .mapToObj(id -> archiveEntry(id, PATH, DATA))
+                .toList();
+        when(albumDao.findById(ALBUM_ID)).thenReturn(succeededFuture(Optional.of(ALBUM)));
+        when(pictureMetaDao.findArchiveEntriesForAlbumId(ALBUM_ID)).thenReturn(succeededFuture(pictures));
+        stubFile(PATH, DATA);
+
+        Buffer archive = downloadArchive();
+
+        assertEquals(70_000, unzip(archive).size());
+        try (ZipFile zipFile = new ZipFile(writeToTempFile(archive))) {
+            assertEquals(70_000, zipFile.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ArchiveEntry archiveEntry(long pictureId, String path, byte[] data) {
+        return new ArchiveEntry(pictureId, path, data.length, StoredZip.crc(data), now());
+    }
+
+    private void stubFile(String path, byte[] data) {
+        when(pictureDataDao.findRange(eq(path), anyLong(), anyInt())).thenAnswer(invocation -> {
+            int offset = (int) (long) invocation.getArgument(1);
+            int length = invocation.getArgument(2);
+            return succeededFuture(Arrays.copyOfRange(data, offset, offset + length));
+        });
+    }
+
+    private Buffer downloadArchive() {
+        AlbumArchive archive = albumFetchingService.download(CALLER, USER_ID, ALBUM_ID).result();
+        Buffer result = write(archive, 0, archive.length() - 1);
+        assertEquals(archive.length(), result.length());
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Buffer write(AlbumArchive archive, long first, long last) {
+        WriteStream<Buffer> stream = mock(WriteStream.class);
+        Buffer result = Buffer.buffer();
+        when(stream.write(any(Buffer.class))).thenAnswer(invocation -> {
+            result.appendBuffer(invocation.getArgument(0));
+            return succeededFuture();
+        });
+
+        archive.writeTo(stream, first, last).onComplete(res -> assertTrue(res.succeeded()));
+
+        return result;
+    }
+
+    private static Map<String, byte[]> unzip(Buffer archive) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(archive.getBytes()))) {
+            for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                entries.put(entry.getName(), zis.readAllBytes());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return entries;
+    }
 
-        albumFetchingService.download(TOKEN, USER_ID, ALBUM_ID)
-                .onComplete(response -> assertTrue(response.result().length > 0));
+    private static File writeToTempFile(Buffer archive) throws IOException {
+        Path path = Files.createTempFile("album", ".zip");
+        path.toFile().deleteOnExit();
+        return Files.write(path, archive.getBytes()).toFile();
     }
 
     private static Stream<Arguments> albumsInDifferentOrder() {
@@ -3,6 +3,7 @@ package com.leskor.palermopg.services.album;
 import com.leskor.palermopg.dao.AlbumDao;
 import com.leskor.palermopg.entity.Album;
 import com.leskor.palermopg.exception.AuthorizationException;
+import com.leskor.palermopg.security.AlbumAccessIndex;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -41,7 +42,7 @@ class AlbumUpdatingServiceTest {
     @BeforeEach
     void setUp() {
         dao = mock(AlbumDao.class);
-        albumUpdatingService = new AlbumUpdatingService(dao);
+        albumUpdatingService = new AlbumUpdatingService(dao, new AlbumAccessIndex(dao));
     }
 
     @Test
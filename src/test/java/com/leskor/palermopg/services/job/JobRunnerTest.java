@@ -0,0 +1,100 @@
+package com.leskor.palermopg.services.job;
+
+import com.leskor.palermopg.dao.JobDao;
+import com.leskor.palermopg.entity.Job;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.function.BiFunction;
+
+import static io.vertx.core.Future.succeededFuture;
+import static java.time.LocalDateTime.now;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class JobRunnerTest {
+    private static final String TYPE = "test";
+
+    private JobDao jobDao;
+    private JobRunner jobRunner;
+
+    @BeforeEach
+    void setUp() {
+        jobDao = mock(JobDao.class);
+        jobRunner = new JobRunner(mock(Vertx.class), jobDao, 2);
+        when(jobDao.finish(anyLong(), anyString(), any(), any())).thenReturn(succeededFuture());
+    }
+
+    @Test
+    void runsJobAndMarksItDone() {
+        when(jobDao.acquire(anyString(), eq(JobRunner.LEASE)))
+                .thenReturn(succeededFuture(Optional.of(job(1))))
+                .thenReturn(succeededFuture(Optional.empty()));
+        when(jobDao.checkpoint(eq(1L), anyString(), eq(JobRunner.LEASE), eq(1L), eq(1L), eq(10L)))
+                .thenReturn(succeededFuture());
+        jobRunner.register(task((job, progress) -> progress.update(1, 1, 10)));
+
+        jobRunner.poll();
+
+        verify(jobDao).checkpoint(eq(1L), anyString(), eq(JobRunner.LEASE), eq(1L), eq(1L), eq(10L));
+        verify(jobDao).finish(eq(1L), anyString(), eq(Job.Status.DONE), eq(null));
+    }
+
+    @Test
+    void marksFailedAndUnknownJobsFailed() {
+        when(jobDao.acquire(anyString(), eq(JobRunner.LEASE)))
+                .thenReturn(succeededFuture(Optional.of(job(1))))
+                .thenReturn(succeededFuture(
+                        Optional.of(new Job(2, "unknown", 1, Job.Status.RUNNING, 0, -1, -1, null, now(), now()))))
+                .thenReturn(succeededFuture(Optional.empty()));
+        jobRunner.register(task((job, progress) -> Future.failedFuture("Broken")));
+
+        jobRunner.poll();
+
+        verify(jobDao).finish(eq(1L), anyString(), eq(Job.Status.FAILED), eq("Broken"));
+        verify(jobDao).finish(eq(2L), anyString(), eq(Job.Status.FAILED), eq("Unknown job type unknown"));
+    }
+
+    @Test
+    void runsAtMostConfiguredNumberOfJobs() {
+        when(jobDao.acquire(anyString(), eq(JobRunner.LEASE)))
+                .thenReturn(succeededFuture(Optional.of(job(1))))
+                .thenReturn(succeededFuture(Optional.of(job(2))))
+                .thenReturn(succeededFuture(Optional.of(job(3))));
+        Promise<Void> blocked = Promise.promise();
+        jobRunner.register(task((job, progress) -> blocked.future()));
+
+        jobRunner.poll();
+        jobRunner.poll();
+
+        verify(jobDao, times(2)).acquire(anyString(), eq(JobRunner.LEASE));
+    }
+
+    private static Job job(long id) {
+        return new Job(id, TYPE, 1, Job.Status.RUNNING, 0, -1, -1, null, now(), now());
+    }
+
+    private static JobTask task(BiFunction<Job, JobTask.Progress, Future<Void>> body) {
+        return new JobTask() {
+            @Override
+            public String type() {
+                return TYPE;
+            }
+
+            @Override
+            public Future<Void> run(Job job, Progress progress) {
+                return body.apply(job, progress);
+            }
+        };
+    }
+}
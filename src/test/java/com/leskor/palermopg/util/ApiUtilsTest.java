@@ -0,0 +1,29 @@
+package com.leskor.palermopg.util;
+
+import io.vertx.core.http.HttpServerRequest;
+import org.junit.jupiter.api.Test;
+
+import static io.vertx.core.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ApiUtilsTest {
+    @Test
+    void negotiatesGzip() {
+        assertTrue(ApiUtils.acceptsGzip(request("gzip, deflate, br")));
+        assertTrue(ApiUtils.acceptsGzip(request("br;q=1.0, GZIP;q=0.5")));
+        assertTrue(ApiUtils.acceptsGzip(request("*")));
+        assertFalse(ApiUtils.acceptsGzip(request(null)));
+        assertFalse(ApiUtils.acceptsGzip(request("identity")));
+        assertFalse(ApiUtils.acceptsGzip(request("gzip;q=0, *")));
+        assertFalse(ApiUtils.acceptsGzip(request("br, *;q=0")));
+    }
+
+    private static HttpServerRequest request(String acceptEncoding) {
+        HttpServerRequest request = mock(HttpServerRequest.class);
+        when(request.getHeader(ACCEPT_ENCODING)).thenReturn(acceptEncoding);
+        return request;
+    }
+}
@@ -0,0 +1,120 @@
+package com.leskor.palermopg.util;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.vertx.core.Future.failedFuture;
+import static io.vertx.core.Future.succeededFuture;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchLoaderTest {
+    private Vertx vertx;
+    private List<Set<Long>> batches;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        batches = new ArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    void coalescesLookupsWithinOneTick() throws Exception {
+        BatchLoader<Long, String> loader = new BatchLoader<>(vertx, this::lookup, Long::parseLong);
+
+        List<Optional<String>> results = onContext(() -> CompositeFuture.all(
+                loader.load(1L), loader.load(2L), loader.load(1L), loader.load(404L))
+                .map(CompositeFuture::<Optional<String>>list));
+
+        assertEquals(List.of(Set.of(1L, 2L, 404L)), batches);
+        assertEquals(List.of(Optional.of("1"), Optional.of("2"), Optional.of("1"), Optional.empty()), results);
+    }
+
+    @Test
+    void splitsFullBatches() throws Exception {
+        BatchLoader<Long, String> loader = new BatchLoader<>(vertx, this::lookup, Long::parseLong);
+        int keys = BatchLoader.MAX_BATCH_SIZE + 1;
+
+        List<Future<Optional<String>>> lookups = new ArrayList<>();
+        onContext(() -> {
+            IntStream.range(0, keys).forEach(key -> lookups.add(loader.load((long) key)));
+            return CompositeFuture.all(new ArrayList<>(lookups));
+        });
+
+        assertEquals(2, batches.size());
+        assertEquals(BatchLoader.MAX_BATCH_SIZE, batches.get(0).size());
+        assertEquals(Set.of((long) BatchLoader.MAX_BATCH_SIZE), batches.get(1));
+    }
+
+    @Test
+    void failsEveryLookupOfFailedBatch() throws Exception {
+        BatchLoader<Long, String> loader = new BatchLoader<>(vertx, ids -> failedFuture("Broken"), Long::parseLong);
+
+        String message = onContext(() -> CompositeFuture.join(loader.load(1L), loader.load(2L))
+                .map("Succeeded")
+                .otherwise(cause -> cause.getMessage()));
+
+        assertEquals("Broken", message);
+    }
+
+    @Test
+    void batchesLookupsMadeOutsideOfContext() throws Exception {
+        Context context = vertx.getOrCreateContext();
+        Vertx owner = mock(Vertx.class);
+        when(owner.getOrCreateContext()).thenReturn(context);
+        BatchLoader<Long, String> loader = new BatchLoader<>(owner, this::lookup, Long::parseLong);
+
+        // Holds the loader's context so that every lookup below is queued before the first one runs
+        CountDownLatch queued = new CountDownLatch(1);
+        context.runOnContext(v -> {
+            try {
+                queued.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Future<List<Optional<String>>> results = CompositeFuture.all(loader.load(1L), loader.load(2L), loader.load(1L))
+                .map(CompositeFuture::<Optional<String>>list);
+        queued.countDown();
+
+        assertEquals(List.of(Optional.of("1"), Optional.of("2"), Optional.of("1")),
+                results.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(Set.of(1L, 2L)), batches);
+    }
+
+    private Future<List<String>> lookup(Set<Long> ids) {
+        batches.add(ids);
+        return succeededFuture(ids.stream().filter(id -> id != 404).map(String::valueOf).collect(Collectors.toList()));
+    }
+
+    private <T> T onContext(Supplier<Future<T>> action) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        vertx.runOnContext(v -> action.get().onComplete(done -> {
+            if (done.succeeded()) result.complete(done.result());
+            else result.completeExceptionally(done.cause());
+        }));
+        return result.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,59 @@
+package com.leskor.palermopg.util;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipStreamTest {
+    @Test
+    void compressesWholeBody() throws IOException {
+        String json = "[" + "{\"userId\":42,\"pictureId\":69},".repeat(1000) + "{}]";
+
+        Buffer compressed = GzipStream.gzip(Buffer.buffer(json), ApiUtils.GZIP_LEVEL);
+
+        assertTrue(compressed.length() < json.length() / 10);
+        assertEquals(json, gunzip(compressed));
+    }
+
+    @Test
+    void compressesBodyWrittenInPieces() throws IOException {
+        GzipStream stream = new GzipStream(ApiUtils.GZIP_LEVEL);
+        Buffer compressed = Buffer.buffer();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            String piece = "{\"pictureId\":" + i + "},";
+            expected.append(piece);
+            compressed.appendBuffer(stream.write(Buffer.buffer(piece)));
+            if (i % 128 == 127) {
+                compressed.appendBuffer(stream.flush());
+            }
+        }
+        compressed.appendBuffer(stream.finish());
+
+        assertEquals(expected.toString(), gunzip(compressed));
+    }
+
+    @Test
+    void flushedPrefixCanBeDecoded() throws IOException {
+        GzipStream stream = new GzipStream(ApiUtils.GZIP_LEVEL);
+        Buffer prefix = stream.write(Buffer.buffer("[1,2,3")).appendBuffer(stream.flush());
+
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(prefix.getBytes()));
+        byte[] decoded = new byte[6];
+        assertEquals(6, in.readNBytes(decoded, 0, 6));
+        assertEquals("[1,2,3", new String(decoded, StandardCharsets.UTF_8));
+    }
+
+    private static String gunzip(Buffer compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.getBytes()))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.leskor.palermopg.util;
+
+import com.leskor.palermopg.exception.MissingItemException;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Subscription;
+
+import java.util.stream.IntStream;
+
+import static com.leskor.palermopg.util.ReactiveResponseSubscriber.BATCH_SIZE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+class ReactiveResponseSubscriberTest {
+    private Context context;
+    private HttpServerResponse response;
+    private Subscription subscription;
+    private ReactiveResponseSubscriber<Integer> subscriber;
+
+    @BeforeEach
+    void setUp() {
+        context = mock(Context.class);
+        doAnswer(invocation -> {
+            invocation.<Handler<Void>>getArgument(0).handle(null);
+            return null;
+        }).when(context).runOnContext(any());
+
+        response = mock(HttpServerResponse.class, RETURNS_SELF);
+        subscription = mock(Subscription.class);
+        subscriber = ReactiveResponseSubscriber.forJsonArray(context, response, id -> id);
+        subscriber.onSubscribe(subscription);
+    }
+
+    @Test
+    void requestsNextBatchOnlyAfterWholeBatchIsWritten() {
+        verify(subscription).request(BATCH_SIZE);
+
+        IntStream.range(0, BATCH_SIZE - 1).forEach(subscriber::onNext);
+        verify(subscription, times(1)).request(BATCH_SIZE);
+
+        subscriber.onNext(BATCH_SIZE);
+        verify(subscription, times(2)).request(BATCH_SIZE);
+    }
+
+    @Test
+    void writesDocumentsAsJsonArray() {
+        subscriber.onNext(1);
+        subscriber.onNext(2);
+        subscriber.onComplete();
+
+        verify(response).setChunked(true);
+        verify(response).write("[");
+        verify(response).write("1");
+        verify(response).write(",");
+        verify(response).write("2");
+        verify(response).end("]");
+    }
+
+    @Test
+    void endsEmptyStreamWithEmptyArray() {
+        subscriber.onComplete();
+
+        verify(response).end("[]");
+        verify(response, never()).write(anyString());
+    }
+
+    @Test
+    void waitsForDrainWhenWriteQueueIsFull() {
+        when(response.writeQueueFull()).thenReturn(true);
+
+        IntStream.range(0, BATCH_SIZE).forEach(subscriber::onNext);
+        verify(subscription, times(1)).request(BATCH_SIZE);
+
+        ArgumentCaptor<Handler<Void>> drainHandler = ArgumentCaptor.forClass(Handler.class);
+        verify(response, atLeastOnce()).drainHandler(drainHandler.capture());
+        drainHandler.getValue().handle(null);
+
+        verify(subscription, times(2)).request(BATCH_SIZE);
+    }
+
+    @Test
+    void cancelsSubscriptionWhenClientCloses() {
+        ArgumentCaptor<Handler<Void>> closeHandler = ArgumentCaptor.forClass(Handler.class);
+        verify(response).closeHandler(closeHandler.capture());
+        closeHandler.getValue().handle(null);
+
+        verify(subscription).cancel();
+
+        subscriber.onNext(1);
+        subscriber.onComplete();
+        verify(response, never()).write(anyString());
+        verify(response, never()).end(anyString());
+    }
+
+    @Test
+    void resetsResponseOnErrorAfterBodyStarted() {
+        subscriber.onNext(1);
+        subscriber.onError(new IllegalStateException("Cursor killed"));
+
+        verify(response).reset();
+        verify(response, never()).setStatusCode(500);
+    }
+
+    @Test
+    void answersErrorBeforeBodyWithStatus() {
+        subscriber.onError(new MissingItemException());
+
+        verify(response).setStatusCode(404);
+        verify(response, never()).reset();
+    }
+
+    @Test
+    void closesGzipWhenClientCloses() {
+        GzipStream gzip = subscribeWithGzip();
+
+        ArgumentCaptor<Handler<Void>> closeHandler = ArgumentCaptor.forClass(Handler.class);
+        verify(response, times(2)).closeHandler(closeHandler.capture());
+        closeHandler.getValue().handle(null);
+
+        verify(gzip).close();
+    }
+
+    @Test
+    void closesGzipOnError() {
+        GzipStream gzip = subscribeWithGzip();
+
+        subscriber.onNext(1);
+        subscriber.onError(new IllegalStateException("Cursor killed"));
+
+        verify(gzip).close();
+        verify(response).reset();
+    }
+
+    private GzipStream subscribeWithGzip() {
+        GzipStream gzip = mock(GzipStream.class);
+        when(gzip.write(any())).thenReturn(Buffer.buffer());
+        when(gzip.flush()).thenReturn(Buffer.buffer());
+        subscriber = new ReactiveResponseSubscriber<>(context, response, id -> id, gzip);
+        subscriber.onSubscribe(subscription);
+        return gzip;
+    }
+}
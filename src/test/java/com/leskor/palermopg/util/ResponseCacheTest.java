@@ -0,0 +1,84 @@
+package com.leskor.palermopg.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheTest {
+    private SimpleMeterRegistry registry;
+    private ResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        cache = new ResponseCache(1000, registry);
+    }
+
+    @Test
+    void servesOnlyCurrentVersion() {
+        EncodedJson json = json(10);
+        cache.put("albums/1", 3, json);
+
+        assertSame(json, cache.get("albums/1", 3).orElseThrow());
+        assertFalse(cache.get("albums/1", 4).isPresent());
+        assertFalse(cache.get("albums/2", 3).isPresent());
+        assertEquals(1.0, registry.get("pic.response.cache").tag("result", "hit").counter().count());
+        assertEquals(2.0, registry.get("pic.response.cache").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void keepsNewerVersion() {
+        EncodedJson newer = json(10);
+        cache.put("albums/1", 5, newer);
+        cache.put("albums/1", 4, json(10));
+
+        assertSame(newer, cache.get("albums/1", 5).orElseThrow());
+    }
+
+    @Test
+    void dropsLeastRecentlyUsedOverBudget() {
+        cache.put("a", 1, json(100));
+        cache.put("b", 1, json(100));
+        cache.get("a", 1);
+        for (int i = 0; i < 9; i++) {
+            cache.put("c" + i, 1, json(100));
+        }
+
+        assertTrue(cache.get("a", 1).isPresent());
+        assertFalse(cache.get("b", 1).isPresent());
+    }
+
+    @Test
+    void skipsBodiesTooLargeToCache() {
+        cache.put("a", 1, json(200));
+
+        assertFalse(cache.get("a", 1).isPresent());
+    }
+
+    @Test
+    void countsGzipFormMadeAfterCaching() {
+        byte[] incompressible = new byte[100];
+        new Random(7).nextBytes(incompressible);
+        EncodedJson json = new EncodedJson(Buffer.buffer(incompressible));
+        cache.put("a", 1, json);
+        json.gzip(null);
+        for (int i = 0; i < 8; i++) {
+            cache.put("b" + i, 1, json(100));
+        }
+
+        assertFalse(cache.get("a", 1).isPresent());
+        assertTrue(cache.get("b0", 1).isPresent());
+    }
+
+    private static EncodedJson json(int size) {
+        return new EncodedJson(Buffer.buffer(new byte[size]));
+    }
+}
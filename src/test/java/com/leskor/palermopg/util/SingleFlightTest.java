@@ -0,0 +1,71 @@
+package com.leskor.palermopg.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+    private SimpleMeterRegistry registry;
+    private SingleFlight<String, String> singleFlight;
+    private AtomicInteger calls;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        singleFlight = new SingleFlight<>("test", registry);
+        calls = new AtomicInteger();
+    }
+
+    @Test
+    void sharesInFlightCall() {
+        Promise<String> pending = Promise.promise();
+
+        Future<String> first = singleFlight.execute("a", () -> call(pending.future()));
+        Future<String> second = singleFlight.execute("a", () -> call(pending.future()));
+        pending.complete("data");
+
+        assertEquals(1, calls.get());
+        assertSame(first, second);
+        assertEquals("data", second.result());
+        assertEquals(1.0, coalesced());
+    }
+
+    @Test
+    void keepsDifferentKeysApart() {
+        singleFlight.execute("a", () -> call(Promise.<String>promise().future()));
+        singleFlight.execute("b", () -> call(Promise.<String>promise().future()));
+
+        assertEquals(2, calls.get());
+        assertEquals(0.0, coalesced());
+    }
+
+    @Test
+    void startsNewCallOnceFinished() {
+        Promise<String> failing = Promise.promise();
+        Future<String> failed = singleFlight.execute("a", () -> call(failing.future()));
+        failing.fail("Broken");
+
+        Future<String> retried = singleFlight.execute("a", () -> call(Future.succeededFuture("data")));
+
+        assertTrue(failed.failed());
+        assertEquals("data", retried.result());
+        assertEquals(2, calls.get());
+    }
+
+    private Future<String> call(Future<String> result) {
+        calls.incrementAndGet();
+        return result;
+    }
+
+    private double coalesced() {
+        return registry.get("pic.coalesced.requests").tag("operation", "test").counter().count();
+    }
+}